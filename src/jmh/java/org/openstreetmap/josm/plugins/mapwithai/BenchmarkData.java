@@ -0,0 +1,248 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai;
+
+import javax.json.Json;
+import javax.json.JsonObject;
+import javax.json.JsonReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.DataSetMerger;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.projection.ProjectionRegistry;
+import org.openstreetmap.josm.data.projection.Projections;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.spi.preferences.MemoryPreferences;
+
+/**
+ * Data for benchmarks. Datasets are either synthetic (random roads with some
+ * near duplicates) or built from the recorded MapWithAI responses used by the
+ * unit tests. Both can be generated at (approximately) any size.
+ */
+public final class BenchmarkData {
+    /** Synthetic data */
+    public static final String SYNTHETIC = "synthetic";
+    /** Data recorded from the MapWithAI servers (see src/test/resources/wiremock) */
+    public static final String RECORDED = "recorded";
+
+    private static final File WIREMOCK_MAPPINGS = new File("src/test/resources/wiremock/mappings");
+    private static final String RECORDED_PREFIX = "maps_ml_roads";
+    /** The number of nodes in each synthetic way */
+    private static final int NODES_PER_WAY = 5;
+    /** The offset between copies of the recorded data, in degrees */
+    private static final double COPY_OFFSET = 0.5;
+
+    private static DataSet recorded;
+
+    private BenchmarkData() {
+        // Hide the constructor
+    }
+
+    /**
+     * Set up the parts of JOSM that the benchmarked code needs
+     */
+    public static void setupJosm() {
+        Config.setPreferencesInstance(new MemoryPreferences());
+        ProjectionRegistry.setProjection(Projections.getProjectionByCode("EPSG:3857"));
+    }
+
+    /**
+     * Get a new dataset
+     *
+     * @param type The type of data ({@link #SYNTHETIC} or {@link #RECORDED})
+     * @param size The (approximate) number of primitives
+     * @param seed The seed for synthetic data
+     * @return A new dataset
+     */
+    public static DataSet getDataSet(String type, int size, long seed) {
+        if (RECORDED.equals(type)) {
+            return copyRecorded(size);
+        } else if (SYNTHETIC.equals(type)) {
+            return generateRoads(seed, size / (NODES_PER_WAY + 1));
+        }
+        throw new IllegalArgumentException(type);
+    }
+
+    /**
+     * Generate a dataset with roads. One in ten roads is a near duplicate of the
+     * previous road.
+     *
+     * @param seed The seed for the random number generator
+     * @param ways The number of ways to generate
+     * @return The generated dataset
+     */
+    public static DataSet generateRoads(long seed, int ways) {
+        final Random random = new Random(seed);
+        final DataSet dataSet = new DataSet();
+        // Keep the density the same for different sizes
+        final double extent = 0.01 * Math.sqrt(Math.max(1, ways / 100d));
+        double lat = 0;
+        double lon = 0;
+        for (int i = 0; i < ways; i++) {
+            final boolean duplicate = i > 0 && i % 10 == 0;
+            if (!duplicate) {
+                lat = 39 + random.nextDouble() * extent;
+                lon = -108 + random.nextDouble() * extent;
+            }
+            final List<Node> nodes = new ArrayList<>(NODES_PER_WAY);
+            for (int j = 0; j < NODES_PER_WAY; j++) {
+                // Duplicates are ~10 cm from the original
+                final double offset = duplicate ? 0.000_001 : 0;
+                final Node node = new Node(new LatLon(lat + j * 0.0005 + offset, lon + j * 0.0001 + offset));
+                dataSet.addPrimitive(node);
+                nodes.add(node);
+            }
+            final Way way = new Way();
+            way.setNodes(nodes);
+            way.put("highway", "residential");
+            way.put("source", "digitalglobe");
+            dataSet.addPrimitive(way);
+        }
+        return dataSet;
+    }
+
+    /**
+     * Generate roads that look like they were downloaded from OSM (they have
+     * ids)
+     *
+     * @param seed The seed for the random number generator
+     * @param ways The number of ways to generate
+     * @return The generated dataset
+     */
+    public static DataSet generateOsmRoads(long seed, int ways) {
+        final DataSet dataSet = generateRoads(seed, ways);
+        final DataSet osm = new DataSet();
+        long id = 1;
+        for (Way way : dataSet.getWays()) {
+            final List<Node> nodes = new ArrayList<>(way.getNodesCount());
+            for (Node node : way.getNodes()) {
+                final Node osmNode = new Node(id++, 1);
+                osmNode.setCoor(node.getCoor());
+                osm.addPrimitive(osmNode);
+                nodes.add(osmNode);
+            }
+            final Way osmWay = new Way(id++, 1);
+            osmWay.setNodes(nodes);
+            osmWay.setKeys(way.getKeys());
+            osm.addPrimitive(osmWay);
+        }
+        return osm;
+    }
+
+    /**
+     * Generate MapWithAI roads that connect to OSM roads. Each road starts at a
+     * duplicate of the first node of an OSM road ({@code dupe}) and ends on the
+     * first segment of that road ({@code conn}).
+     *
+     * @param osm The OSM data to connect to
+     * @return The MapWithAI data (not added to the OSM dataset)
+     */
+    public static DataSet generateConnectedRoads(DataSet osm) {
+        final DataSet dataSet = new DataSet();
+        for (Way way : osm.getWays()) {
+            final Node first = way.firstNode();
+            final Node second = way.getNode(1);
+            final Node start = new Node(first.getCoor());
+            start.put("dupe", "n" + first.getUniqueId());
+            final Node middle = new Node(new LatLon(first.lat(), first.lon() + 0.001));
+            final Node end = new Node(first.getCoor().interpolate(second.getCoor(), 0.5));
+            end.put("conn", "w" + way.getUniqueId() + ",n" + first.getUniqueId() + ",n" + second.getUniqueId());
+            final Way newWay = new Way();
+            for (Node node : new Node[] { start, middle, end }) {
+                dataSet.addPrimitive(node);
+                newWay.addNode(node);
+            }
+            newWay.put("highway", "residential");
+            newWay.put("source", "digitalglobe");
+            dataSet.addPrimitive(newWay);
+        }
+        return dataSet;
+    }
+
+    /**
+     * Copy the recorded data until there are at least {@code size} primitives
+     *
+     * @param size The minimum number of primitives
+     * @return A new dataset
+     */
+    private static DataSet copyRecorded(int size) {
+        final DataSet template = getRecorded();
+        final DataSet dataSet = new DataSet();
+        for (int copy = 0; dataSet.allPrimitives().size() < size; copy++) {
+            final double offset = copy * COPY_OFFSET;
+            final Map<Node, Node> nodes = new HashMap<>(template.getNodes().size());
+            for (Node node : template.getNodes()) {
+                if (!node.isLatLonKnown()) {
+                    continue;
+                }
+                final Node newNode = new Node(new LatLon(node.lat() + offset, node.lon()));
+                newNode.setKeys(node.getKeys());
+                dataSet.addPrimitive(newNode);
+                nodes.put(node, newNode);
+            }
+            for (Way way : template.getWays()) {
+                if (way.hasIncompleteNodes()) {
+                    continue;
+                }
+                final Way newWay = new Way();
+                final List<Node> wayNodes = new ArrayList<>(way.getNodesCount());
+                way.getNodes().forEach(node -> wayNodes.add(nodes.get(node)));
+                newWay.setNodes(wayNodes);
+                newWay.setKeys(way.getKeys());
+                dataSet.addPrimitive(newWay);
+            }
+        }
+        return dataSet;
+    }
+
+    private static synchronized DataSet getRecorded() {
+        if (recorded == null) {
+            final File[] mappings = WIREMOCK_MAPPINGS
+                    .listFiles((dir, name) -> name.startsWith(RECORDED_PREFIX) && name.endsWith(".json"));
+            if (mappings == null) {
+                throw new IllegalStateException("No recorded data in " + WIREMOCK_MAPPINGS.getAbsolutePath());
+            }
+            final DataSet dataSet = new DataSet();
+            for (File mapping : mappings) {
+                // The recordings may have the same primitives
+                new DataSetMerger(dataSet, readMapping(mapping)).merge();
+            }
+            if (dataSet.getNodes().stream().noneMatch(Node::isLatLonKnown)) {
+                throw new IllegalStateException("No recorded data in " + WIREMOCK_MAPPINGS.getAbsolutePath());
+            }
+            recorded = dataSet;
+        }
+        return recorded;
+    }
+
+    private static DataSet readMapping(File mapping) {
+        try (InputStream inputStream = Files.newInputStream(mapping.toPath());
+                JsonReader reader = Json.createReader(inputStream)) {
+            final JsonObject response = reader.readObject().getJsonObject("response");
+            final String body = response.getString("body", "");
+            return OsmReader.parseDataSet(new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)),
+                    NullProgressMonitor.INSTANCE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        } catch (IllegalDataException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,86 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.plugins.mapwithai.BenchmarkData;
+
+/**
+ * Benchmarks for {@link GetDataRunnable#cleanup}. Each source is cleaned in its
+ * own dataset, so the parallel benchmark should scale with the number of
+ * sources (up to the number of cores).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GetDataRunnableBenchmark {
+    /** The number of sources (one dataset per source) */
+    @Param({ "1", "2", "4", "6" })
+    public int sources;
+    /** The number of ways per source */
+    @Param({ "2000" })
+    public int ways;
+
+    private List<DataSet> dataSets;
+
+    /**
+     * Set up JOSM
+     */
+    @Setup(Level.Trial)
+    public void setupJosm() {
+        BenchmarkData.setupJosm();
+    }
+
+    /**
+     * Create new datasets, since the cleanup modifies them
+     */
+    @Setup(Level.Invocation)
+    public void setupData() {
+        this.dataSets = IntStream.range(0, this.sources).mapToObj(source -> BenchmarkData.generateRoads(source, this.ways))
+                .collect(Collectors.toList());
+    }
+
+    /**
+     * Clean up each source in parallel (as is done when downloading)
+     */
+    @Benchmark
+    public void cleanupParallel() {
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(this.dataSets.size());
+        for (DataSet dataSet : this.dataSets) {
+            tasks.add(ForkJoinPool.commonPool().submit(() -> GetDataRunnable.cleanup(dataSet, null, null)));
+        }
+        tasks.forEach(ForkJoinTask::join);
+    }
+
+    /**
+     * Clean up each source sequentially, for comparison
+     */
+    @Benchmark
+    public void cleanupSequential() {
+        for (DataSet dataSet : this.dataSets) {
+            GetDataRunnable.cleanup(dataSet, null, null);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.plugins.mapwithai.BenchmarkData;
+
+/**
+ * Benchmarks for {@link GetDataRunnable#cleanup} and
+ * {@link GetDataRunnable#incrementalCleanup} at different dataset sizes
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class GetDataRunnableCleanupBenchmark {
+    /** The number of primitives in a newly downloaded area */
+    private static final int DOWNLOAD_SIZE = 1_000;
+
+    /** The type of data */
+    @Param({ BenchmarkData.SYNTHETIC, BenchmarkData.RECORDED })
+    public String type;
+    /** The number of primitives */
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private DataSet dataSet;
+    private List<OsmPrimitive> dirty;
+
+    /**
+     * Set up JOSM
+     */
+    @Setup(Level.Trial)
+    public void setupJosm() {
+        BenchmarkData.setupJosm();
+    }
+
+    /**
+     * Create a new dataset, since the cleanup modifies it. The dataset for the
+     * incremental cleanup has already been cleaned, except for the newly
+     * downloaded area.
+     */
+    @Setup(Level.Invocation)
+    public void setupData() {
+        this.dataSet = BenchmarkData.getDataSet(this.type, this.size, 0);
+        final DataSet download = BenchmarkData.getDataSet(BenchmarkData.SYNTHETIC, DOWNLOAD_SIZE, 1);
+        this.dirty = new ArrayList<>(download.allPrimitives());
+        this.dataSet.mergeFrom(download);
+    }
+
+    /**
+     * Clean up the entire dataset
+     */
+    @Benchmark
+    public void cleanup() {
+        GetDataRunnable.cleanup(this.dataSet, null, null);
+    }
+
+    /**
+     * Clean up only the newly downloaded data (this should not depend upon the
+     * size of the dataset)
+     */
+    @Benchmark
+    public void incrementalCleanup() {
+        GetDataRunnable.incrementalCleanup(this.dataSet, this.dirty, null);
+    }
+}
@@ -0,0 +1,69 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.commands;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.PrimitiveData;
+import org.openstreetmap.josm.plugins.mapwithai.BenchmarkData;
+
+/**
+ * Benchmarks for {@link CreateConnectionsCommand#createConnections}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CreateConnectionsCommandBenchmark {
+    /** The number of primitives (OSM and MapWithAI) */
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private DataSet dataSet;
+    private Collection<PrimitiveData> primitives;
+
+    /**
+     * Set up JOSM and the data. The commands are not executed, so the data is
+     * not modified.
+     */
+    @Setup(Level.Trial)
+    public void setup() {
+        BenchmarkData.setupJosm();
+        // 6 primitives per OSM way, 4 primitives per MapWithAI way
+        this.dataSet = BenchmarkData.generateOsmRoads(0, this.size / 10);
+        final DataSet mapWithAI = BenchmarkData.generateConnectedRoads(this.dataSet);
+        final List<OsmPrimitive> added = new ArrayList<>(mapWithAI.allPrimitives());
+        this.dataSet.mergeFrom(mapWithAI);
+        this.primitives = added.stream().map(OsmPrimitive::save).collect(Collectors.toList());
+    }
+
+    /**
+     * Create the connection commands
+     *
+     * @return The commands (so that they are not optimized away)
+     */
+    @Benchmark
+    public List<Command> createConnections() {
+        return CreateConnectionsCommand.createConnections(this.dataSet, this.primitives);
+    }
+}
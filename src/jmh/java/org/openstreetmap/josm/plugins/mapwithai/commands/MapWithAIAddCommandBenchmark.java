@@ -0,0 +1,76 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.commands;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.data.UndoRedoHandler;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.plugins.mapwithai.BenchmarkData;
+
+/**
+ * Benchmarks for adding MapWithAI data to OSM data with
+ * {@link MapWithAIAddCommand}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MapWithAIAddCommandBenchmark {
+    /** The number of primitives (OSM and MapWithAI) */
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private DataSet osm;
+    private DataSet mapWithAI;
+    private Collection<OsmPrimitive> selection;
+
+    /**
+     * Set up JOSM
+     */
+    @Setup(Level.Trial)
+    public void setupJosm() {
+        BenchmarkData.setupJosm();
+    }
+
+    /**
+     * Create new data, since the command moves the MapWithAI data to the OSM
+     * data
+     */
+    @Setup(Level.Invocation)
+    public void setupData() {
+        UndoRedoHandler.getInstance().clean();
+        // 6 primitives per OSM way, 4 primitives per MapWithAI way
+        this.osm = BenchmarkData.generateOsmRoads(0, this.size / 10);
+        this.mapWithAI = BenchmarkData.generateConnectedRoads(this.osm);
+        this.selection = new ArrayList<>(this.mapWithAI.getWays());
+    }
+
+    /**
+     * Add all of the MapWithAI ways to the OSM data
+     *
+     * @return The command (so that it is not optimized away)
+     */
+    @Benchmark
+    public MapWithAIAddCommand addCommand() {
+        final MapWithAIAddCommand command = new MapWithAIAddCommand(this.mapWithAI, this.osm, this.selection);
+        command.executeCommand();
+        return command;
+    }
+}
@@ -0,0 +1,70 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.commands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openstreetmap.josm.command.Command;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.plugins.mapwithai.BenchmarkData;
+
+/**
+ * Benchmarks for {@link MergeDuplicateWays#filterDataSet}
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MergeDuplicateWaysBenchmark {
+    /** The type of data */
+    @Param({ BenchmarkData.SYNTHETIC, BenchmarkData.RECORDED })
+    public String type;
+    /** The number of primitives */
+    @Param({ "1000", "10000", "100000" })
+    public int size;
+
+    private DataSet dataSet;
+
+    /**
+     * Set up JOSM
+     */
+    @Setup(Level.Trial)
+    public void setupJosm() {
+        BenchmarkData.setupJosm();
+    }
+
+    /**
+     * Create a new dataset, since merging ways modifies it
+     */
+    @Setup(Level.Invocation)
+    public void setupData() {
+        this.dataSet = BenchmarkData.getDataSet(this.type, this.size, 0);
+    }
+
+    /**
+     * Look for duplicate ways in the entire dataset
+     *
+     * @return The commands (so that they are not optimized away)
+     */
+    @Benchmark
+    public List<Command> filterDataSet() {
+        final List<Command> commands = new ArrayList<>();
+        MergeDuplicateWays.filterDataSet(this.dataSet, commands, null);
+        return commands;
+    }
+}
@@ -32,11 +32,15 @@ import org.openstreetmap.josm.plugins.PluginInformation;
 import org.openstreetmap.josm.plugins.mapwithai.backend.DownloadListener;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIAction;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAILayer;
+import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIMetrics;
+import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIMetricsAction;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIMoveAction;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIObject;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIRemoteControl;
+import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAITileSizer;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIUploadHook;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MergeDuplicateWaysAction;
+import org.openstreetmap.josm.plugins.mapwithai.backend.NodeLocationIndex;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAILayerInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.PreConflatedDataUtils;
 import org.openstreetmap.josm.plugins.mapwithai.data.validation.tests.ConnectingNodeInformationTest;
@@ -79,6 +83,7 @@ public final class MapWithAIPlugin extends Plugin implements Destroyable {
         MENU_ENTRIES.put(MapWithAIAction.class, false);
         MENU_ENTRIES.put(MapWithAIMoveAction.class, false);
         MENU_ENTRIES.put(MergeDuplicateWaysAction.class, true);
+        MENU_ENTRIES.put(MapWithAIMetricsAction.class, true);
     }
 
     private static final List<Class<? extends Test>> VALIDATORS = Arrays.asList(RoutingIslandsTest.class,
@@ -139,6 +144,7 @@ public final class MapWithAIPlugin extends Plugin implements Destroyable {
         MainApplication.worker.execute(() -> UpdateProd.doProd(info.mainversion));
 
         destroyables.add(new MapWithAICopyProhibit());
+        MapWithAIMetrics.register();
     }
 
     @Override
@@ -206,5 +212,8 @@ public final class MapWithAIPlugin extends Plugin implements Destroyable {
         OSMDownloadSource.removeDownloadType(OSMDownloadSource.getDownloadType(MapWithAIDownloadSourceType.class));
         VALIDATORS.forEach(OsmValidator::removeTest);
         DownloadListener.destroyAll();
+        MapWithAIMetrics.unregister();
+        MapWithAITileSizer.save();
+        NodeLocationIndex.destroy();
     }
 }
@@ -6,9 +6,8 @@ import static org.openstreetmap.josm.gui.help.HelpUtil.ht;
 import java.awt.event.ActionEvent;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 
 import org.openstreetmap.josm.actions.AdaptableAction;
@@ -105,15 +104,12 @@ public class AddMapWithAILayerAction extends JosmAction implements AdaptableActi
             ds = null;
         }
         if (boundsSource != null && ds != null) {
-            ForkJoinPool pool = MapWithAIDataUtils.getForkJoinPool();
-            List<ForkJoinTask<DataSet>> forkJoinTasks = new ArrayList<>(boundsSource.getDataSourceBounds().size());
+            List<CompletableFuture<DataSet>> tasks = new ArrayList<>(boundsSource.getDataSourceBounds().size());
             for (Bounds b : boundsSource.getDataSourceBounds()) {
-                ForkJoinTask<DataSet> task = MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, b, info,
-                        MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
-                forkJoinTasks.add(task);
-                pool.execute(task);
+                tasks.add(MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, b, info,
+                        MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS));
             }
-            for (ForkJoinTask<DataSet> task : forkJoinTasks) {
+            for (CompletableFuture<DataSet> task : tasks) {
                 ds.mergeFrom(task.join());
             }
         }
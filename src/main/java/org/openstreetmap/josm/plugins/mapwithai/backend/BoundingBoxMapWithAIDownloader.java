@@ -4,38 +4,37 @@ package org.openstreetmap.josm.plugins.mapwithai.backend;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import javax.json.Json;
-import javax.json.JsonObject;
-import javax.json.JsonReader;
-import javax.json.JsonStructure;
-import javax.json.JsonValue;
 import javax.json.stream.JsonParser;
 import javax.swing.JOptionPane;
 
 import java.awt.geom.Area;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.UncheckedIOException;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.SocketTimeoutException;
 import java.net.URL;
-import java.nio.charset.StandardCharsets;
 import java.time.Instant;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
 import java.util.List;
-import java.util.Map;
 import java.util.OptionalInt;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.DataSource;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.IPrimitive;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
@@ -43,7 +42,6 @@ import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
 import org.openstreetmap.josm.io.BoundingBoxDownloader;
-import org.openstreetmap.josm.io.GeoJSONReader;
 import org.openstreetmap.josm.io.IllegalDataException;
 import org.openstreetmap.josm.io.OsmApiException;
 import org.openstreetmap.josm.io.OsmReader;
@@ -53,10 +51,11 @@ import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIConflati
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAILayerInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIType;
+import org.openstreetmap.josm.plugins.mapwithai.io.mapwithai.GeoJSONStreamReader;
+import org.openstreetmap.josm.plugins.mapwithai.tools.CompressionUtils;
 import org.openstreetmap.josm.plugins.mapwithai.tools.MapPaintUtils;
 import org.openstreetmap.josm.tools.HttpClient;
 import org.openstreetmap.josm.tools.JosmRuntimeException;
-import org.openstreetmap.josm.tools.Logging;
 
 /**
  * A bounding box downloader for MapWithAI
@@ -73,13 +72,25 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
     private final boolean crop;
     private final int start;
 
-    private static long lastErrorTime;
-
     private final Bounds downloadArea;
     private final MapWithAIInfo info;
     private DataConflationSender dcs;
+    /** The conflated data, if the data is being conflated */
+    private CompletableFuture<DataSet> conflatedData;
+    /** The validators for the cached copy of the data (sent with the request) */
+    private MapWithAIDataCache.Validators validators;
+    /** The validators the server sent with the data */
+    private MapWithAIDataCache.Validators responseValidators;
+    /** The time the request was sent (see {@link MapWithAIMetrics#start}) */
+    private long requestTime;
+    /** {@code true} if the data could not be downloaded */
+    private boolean failed;
 
     private static final int DEFAULT_TIMEOUT = 50_000; // 50 seconds
+    /** The maximum number of Esri Feature Server pages to download at the same time */
+    private static final IntegerProperty ESRI_PAGE_WINDOW = new IntegerProperty("mapwithai.download.esri.pages", 4);
+    /** The number of times to try to download an Esri Feature Server page */
+    private static final int ESRI_PAGE_ATTEMPTS = 2;
 
     /**
      * Create a new {@link BoundingBoxMapWithAIDownloader} object
@@ -121,47 +132,131 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
                         : "");
     }
 
+    /**
+     * Set the validators for a cached copy of the data. If the server says the
+     * data has not been modified, the cached copy is returned.
+     *
+     * @param validators The validators from {@link MapWithAIDataCache#getValidators}
+     *                   (may be {@code null})
+     */
+    public void setValidators(MapWithAIDataCache.Validators validators) {
+        this.validators = validators;
+    }
+
+    /**
+     * Get the validators that the server sent with the data
+     *
+     * @return The validators, or {@code null} if the server did not send any (or
+     *         the data came from multiple requests)
+     */
+    public MapWithAIDataCache.Validators getResponseValidators() {
+        return this.responseValidators;
+    }
+
+    /**
+     * Get the conflated data. {@link #parseOsm} returns the unconflated data, since
+     * conflation can take a while.
+     *
+     * @return A future for the conflated data (which completes with {@code null}
+     *         if the data could not be conflated), or {@code null} if the data is
+     *         not being conflated
+     */
+    public CompletableFuture<DataSet> getConflatedData() {
+        return this.conflatedData;
+    }
+
+    /**
+     * Check if the data from a source is sent to a conflation server
+     *
+     * @param info The source of the data
+     * @return {@code true} if the data is conflated by a third party server
+     */
+    static boolean isSentToConflation(MapWithAIInfo info) {
+        return Boolean.TRUE.equals(MapWithAIInfo.THIRD_PARTY_CONFLATE.get()) && !info.isConflated()
+                && !MapWithAIConflationCategory.conflationUrlFor(info.getCategory()).isEmpty();
+    }
+
+    /**
+     * Check if the download failed. {@link #parseOsm} returns an empty dataset
+     * for a failed download, and the download may be retried in the background
+     * (see {@link DownloadRetry}).
+     *
+     * @return {@code true} if the data could not be downloaded
+     */
+    public boolean hasFailed() {
+        return this.failed;
+    }
+
     @Override
     public DataSet parseOsm(ProgressMonitor progressMonitor) throws OsmTransferException {
+        // Esri pages are part of the first download
+        if (this.start == 0 && !MapWithAICircuitBreaker.get(this.info).allowRequest()) {
+            // The server is having issues, so don't add to them
+            return downloadFailed();
+        }
         long startTime = System.nanoTime();
+        this.requestTime = MapWithAIMetrics.start();
         try {
             DataSet externalData = super.parseOsm(progressMonitor);
+            if (this.failed) {
+                // A page of the data could not be downloaded, so the data is incomplete
+                recordResult(false);
+                return downloadFailed();
+            }
+            if (this.start == 0) {
+                recordResult(true);
+                final int features = externalData.allPrimitives().size();
+                MapWithAIMetrics.recordRequest(this.info, features);
+                MapWithAITileSizer.record(this.info, this.downloadArea, features,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
             // Don't call conflate code unnecessarily
             if ((this.info.getSourceType() != MapWithAIType.ESRI_FEATURE_SERVER || this.start == 0)
-                    && Boolean.TRUE.equals(MapWithAIInfo.THIRD_PARTY_CONFLATE.get()) && !this.info.isConflated()
-                    && !MapWithAIConflationCategory.conflationUrlFor(this.info.getCategory()).isEmpty()) {
+                    && isSentToConflation(this.info)) {
                 if (externalData.getDataSourceBounds().isEmpty()) {
                     externalData.addDataSource(new DataSource(this.downloadArea, "External Data"));
                 }
                 DataSet toConflate = getConflationData(this.downloadArea);
-                dcs = new DataConflationSender(this.info.getCategory(), toConflate, externalData);
-                dcs.run();
-                try {
-                    DataSet conflatedData = dcs.get(30, TimeUnit.SECONDS);
-                    if (conflatedData != null) {
-                        externalData = conflatedData;
-                    }
-                } catch (InterruptedException e) {
-                    Logging.error(e);
-                    Thread.currentThread().interrupt();
-                } catch (ExecutionException | TimeoutException e) {
-                    Logging.error(e);
-                }
+                // Don't wait for the conflation server. The unconflated data is shown until the
+                // conflated data is available (see getConflatedData). The data is copied, since
+                // the caller may modify the returned dataset while it is being sent.
+                dcs = new DataConflationSender(this.info.getCategory(), toConflate, new DataSet(externalData));
+                this.conflatedData = dcs.submit();
             }
             MapPaintUtils.addSourcesToPaintStyle(externalData);
             return externalData;
         } catch (OsmApiException e) {
-            if (!(e.getResponseCode() == 504 && (System.nanoTime() - lastErrorTime) < 120_000_000_000L)) {
+            if (e.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED && this.validators != null) {
+                final DataSet cached = MapWithAIDataCache.getStale(this.info, this.downloadArea, this.crop);
+                if (cached != null) {
+                    recordResult(true);
+                    // The cached data is current again
+                    this.responseValidators = new MapWithAIDataCache.Validators(this.validators.getETag(),
+                            this.validators.getLastModified());
+                    return cached;
+                }
+            }
+            // The server is working if it did not send a server error
+            recordResult(e.getResponseCode() < HttpURLConnection.HTTP_INTERNAL_ERROR);
+            if (e.getResponseCode() != HttpURLConnection.HTTP_BAD_GATEWAY
+                    && e.getResponseCode() != HttpURLConnection.HTTP_UNAVAILABLE
+                    && e.getResponseCode() != HttpURLConnection.HTTP_GATEWAY_TIMEOUT) {
                 throw e;
             }
         } catch (OsmTransferException e) {
+            if (e.getCause() instanceof SocketTimeoutException && this.start == 0) {
+                MapWithAITileSizer.recordTimeout(this.info, this.downloadArea,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime));
+            }
             if (e.getCause() instanceof SocketTimeoutException && (System.nanoTime() - startTime) > 30_000_000_000L) {
-                updateLastErrorTime(System.nanoTime());
+                recordResult(false);
                 Notification note = new Notification();
                 GuiHelper.runInEDT(() -> note.setContent(tr(
                         "Attempting to download data in the background. This may fail or succeed in a few minutes.")));
                 GuiHelper.runInEDT(note::show);
             } else if (e.getCause() instanceof IllegalDataException) {
+                // The server sent something, but the source definitions may be out of date
+                recordResult(true);
                 final Instant lastUpdated;
                 final Instant now;
                 synchronized (BoundingBoxMapWithAIDownloader.class) {
@@ -181,26 +276,47 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
                             }));
                 }
             } else {
+                // The caller handles other errors (short timeouts are retried with smaller areas)
+                recordResult(false);
                 throw e;
             }
+        } catch (RuntimeException e) {
+            recordResult(false);
+            throw e;
         }
         // Just in case something happens, try again...
-        DataSet ds = new DataSet();
-        GetDataRunnable runnable = new GetDataRunnable(downloadArea, ds, NullProgressMonitor.INSTANCE);
-        runnable.setMapWithAIInfo(info);
-        MainApplication.worker.execute(() -> {
-            try {
-                // It seems that the server has issues if I make a request soon
-                // after the failing request due to a timeout.
-                TimeUnit.SECONDS.sleep(10);
-            } catch (InterruptedException e1) {
-                Thread.currentThread().interrupt();
-            }
-            runnable.compute();
-        });
+        return downloadFailed();
+    }
 
-        MapPaintUtils.addSourcesToPaintStyle(ds);
-        return ds;
+    /**
+     * Record the result of a download with the {@link MapWithAICircuitBreaker}
+     * for the source
+     *
+     * @param success {@code true} if the server responded without a server error
+     */
+    private void recordResult(boolean success) {
+        if (this.start != 0) {
+            return;
+        }
+        final MapWithAICircuitBreaker breaker = MapWithAICircuitBreaker.get(this.info);
+        if (success) {
+            breaker.recordSuccess();
+            DownloadRetry.succeeded(this.info, this.downloadArea, this.crop);
+        } else {
+            breaker.recordFailure();
+        }
+    }
+
+    /**
+     * Mark the download as failed (see {@link #hasFailed}). The caller decides
+     * if the download should be retried (see {@link DownloadRetry}), since only
+     * the caller knows where the data goes.
+     *
+     * @return An empty dataset
+     */
+    private DataSet downloadFailed() {
+        this.failed = true;
+        return new DataSet();
     }
 
     /**
@@ -222,43 +338,42 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
         return null;
     }
 
-    private static void updateLastErrorTime(long time) {
-        lastErrorTime = time;
-    }
-
     @Override
-    protected DataSet parseDataSet(InputStream source, ProgressMonitor progressMonitor) throws IllegalDataException {
+    protected DataSet parseDataSet(InputStream compressedSource, ProgressMonitor progressMonitor)
+            throws IllegalDataException {
+        final long time = MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.HTTP, this.requestTime);
         DataSet ds;
-        String contentType = this.activeConnection.getResponse().getContentType();
+        final InputStream source;
+        try {
+            // Decode as the parser reads, instead of decompressing into memory first
+            source = CompressionUtils.decode(MapWithAIMetrics.count(this.info, compressedSource));
+        } catch (IOException e) {
+            throw new IllegalDataException(e);
+        }
+        final HttpClient.Response response = this.activeConnection.getResponse();
+        String contentType = response.getContentType();
+        if (this.start == 0) {
+            final MapWithAIDataCache.Validators sent = new MapWithAIDataCache.Validators(
+                    response.getHeaderField("ETag"), response.getHeaderField("Last-Modified"));
+            this.responseValidators = sent.isValid() ? sent : null;
+        }
         if (Arrays.asList("text/json", "application/json", "application/geo+json").contains(contentType)
                 // Fall back to Esri Feature Server check. They don't always indicate a json
                 // return type. :(
                 || (this.info.getSourceType() == MapWithAIType.ESRI_FEATURE_SERVER && !this.info.isConflated())) {
-            // Rather unfortunately, we need to read the entire json in order to figure out
-            // if we need to make additional calls
-            try (JsonReader reader = Json.createReader(source)) {
-                JsonStructure structure = reader.read();
-                try (ByteArrayInputStream bais = new ByteArrayInputStream(
-                        structure.toString().getBytes(StandardCharsets.UTF_8))) {
-                    ds = GeoJSONReader.parseDataSet(bais, progressMonitor);
-                } catch (IOException e) {
-                    throw new UncheckedIOException(e);
-                }
-                /* We should only call this from the "root" call */
-                if (this.start == 0 && structure.getValueType() == JsonValue.ValueType.OBJECT) {
-                    final JsonObject serverObj = structure.asJsonObject();
-                    final boolean exceededTransferLimit = serverObj.entrySet().stream()
-                            .filter(entry -> "properties".equals(entry.getKey())
-                                    && entry.getValue().getValueType() == JsonValue.ValueType.OBJECT)
-                            .map(Map.Entry::getValue).map(JsonValue::asJsonObject)
-                            .map(obj -> obj.getBoolean("exceededTransferLimit", false)).findFirst().orElse(false);
-                    if (exceededTransferLimit && this.info.getSourceType() == MapWithAIType.ESRI_FEATURE_SERVER) {
-                        final int size = serverObj.getJsonArray("features").size();
-                        final DataSet other = this.getAdditionalEsriData(progressMonitor,
-                                this.getRequestForBbox(this.lon1, this.lat1, this.lon2, this.lat2), size);
-                        ds.mergeFrom(other, progressMonitor.createSubTaskMonitor(0, false));
-                    }
-                }
+            // Build the dataset directly from the parser events, so that we don't keep
+            // multiple copies of the response in memory.
+            final GeoJSONStreamReader reader = GeoJSONStreamReader.parse(source, progressMonitor);
+            ds = reader.getDataSet();
+            MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.PARSE, time);
+            /* We should only call this from the "root" call */
+            if (this.start == 0 && reader.isExceededTransferLimit()
+                    && this.info.getSourceType() == MapWithAIType.ESRI_FEATURE_SERVER) {
+                final DataSet other = this.getAdditionalEsriData(progressMonitor,
+                        this.getRequestForBbox(this.lon1, this.lat1, this.lon2, this.lat2), reader.getFeatureCount());
+                ds.mergeFrom(other, progressMonitor.createSubTaskMonitor(0, false));
+                // The validators are only for the first page
+                this.responseValidators = null;
             }
             if (info.getReplacementTags() != null) {
                 GetDataRunnable.replaceKeys(ds, info.getReplacementTags());
@@ -267,6 +382,7 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
             // Fall back to XML parsing
             ds = OsmReader.parseDataSet(source, progressMonitor, OsmReader.Options.CONVERT_UNKNOWN_TO_TAGS,
                     OsmReader.Options.SAVE_ORIGINAL_ID);
+            MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.PARSE, time);
         }
         if (url != null && info.getUrl() != null && !info.getUrl().trim().isEmpty()) {
             if (info.getSource() != null) {
@@ -283,8 +399,12 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
         DataSet returnDs = new DataSet();
         try {
             HttpClient client = HttpClient.create(new URL(baseUrl + "&returnCountOnly=true"));
+            if (CompressionUtils.isEnabled()) {
+                client.setHeader("Accept-Encoding", CompressionUtils.ACCEPT_ENCODING);
+            }
             int objects = Integer.MIN_VALUE;
-            try (InputStream is = client.connect().getContent(); JsonParser parser = Json.createParser(is)) {
+            try (InputStream is = CompressionUtils.decode(client.connect().getContent());
+                    JsonParser parser = Json.createParser(is)) {
                 while (parser.hasNext()) {
                     JsonParser.Event event = parser.next();
                     if (event == JsonParser.Event.START_OBJECT) {
@@ -303,20 +423,11 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
             } finally {
                 client.disconnect();
             }
-            // Zero indexed. Esri uses 2000 as the limit. 0-1999 is 2000 objects, so we want
-            // to start at 2000 for the next round.
             try {
                 progressMonitor.beginTask(tr("Downloading additional data"), objects);
                 // We have already downloaded some of the objects. Set the ticks.
                 progressMonitor.worked(size);
-                while (progressMonitor.getTicks() < progressMonitor.getTicksCount() - 1) {
-                    DataSet next = new BoundingBoxMapWithAIDownloader(this.downloadArea, this.info, this.crop,
-                            this.start + size).parseOsm(progressMonitor.createSubTaskMonitor(0, false));
-                    progressMonitor.worked((int) next.allPrimitives().stream().filter(IPrimitive::isTagged).count());
-                    returnDs.mergeFrom(next);
-                }
-            } catch (OsmTransferException e) {
-                throw new JosmRuntimeException(e);
+                getEsriPages(progressMonitor, returnDs, size, objects);
             } finally {
                 progressMonitor.finishTask();
             }
@@ -326,6 +437,74 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
         return returnDs;
     }
 
+    /**
+     * Download the remaining pages from an Esri Feature Server. Up to
+     * {@link #ESRI_PAGE_WINDOW} pages are downloaded (and parsed) at the same
+     * time, but they are merged in order. If a page cannot be downloaded, the
+     * download fails (see {@link #hasFailed}).
+     *
+     * @param progressMonitor The monitor to update
+     * @param returnDs        The dataset to merge the pages into
+     * @param pageSize        The number of objects in a page
+     * @param objects         The total number of objects
+     */
+    private void getEsriPages(ProgressMonitor progressMonitor, DataSet returnDs, int pageSize, int objects) {
+        if (pageSize <= 0) {
+            return;
+        }
+        final int window = Math.max(1, ESRI_PAGE_WINDOW.get());
+        final ExecutorService executor = MapWithAIDownloadScheduler.newExecutor("mapwithai-esri-", window);
+        final Deque<Future<DataSet>> pages = new ArrayDeque<>(window);
+        // Zero indexed. Esri uses 2000 as the limit. 0-1999 is 2000 objects, so we want
+        // to start at 2000 for the next round.
+        int offset = this.start + pageSize;
+        try {
+            while (!progressMonitor.isCanceled() && (offset < objects || !pages.isEmpty())) {
+                while (offset < objects && pages.size() < window) {
+                    final int pageOffset = offset;
+                    pages.add(executor.submit(() -> getEsriPage(pageOffset)));
+                    offset += pageSize;
+                }
+                final DataSet next = pages.remove().get();
+                if (next == null) {
+                    // Don't return part of the data
+                    this.failed = true;
+                    return;
+                }
+                progressMonitor.worked((int) next.allPrimitives().stream().filter(IPrimitive::isTagged).count());
+                returnDs.mergeFrom(next);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JosmRuntimeException(e);
+        } catch (ExecutionException e) {
+            throw new JosmRuntimeException(e.getCause());
+        } finally {
+            pages.forEach(page -> page.cancel(true));
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Download a page from an Esri Feature Server. Failed pages are tried again.
+     *
+     * @param offset The number of objects to skip
+     * @return The page, or {@code null} if it could not be downloaded
+     * @throws OsmTransferException If the server sent an error that should not
+     *                              be retried
+     */
+    private DataSet getEsriPage(int offset) throws OsmTransferException {
+        for (int attempt = 0; attempt < ESRI_PAGE_ATTEMPTS; attempt++) {
+            final BoundingBoxMapWithAIDownloader page = new BoundingBoxMapWithAIDownloader(this.downloadArea,
+                    this.info, this.crop, offset);
+            final DataSet data = page.parseOsm(NullProgressMonitor.INSTANCE);
+            if (!page.hasFailed()) {
+                return data;
+            }
+        }
+        return null;
+    }
+
     private static String getMapWithAISourceTag(MapWithAIInfo info) {
         return info.getName() == null ? MapWithAIPlugin.NAME : info.getName();
     }
@@ -350,6 +529,17 @@ public class BoundingBoxMapWithAIDownloader extends BoundingBoxDownloader {
     protected void adaptRequest(HttpClient request) {
         final StringBuilder defaultUserAgent = new StringBuilder();
         request.setReadTimeout(DEFAULT_TIMEOUT);
+        if (CompressionUtils.isEnabled()) {
+            request.setHeader("Accept-Encoding", CompressionUtils.ACCEPT_ENCODING);
+        }
+        if (this.validators != null && this.start == 0) {
+            if (this.validators.getETag() != null) {
+                request.setHeader("If-None-Match", this.validators.getETag());
+            }
+            if (this.validators.getLastModified() != null) {
+                request.setHeader("If-Modified-Since", this.validators.getLastModified());
+            }
+        }
         defaultUserAgent.append(request.getHeaders().get("User-Agent"));
         if (defaultUserAgent.toString().trim().length() == 0) {
             defaultUserAgent.append("JOSM");
@@ -4,26 +4,49 @@ package org.openstreetmap.josm.plugins.mapwithai.backend;
 import static org.openstreetmap.josm.tools.I18n.tr;
 
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.PrintWriter;
-import java.io.StringWriter;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.RunnableFuture;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
 
+import org.apache.hc.client5.http.classic.methods.HttpGet;
 import org.apache.hc.client5.http.classic.methods.HttpPost;
 import org.apache.hc.client5.http.classic.methods.HttpUriRequest;
+import org.apache.hc.client5.http.entity.GzipCompressingEntity;
+import org.apache.hc.client5.http.entity.mime.AbstractContentBody;
 import org.apache.hc.client5.http.entity.mime.MultipartEntityBuilder;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpClient;
 import org.apache.hc.client5.http.impl.classic.CloseableHttpResponse;
 import org.apache.hc.client5.http.impl.classic.HttpClients;
 import org.apache.hc.core5.http.ContentType;
+import org.apache.hc.core5.http.Header;
 import org.apache.hc.core5.http.HttpEntity;
 import org.apache.hc.core5.http.HttpStatus;
 import org.apache.hc.core5.http.ProtocolVersion;
 import org.apache.hc.core5.http.message.StatusLine;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.io.IllegalDataException;
 import org.openstreetmap.josm.io.OsmReader;
@@ -31,24 +54,43 @@ import org.openstreetmap.josm.io.OsmWriter;
 import org.openstreetmap.josm.io.OsmWriterFactory;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAICategory;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIConflationCategory;
+import org.openstreetmap.josm.plugins.mapwithai.tools.CompressionUtils;
 import org.openstreetmap.josm.tools.Logging;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
- * Conflate data with a third party server
+ * Conflate data with a third party server. Use {@link #submit()} to conflate
+ * the data in the background; servers may either return the conflated data
+ * directly, or return {@code 202 Accepted} with the location of a job to poll.
  *
  * @author Taylor Smock
  */
 public class DataConflationSender implements RunnableFuture<DataSet> {
 
+    /**
+     * Compress conflation requests. The conflation server must support
+     * {@code Content-Encoding: gzip} for requests.
+     */
+    public static final BooleanProperty COMPRESS_REQUEST = new BooleanProperty("mapwithai.conflation.compress",
+            false);
     private static final int MAX_POLLS = 100;
+    /** The initial delay between polls of a conflation job (milliseconds) */
+    private static final long INITIAL_POLL_DELAY = 500;
+    /** The maximum delay between polls of a conflation job (milliseconds) */
+    private static final long MAX_POLL_DELAY = 10_000;
+    /** The maximum number of concurrent conflation requests (when virtual threads are not available) */
+    private static final int MAX_CONCURRENT = 2;
+    private static ExecutorService executor;
+    /** The OSM data sent for conflation is limited to the external data plus this buffer (degrees) */
+    private static final double SCOPE_BUFFER = 0.001;
     private final DataSet external;
     private final DataSet osm;
     private final MapWithAICategory category;
     private DataSet conflatedData;
     private CloseableHttpClient client;
-    private boolean done;
-    private boolean cancelled;
+    private volatile boolean done;
+    private volatile boolean cancelled;
+    private final CompletableFuture<DataSet> future = new CompletableFuture<>();
 
     /**
      * Conflate external data
@@ -63,38 +105,65 @@ public class DataConflationSender implements RunnableFuture<DataSet> {
         this.osm = openstreetmap;
         this.external = external;
         this.category = category;
+        // Cancelling the future (e.g., when the download is no longer needed) cancels the request
+        this.future.whenComplete((data, throwable) -> {
+            if (this.future.isCancelled() && !this.cancelled) {
+                this.cancel(true);
+            }
+        });
+    }
+
+    /**
+     * Start conflating the data in the background
+     *
+     * @return A future for the conflated data. The future completes with
+     *         {@code null} if the data could not be conflated, and cancelling it
+     *         cancels the conflation.
+     */
+    public CompletableFuture<DataSet> submit() {
+        getExecutor().execute(this);
+        return this.future;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = MapWithAIDownloadScheduler.newExecutor("mapwithai-conflation-", MAX_CONCURRENT);
+        }
+        return executor;
     }
 
     @Override
     public void run() {
         String url = MapWithAIConflationCategory.conflationUrlFor(category);
-        if (!Utils.isBlank(url)) {
+        if (!Utils.isBlank(url) && !this.cancelled) {
             this.client = HttpClients.createDefault();
             try (CloseableHttpClient currentClient = this.client) {
+                // The XML is written as the request is sent, so we never hold a copy of it in memory
                 MultipartEntityBuilder multipartEntityBuilder = MultipartEntityBuilder.create();
                 if (osm != null) {
-                    StringWriter output = new StringWriter();
-                    try (OsmWriter writer = OsmWriterFactory.createOsmWriter(new PrintWriter(output), true, "0.6")) {
-                        writer.write(osm);
-                        multipartEntityBuilder.addTextBody("openstreetmap", output.toString(),
-                                ContentType.APPLICATION_XML);
-                    }
-                }
-                // We need to reset the writers to avoid writing previous streams
-                StringWriter output = new StringWriter();
-                try (OsmWriter writer = OsmWriterFactory.createOsmWriter(new PrintWriter(output), true, "0.6")) {
-                    writer.write(external);
-                    multipartEntityBuilder.addTextBody("external", output.toString(), ContentType.APPLICATION_XML);
+                    // Copy the OSM data first, so that the OSM layer is not locked while the request is sent
+                    final DataSet scoped = copyScope(osm, getScope(external));
+                    multipartEntityBuilder.addPart("openstreetmap",
+                            new OsmContentBody(writer -> writeScope(writer, scoped)));
                 }
+                multipartEntityBuilder.addPart("external", new OsmContentBody(writer -> write(writer, external)));
                 HttpEntity postData = multipartEntityBuilder.build();
+                if (Boolean.TRUE.equals(COMPRESS_REQUEST.get())) {
+                    postData = new GzipCompressingEntity(postData);
+                }
                 HttpUriRequest request = new HttpPost(url);
                 request.setEntity(postData);
+                if (CompressionUtils.isEnabled()) {
+                    request.setHeader("Accept-Encoding", CompressionUtils.ACCEPT_ENCODING);
+                }
 
                 CloseableHttpResponse response = currentClient.execute(request);
                 StatusLine statusLine = new StatusLine(response);
                 if (statusLine.getStatusCode() == HttpStatus.SC_OK) {
-                    conflatedData = OsmReader.parseDataSet(response.getEntity().getContent(),
-                            NullProgressMonitor.INSTANCE, OsmReader.Options.SAVE_ORIGINAL_ID);
+                    conflatedData = parse(response);
+                } else if (statusLine.getStatusCode() == HttpStatus.SC_ACCEPTED) {
+                    // The server is conflating the data in the background
+                    conflatedData = poll(currentClient, url, response);
                 } else {
                     conflatedData = null;
                 }
@@ -103,25 +172,265 @@ public class DataConflationSender implements RunnableFuture<DataSet> {
                         + protocolVersion.getMajor() + '.' + protocolVersion.getMinor() + ' '
                         + statusLine.getStatusCode());
             } catch (IOException | UnsupportedOperationException | IllegalDataException e) {
-                Logging.error(e);
+                if (this.cancelled) {
+                    Logging.trace(e);
+                } else {
+                    Logging.error(e);
+                }
             }
         }
         this.done = true;
+        this.future.complete(this.conflatedData);
         synchronized (this) {
             this.notifyAll();
         }
     }
 
+    /**
+     * Poll the conflation job that the server started. The server returns
+     * {@code 202 Accepted} with a {@code Location} header for the job, and the job
+     * returns {@code 202 Accepted} until the conflated data is available.
+     *
+     * @param currentClient The client to use
+     * @param url           The conflation url (used to resolve relative locations)
+     * @param accepted      The response that started the job
+     * @return The conflated data, or {@code null} if the job failed or was
+     *         cancelled
+     * @throws IOException          If there was an issue communicating with the
+     *                              server
+     * @throws IllegalDataException If the conflated data could not be parsed
+     */
+    private DataSet poll(CloseableHttpClient currentClient, String url, CloseableHttpResponse accepted)
+            throws IOException, IllegalDataException {
+        final Header location = accepted.getFirstHeader("Location");
+        if (location == null || Utils.isBlank(location.getValue())) {
+            return null;
+        }
+        final String jobUrl = URI.create(url).resolve(location.getValue().trim()).toString();
+        long delay = getRetryAfter(accepted, INITIAL_POLL_DELAY);
+        for (int poll = 0; poll < MAX_POLLS && !this.cancelled; poll++) {
+            try {
+                TimeUnit.MILLISECONDS.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+            final HttpUriRequest request = new HttpGet(jobUrl);
+            if (CompressionUtils.isEnabled()) {
+                request.setHeader("Accept-Encoding", CompressionUtils.ACCEPT_ENCODING);
+            }
+            final CloseableHttpResponse response = currentClient.execute(request);
+            if (response.getCode() == HttpStatus.SC_OK) {
+                return parse(response);
+            } else if (response.getCode() != HttpStatus.SC_ACCEPTED) {
+                Logging.info("GET " + jobUrl + " -> " + response.getCode());
+                return null;
+            }
+            response.close();
+            delay = getRetryAfter(response, Math.min(MAX_POLL_DELAY, delay * 2));
+        }
+        return null;
+    }
+
+    /**
+     * Get the time to wait before polling again
+     *
+     * @param response     The response from the server
+     * @param defaultDelay The delay to use if the server did not send a
+     *                     {@code Retry-After} header (milliseconds)
+     * @return The delay in milliseconds
+     */
+    private static long getRetryAfter(CloseableHttpResponse response, long defaultDelay) {
+        final Header retryAfter = response.getFirstHeader("Retry-After");
+        if (retryAfter != null) {
+            try {
+                final long seconds = Long.parseLong(retryAfter.getValue().trim());
+                return Math.min(MAX_POLL_DELAY, TimeUnit.SECONDS.toMillis(seconds));
+            } catch (NumberFormatException e) {
+                // HTTP dates are not worth supporting here
+                Logging.trace(e);
+            }
+        }
+        return defaultDelay;
+    }
+
+    private static DataSet parse(CloseableHttpResponse response) throws IOException, IllegalDataException {
+        return OsmReader.parseDataSet(CompressionUtils.decode(response.getEntity().getContent()),
+                NullProgressMonitor.INSTANCE, OsmReader.Options.SAVE_ORIGINAL_ID);
+    }
+
+    /**
+     * Get the area that OSM data is needed for
+     *
+     * @param external The external data
+     * @return The area covered by the external data (and its data sources)
+     */
+    static BBox getScope(DataSet external) {
+        final BBox scope = new BBox();
+        external.getDataSourceBounds().forEach(bounds -> scope.add(bounds.toBBox()));
+        for (Node node : external.getNodes()) {
+            if (node.isLatLonKnown()) {
+                scope.addPrimitive(node, SCOPE_BUFFER);
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * Copy the OSM data that is in (or crosses) an area. The read lock on the
+     * OSM data is only held while copying.
+     *
+     * @param dataSet The OSM data
+     * @param scope   The area to copy data for
+     * @return A copy of the data, which is not shared with any layer
+     */
+    static DataSet copyScope(DataSet dataSet, BBox scope) {
+        final DataSet copy = new DataSet();
+        if (!scope.isValid()) {
+            return copy;
+        }
+        final Map<OsmPrimitive, OsmPrimitive> copies = new HashMap<>();
+        dataSet.getReadLock().lock();
+        try {
+            final Set<Node> nodes = new LinkedHashSet<>(dataSet.searchNodes(scope));
+            final List<Way> ways = dataSet.searchWays(scope);
+            final List<Relation> relations = dataSet.searchRelations(scope);
+            // Ways need all of their nodes
+            ways.forEach(way -> nodes.addAll(way.getNodes()));
+            for (Node node : nodes) {
+                final Node nodeCopy = new Node(node);
+                copies.put(node, nodeCopy);
+                copy.addPrimitive(nodeCopy);
+            }
+            for (Way way : ways) {
+                final Way wayCopy = new Way(way, false, false);
+                final List<Node> wayNodes = new ArrayList<>(way.getNodesCount());
+                way.getNodes().forEach(node -> wayNodes.add((Node) copies.get(node)));
+                wayCopy.setNodes(wayNodes);
+                copies.put(way, wayCopy);
+                copy.addPrimitive(wayCopy);
+            }
+            // Relations may be members of each other, so add them before setting the members
+            for (Relation relation : relations) {
+                final Relation relationCopy = new Relation(relation, false, false);
+                copies.put(relation, relationCopy);
+                copy.addPrimitive(relationCopy);
+            }
+            for (Relation relation : relations) {
+                final List<RelationMember> members = new ArrayList<>(relation.getMembersCount());
+                for (RelationMember member : relation.getMembers()) {
+                    final OsmPrimitive memberCopy = copies.computeIfAbsent(member.getMember(),
+                            primitive -> copyIncomplete(copy, primitive));
+                    if (memberCopy != null) {
+                        members.add(new RelationMember(member.getRole(), memberCopy));
+                    }
+                }
+                ((Relation) copies.get(relation)).setMembers(members);
+            }
+        } finally {
+            dataSet.getReadLock().unlock();
+        }
+        return copy;
+    }
+
+    /**
+     * Add an incomplete copy of a relation member that is not in the copied
+     * area, so that the relation still refers to it
+     *
+     * @param copy      The copied data
+     * @param primitive The relation member
+     * @return The incomplete copy, or {@code null} if the member is new (the
+     *         server cannot use a reference to it)
+     */
+    private static OsmPrimitive copyIncomplete(DataSet copy, OsmPrimitive primitive) {
+        if (primitive.isNew()) {
+            return null;
+        }
+        final OsmPrimitive incomplete;
+        switch (primitive.getType()) {
+        case NODE:
+            incomplete = new Node(primitive.getId());
+            break;
+        case WAY:
+            incomplete = new Way(primitive.getId());
+            break;
+        default:
+            incomplete = new Relation(primitive.getId());
+        }
+        copy.addPrimitive(incomplete);
+        return incomplete;
+    }
+
+    /**
+     * Write OSM data that was copied with {@link #copyScope}
+     *
+     * @param writer  The writer to use
+     * @param dataSet The copied OSM data
+     */
+    static void writeScope(OsmWriter writer, DataSet dataSet) {
+        writer.header();
+        writer.writeNodes(dataSet.getNodes());
+        writer.writeWays(dataSet.getWays());
+        writer.writeRelations(dataSet.getRelations());
+        writer.footer();
+    }
+
+    private static void write(OsmWriter writer, DataSet dataSet) {
+        dataSet.getReadLock().lock();
+        try {
+            writer.write(dataSet);
+        } finally {
+            dataSet.getReadLock().unlock();
+        }
+    }
+
+    /**
+     * A multipart body that writes OSM XML directly to the request
+     */
+    private static final class OsmContentBody extends AbstractContentBody {
+        private final Consumer<OsmWriter> writeFunction;
+
+        OsmContentBody(Consumer<OsmWriter> writeFunction) {
+            super(ContentType.APPLICATION_XML);
+            this.writeFunction = writeFunction;
+        }
+
+        @Override
+        public String getFilename() {
+            return null;
+        }
+
+        @Override
+        public long getContentLength() {
+            return -1;
+        }
+
+        @Override
+        public void writeTo(OutputStream out) throws IOException {
+            // Don't close the writer, since the rest of the request is written to the stream
+            final PrintWriter printWriter = new PrintWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8));
+            final OsmWriter writer = OsmWriterFactory.createOsmWriter(printWriter, true, "0.6");
+            this.writeFunction.accept(writer);
+            writer.flush();
+            if (printWriter.checkError()) {
+                throw new IOException("Could not write OSM data");
+            }
+        }
+    }
+
     @Override
     public boolean cancel(boolean mayInterruptIfRunning) {
-        try {
-            client.close();
-        } catch (IOException e) {
-            Logging.error(e);
-            return false;
+        this.cancelled = true;
+        this.future.cancel(mayInterruptIfRunning);
+        if (this.client != null) {
+            try {
+                this.client.close();
+            } catch (IOException e) {
+                Logging.error(e);
+                return false;
+            }
         }
         this.done = true;
-        this.cancelled = true;
         synchronized (this) {
             this.notifyAll();
         }
@@ -7,12 +7,11 @@ import java.io.IOException;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CancellationException;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
@@ -20,6 +19,7 @@ import org.openstreetmap.josm.actions.downloadtasks.DownloadOsmTask;
 import org.openstreetmap.josm.actions.downloadtasks.DownloadParams;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
@@ -113,9 +113,11 @@ public class DownloadMapWithAITask extends DownloadOsmTask {
     }
 
     class DownloadTask extends AbstractInternalTask {
-        List<ForkJoinTask<DataSet>> downloader;
+        List<CompletableFuture<DataSet>> downloader;
         final Bounds bounds;
         private List<MapWithAIInfo> relevantUrls;
+        /** The sources that could not be downloaded, which are retried in the background */
+        private final List<MapWithAIInfo> failedUrls = new ArrayList<>();
 
         public DownloadTask(DownloadParams settings, String title, ProgressMonitor progressMonitor,
                 boolean ignoreException, boolean zoomAfterDownload, Bounds bounds) {
@@ -146,19 +148,18 @@ public class DownloadMapWithAITask extends DownloadOsmTask {
                 monitor.setTicksCount(relevantUrls.size());
             }
             downloadedData = new DataSet();
-            final ForkJoinPool pool = MapWithAIDataUtils.getForkJoinPool();
             this.downloader = new ArrayList<>(relevantUrls.size());
             for (MapWithAIInfo info : relevantUrls) {
                 if (isCanceled()) {
                     break;
                 }
-                this.downloader.add(pool.submit(MapWithAIDataUtils.download(this.progressMonitor, bounds, info,
-                        MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS)));
+                this.downloader.add(MapWithAIDataUtils.download(this.progressMonitor, bounds, info,
+                        MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS));
             }
-            for (ForkJoinTask<DataSet> task : this.downloader) {
+            final List<DataSet> parts = new ArrayList<>(this.downloader.size());
+            for (CompletableFuture<DataSet> task : this.downloader) {
                 try {
-                    DownloadMapWithAITask.this.downloadedData.mergeFrom(task.get(),
-                            monitor.createSubTaskMonitor(1, false));
+                    parts.add(task.get());
                 } catch (CancellationException e) {
                     Logging.trace(e);
                     return;
@@ -186,17 +187,34 @@ public class DownloadMapWithAITask extends DownloadOsmTask {
                     throw new IOException(e);
                 }
             }
+            for (int i = 0; i < parts.size(); i++) {
+                if (MapWithAIDataUtils.hasFailed(parts.get(i))) {
+                    this.failedUrls.add(this.relevantUrls.get(i));
+                }
+            }
+            PendingConflation.combine(this.downloadedData, parts);
+            for (DataSet part : parts) {
+                this.downloadedData.mergeFrom(part, monitor.createSubTaskMonitor(1, false));
+            }
         }
 
         @Override
         protected void finish() {
             if (!isCanceled() && !isFailed()) {
+                final long time = MapWithAIMetrics.start();
+                final Collection<OsmPrimitive> merged;
+                final MapWithAILayer layer;
                 synchronized (DownloadMapWithAITask.DownloadTask.class) {
-                    MapWithAILayer layer = MapWithAIDataUtils.getLayer(true);
-                    layer.getDataSet().mergeFrom(downloadedData);
+                    layer = MapWithAIDataUtils.getLayer(true);
+                    merged = GetDataRunnable.mergeFrom(layer.getDataSet(), downloadedData);
                     relevantUrls.forEach(layer::addDownloadedInfo);
                 }
-                GetDataRunnable.cleanup(MapWithAIDataUtils.getLayer(true).getDataSet(), null, null);
+                GetDataRunnable.incrementalCleanup(layer.getDataSet(), merged, null);
+                PendingConflation.merged(layer, downloadedData, merged);
+                MapWithAIMetrics.record(null, MapWithAIMetrics.Stage.LAYER_MERGE, time);
+                final boolean crop = DetectTaskingManagerUtils.hasTaskingManagerLayer();
+                this.failedUrls.forEach(
+                        info -> DownloadRetry.schedule(info, this.bounds, crop, layer, Collections.emptyList()));
             }
         }
 
@@ -0,0 +1,156 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Lock;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Retry failed MapWithAI downloads in the background. Retries are delayed with
+ * an exponential backoff (and for as long as the
+ * {@link MapWithAICircuitBreaker} for the source is open). When the data
+ * arrives, it is merged into the layer that requested it, if any; otherwise it
+ * only refills the {@link MapWithAIDataCache}.
+ */
+final class DownloadRetry {
+    /** The maximum number of times to retry a download */
+    static final IntegerProperty MAX_RETRIES = new IntegerProperty("mapwithai.download.retries", 3);
+
+    /** The number of retries for each area, by {@link MapWithAIDataCache#getKey} */
+    private static final Map<String, Integer> ATTEMPTS = new ConcurrentHashMap<>();
+    /** The areas with a retry waiting, by {@link MapWithAIDataCache#getKey} */
+    private static final Set<String> SCHEDULED = ConcurrentHashMap.newKeySet();
+    /** Failed areas that are never retried successfully are dropped when there are this many */
+    private static final int MAX_REMEMBERED = 1024;
+    private static ScheduledExecutorService executor;
+
+    private DownloadRetry() {
+        // Hide the constructor
+    }
+
+    /**
+     * Schedule a retry for a failed download
+     *
+     * @param info   The source of the data
+     * @param bounds The area that failed
+     * @param crop   {@code true} if the data is cropped to the tasking manager
+     *               area
+     * @param layer  The layer to merge the data into, or {@code null} to only
+     *               cache the data (e.g., for prefetches)
+     * @param tiles  The quadkeys of the tiles of the layer with the area. They
+     *               are marked as downloaded when the data is merged, and no
+     *               longer marked if the retries give up.
+     * @return {@code true} if a retry was scheduled (or is already waiting),
+     *         {@code false} if the download has been retried too many times
+     */
+    static boolean schedule(MapWithAIInfo info, Bounds bounds, boolean crop, MapWithAILayer layer,
+            Collection<String> tiles) {
+        final String key = MapWithAIDataCache.getKey(info, bounds, crop);
+        if (!SCHEDULED.add(key)) {
+            // The data from the waiting retry is used
+            return true;
+        }
+        if (ATTEMPTS.size() > MAX_REMEMBERED) {
+            ATTEMPTS.clear();
+        }
+        final int attempt = ATTEMPTS.merge(key, 1, Integer::sum);
+        if (attempt > MAX_RETRIES.get()) {
+            ATTEMPTS.remove(key);
+            SCHEDULED.remove(key);
+            Logging.warn("MapWithAI: Giving up on " + info.getName() + " for " + bounds);
+            return false;
+        }
+        final long delay = Math.max(MapWithAICircuitBreaker.getBackoff(attempt - 1),
+                MapWithAICircuitBreaker.get(info).getRemainingTime());
+        getExecutor().schedule(() -> retry(key, info, bounds, crop, layer, tiles), delay, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Forget the retries for an area, since it was downloaded
+     *
+     * @param info   The source of the data
+     * @param bounds The area that was downloaded
+     * @param crop   {@code true} if the data is cropped to the tasking manager
+     *               area
+     */
+    static void succeeded(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        if (!ATTEMPTS.isEmpty()) {
+            ATTEMPTS.remove(MapWithAIDataCache.getKey(info, bounds, crop));
+        }
+    }
+
+    private static void retry(String key, MapWithAIInfo info, Bounds bounds, boolean crop, MapWithAILayer layer,
+            Collection<String> tiles) {
+        if (layer != null && MapWithAIDataUtils.getLayer(false) != layer) {
+            // Nothing wants the data anymore
+            SCHEDULED.remove(key);
+            return;
+        }
+        MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, bounds, info,
+                MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS).whenComplete((dataSet, throwable) -> {
+                    SCHEDULED.remove(key);
+                    if (throwable != null || MapWithAIDataUtils.hasFailed(dataSet)) {
+                        Logging.trace(throwable);
+                        if (!schedule(info, bounds, crop, layer, tiles) && layer != null) {
+                            // The tiles are downloaded again the next time they are needed
+                            tiles.forEach(layer::removeDownloadedTile);
+                        }
+                    } else if (layer != null) {
+                        merge(info, dataSet, layer, tiles);
+                    }
+                });
+    }
+
+    /**
+     * Merge retried data into a MapWithAI layer. If the layer has been removed,
+     * the data is dropped.
+     *
+     * @param info    The source of the data
+     * @param dataSet The data to merge
+     * @param layer   The layer to merge the data into
+     * @param tiles   The quadkeys of the tiles with the data
+     */
+    private static void merge(MapWithAIInfo info, DataSet dataSet, MapWithAILayer layer, Collection<String> tiles) {
+        if (MapWithAIDataUtils.getLayer(false) != layer) {
+            return;
+        }
+        final long time = MapWithAIMetrics.start();
+        final DataSet mapWithAISet = layer.getDataSet();
+        final Collection<OsmPrimitive> merged;
+        final Lock lock = layer.getLock();
+        lock.lock();
+        try {
+            merged = GetDataRunnable.mergeFrom(mapWithAISet, dataSet);
+            GetDataRunnable.incrementalCleanup(mapWithAISet, merged, info);
+        } finally {
+            lock.unlock();
+        }
+        // The tiles have the data now
+        tiles.forEach(layer::addDownloadedTile);
+        PendingConflation.merged(layer, dataSet, merged);
+        MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.LAYER_MERGE, time);
+    }
+
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newThreadFactory("mapwithai-retry-%d", Thread.NORM_PRIORITY));
+        }
+        return executor;
+    }
+}
@@ -7,17 +7,18 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.RecursiveTask;
-import java.util.function.BiPredicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -26,11 +27,9 @@ import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.coor.ILatLon;
-import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.AbstractPrimitive;
 import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
-import org.openstreetmap.josm.data.osm.Hash;
 import org.openstreetmap.josm.data.osm.INode;
 import org.openstreetmap.josm.data.osm.IPrimitive;
 import org.openstreetmap.josm.data.osm.IRelation;
@@ -38,8 +37,7 @@ import org.openstreetmap.josm.data.osm.IWay;
 import org.openstreetmap.josm.data.osm.IWaySegment;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
-import org.openstreetmap.josm.data.osm.Relation;
-import org.openstreetmap.josm.data.osm.Storage;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
 import org.openstreetmap.josm.data.osm.Tag;
 import org.openstreetmap.josm.data.osm.TagMap;
 import org.openstreetmap.josm.data.osm.UploadPolicy;
@@ -55,9 +53,9 @@ import org.openstreetmap.josm.plugins.mapwithai.commands.MergeDuplicateWays;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAILayerInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.PreConflatedDataUtils;
+import org.openstreetmap.josm.plugins.mapwithai.tools.LongIntHashMap;
 import org.openstreetmap.josm.tools.Geometry;
 import org.openstreetmap.josm.tools.JosmRuntimeException;
-import org.openstreetmap.josm.tools.Pair;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
@@ -66,59 +64,6 @@ import org.openstreetmap.josm.tools.Utils;
  * @author Taylor Smock
  */
 public class GetDataRunnable extends RecursiveTask<DataSet> {
-    /**
-     * This is functionally equivalent to
-     * {@link org.openstreetmap.josm.data.validation.tests.DuplicateNode.NodeHash}
-     */
-    private static class ILatLonHash implements Hash<Object, Object> {
-        private static final double PRECISION = DEGREE_BUFFER;
-
-        /**
-         * Returns the rounded coordinated according to {@link #PRECISION}
-         *
-         * @param coor The coordinate to round
-         * @return The rounded coordinate
-         * @see LatLon#roundToOsmPrecision
-         */
-        private static ILatLon roundCoord(ILatLon coor) {
-            return new LatLon(Math.round(coor.lat() / PRECISION) * PRECISION,
-                    Math.round(coor.lon() / PRECISION) * PRECISION);
-        }
-
-        @SuppressWarnings("unchecked")
-        protected static ILatLon getLatLon(Object o) {
-            if (o instanceof INode) {
-                LatLon coor = ((INode) o).getCoor();
-                if (coor == null)
-                    return null;
-                if (PRECISION == 0)
-                    return coor.getRoundedToOsmPrecision();
-                return roundCoord(coor);
-            } else if (o instanceof List<?>) {
-                LatLon coor = ((List<Node>) o).get(0).getCoor();
-                if (coor == null)
-                    return null;
-                if (PRECISION == 0)
-                    return coor.getRoundedToOsmPrecision();
-                return roundCoord(coor);
-            } else
-                throw new AssertionError();
-        }
-
-        @Override
-        public boolean equals(Object k, Object t) {
-            ILatLon coorK = getLatLon(k);
-            ILatLon coorT = getLatLon(t);
-            return coorK == coorT || (coorK != null && coorT != null && coorK.equals(coorT));
-        }
-
-        @Override
-        public int getHashCode(Object k) {
-            ILatLon coorK = getLatLon(k);
-            return coorK == null ? 0 : coorK.hashCode();
-        }
-    }
-
     /**
      * This checks that all visited objects are highways
      */
@@ -157,9 +102,6 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
     private static final int MAX_NUMBER_OF_BBOXES_TO_PROCESS = 1;
     private static final String SERVER_ID_KEY = "current_id";
 
-    /** An equals sign (=) used for tag splitting */
-    private static final String EQUALS = "=";
-
     private static final double ARTIFACT_ANGLE = 0.1745; // 10 degrees in radians
 
     /**
@@ -211,8 +153,8 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
 
     @Override
     public DataSet compute() {
-        final List<Bounds> bounds = maximumDimensions == null ? MapWithAIDataUtils.reduceBoundSize(runnableBounds)
-                : MapWithAIDataUtils.reduceBoundSize(runnableBounds, maximumDimensions);
+        final List<Bounds> bounds = MapWithAIDataUtils.getDownloadBounds(runnableBounds,
+                maximumDimensions == null ? MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS : maximumDimensions);
         monitor.beginTask(tr("Downloading {0} data ({1} total downloads)", MapWithAIPlugin.NAME, bounds.size()),
                 bounds.size() - 1);
         if (!monitor.isCanceled()) {
@@ -249,35 +191,190 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param info    The information used to download the data
      */
     public static void cleanup(DataSet dataSet, Bounds bounds, MapWithAIInfo info) {
-        realCleanup(dataSet, bounds, info);
+        // Only lock the dataset being cleaned, so that datasets for different sources
+        // can be cleaned in parallel
+        synchronized (dataSet) {
+            final Bounds boundsToUse;
+            if (bounds == null && !dataSet.getDataSourceBounds().isEmpty()) {
+                boundsToUse = new Bounds(dataSet.getDataSourceBounds().get(0));
+                dataSet.getDataSourceBounds().forEach(boundsToUse::extend);
+            } else if (bounds == null) {
+                boundsToUse = new Bounds(0, 0, 0, 0);
+            } else {
+                boundsToUse = new Bounds(bounds);
+            }
+            realCleanup(dataSet, new ArrayList<>(dataSet.allPrimitives()), boundsToUse, info);
+        }
     }
 
-    private static synchronized void realCleanup(DataSet dataSet, Bounds bounds, MapWithAIInfo info) {
-        final Bounds boundsToUse;
-        if (bounds == null && !dataSet.getDataSourceBounds().isEmpty()) {
-            boundsToUse = new Bounds(dataSet.getDataSourceBounds().get(0));
-            dataSet.getDataSourceBounds().forEach(boundsToUse::extend);
-        } else if (bounds == null) {
-            boundsToUse = new Bounds(0, 0, 0, 0);
+    /**
+     * Perform cleanups on the primitives that were just added to (or modified in)
+     * a dataset. Only the dirty primitives and the primitives near them are
+     * processed, so the cost does not depend upon the amount of data that was
+     * previously cleaned.
+     *
+     * @param dataSet The dataset to cleanup
+     * @param dirty   The primitives that are new or were modified
+     * @param info    The information used to download the data. May be
+     *                {@code null}.
+     */
+    public static void incrementalCleanup(DataSet dataSet, Collection<? extends OsmPrimitive> dirty,
+            MapWithAIInfo info) {
+        synchronized (dataSet) {
+            final Set<OsmPrimitive> usable = new LinkedHashSet<>();
+            final List<Node> nodes = new ArrayList<>();
+            for (OsmPrimitive primitive : dirty) {
+                if (!primitive.isDeleted() && dataSet.equals(primitive.getDataSet())) {
+                    usable.add(primitive);
+                    if (primitive instanceof Node) {
+                        nodes.add((Node) primitive);
+                    } else if (primitive instanceof Way) {
+                        nodes.addAll(((Way) primitive).getNodes());
+                    }
+                }
+            }
+            if (usable.isEmpty()) {
+                return;
+            }
+            // Primitives near the dirty primitives may need to be merged with them
+            final Set<OsmPrimitive> primitives = searchNearby(dataSet, nodes);
+            primitives.addAll(usable);
+            realCleanup(dataSet, new ArrayList<>(primitives), null, info);
+        }
+    }
+
+    /**
+     * Find the primitives near some nodes. The grid cells around each node are
+     * searched, so that nodes that are far apart do not cause everything between
+     * them to be searched.
+     *
+     * @param dataSet The dataset to search
+     * @param nodes   The nodes to search around
+     * @return The primitives near the nodes
+     */
+    private static Set<OsmPrimitive> searchNearby(DataSet dataSet, Collection<Node> nodes) {
+        final long[] keys = new long[nodes.size() * 9];
+        int count = 0;
+        for (Node node : nodes) {
+            if (node.isLatLonKnown()) {
+                final long key = getGridKey(node);
+                final long lat = key >> 32;
+                final long lon = (int) key;
+                for (long dLat = -1; dLat <= 1; dLat++) {
+                    for (long dLon = -1; dLon <= 1; dLon++) {
+                        keys[count++] = ((lat + dLat) << 32) | ((lon + dLon) & 0xFFFF_FFFFL);
+                    }
+                }
+            }
+        }
+        Arrays.sort(keys, 0, count);
+        final double halfCell = DEGREE_BUFFER / 2d;
+        final Set<OsmPrimitive> primitives = new LinkedHashSet<>();
+        for (int i = 0; i < count; i++) {
+            if (i > 0 && keys[i] == keys[i - 1]) {
+                continue;
+            }
+            final double lat = (keys[i] >> 32) * (double) DEGREE_BUFFER;
+            final double lon = ((int) keys[i]) * (double) DEGREE_BUFFER;
+            primitives.addAll(
+                    dataSet.searchPrimitives(new BBox(lon - halfCell, lat - halfCell, lon + halfCell, lat + halfCell)));
+        }
+        return primitives;
+    }
+
+    /**
+     * Merge data into another dataset. {@link DataSet#mergeFrom(DataSet)} adds
+     * copies of new primitives, so the returned primitives (and not the
+     * primitives in {@code newData}) should be cleaned up afterwards. The caller
+     * must hold the lock for the layer of {@code dataSet}.
+     *
+     * @param dataSet The dataset to merge into
+     * @param newData The data to merge
+     * @return The primitives in {@code dataSet} that the data was merged into
+     */
+    public static Collection<OsmPrimitive> mergeFrom(DataSet dataSet, DataSet newData) {
+        // The copies get new unique ids, so they can be looked up instead of
+        // searching the rest of the dataset
+        final long before = AbstractPrimitive.currentUniqueId();
+        dataSet.update(() -> dataSet.mergeFrom(newData));
+        final long after = AbstractPrimitive.currentUniqueId();
+        final Set<OsmPrimitive> merged = new LinkedHashSet<>();
+        if (before - after > dataSet.allPrimitives().size()) {
+            // Many ids were used elsewhere while merging
+            for (OsmPrimitive primitive : dataSet.allPrimitives()) {
+                if (primitive.getUniqueId() < before && primitive.getUniqueId() >= after) {
+                    merged.add(primitive);
+                }
+            }
         } else {
-            boundsToUse = new Bounds(bounds);
+            for (long id = before - 1; id >= after; id--) {
+                for (OsmPrimitiveType type : OsmPrimitiveType.dataValues()) {
+                    final OsmPrimitive primitive = dataSet.getPrimitiveById(id, type);
+                    if (primitive != null) {
+                        merged.add(primitive);
+                    }
+                }
+            }
+        }
+        // Primitives that already have an id are merged onto the primitive with the same id
+        for (OsmPrimitive primitive : newData.allPrimitives()) {
+            if (!primitive.isNew()) {
+                final OsmPrimitive target = dataSet.getPrimitiveById(primitive.getPrimitiveId());
+                if (target != null) {
+                    merged.add(target);
+                }
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Perform the cleanups. The caller must hold the lock for the dataset.
+     *
+     * @param dataSet    The dataset to cleanup
+     * @param primitives The primitives to cleanup
+     * @param bounds     The bounds to cleanup, or {@code null} to only look at
+     *                   {@code primitives}
+     * @param info       The information used to download the data
+     */
+    private static void realCleanup(DataSet dataSet, List<OsmPrimitive> primitives, Bounds bounds,
+            MapWithAIInfo info) {
+        final long start = MapWithAIMetrics.start();
+        long time = start;
+        final List<Node> nodes = new ArrayList<>(Utils.filteredCollection(primitives, Node.class));
+        final List<Way> ways = new ArrayList<>(Utils.filteredCollection(primitives, Way.class));
+        rewriteTags(primitives, TagRewriter.forUserReplacements());
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.REWRITE_TAGS, time);
+        mergeNodes(nodes);
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.MERGE_NODES, time);
+        cleanupDataSet(primitives);
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.CLEANUP_DATASET, time);
+        mergeWays(ways);
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.MERGE_WAYS, time);
+        if (bounds == null) {
+            // Only the new primitives can have the key that the source uses for conflated data
+            PreConflatedDataUtils.removeConflatedData(primitives.stream()
+                    .filter(p -> !p.isDeleted() && dataSet.equals(p.getDataSet())).collect(Collectors.toList()), info);
+        } else {
+            PreConflatedDataUtils.removeConflatedData(dataSet, info);
         }
-        replaceTags(dataSet);
-        removeCommonTags(dataSet);
-        removeEmptyTags(dataSet, bounds);
-        mergeNodes(dataSet);
-        cleanupDataSet(dataSet);
-        mergeWays(dataSet);
-        PreConflatedDataUtils.removeConflatedData(dataSet, info);
-        removeAlreadyAddedData(dataSet);
-        List<Way> ways = dataSet.searchWays(boundsToUse.toBBox()).stream().filter(w -> w.hasKey("highway"))
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.REMOVE_CONFLATED, time);
+        removeAlreadyAddedData(dataSet, ways);
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.REMOVE_ALREADY_ADDED, time);
+        final List<Way> highways = (bounds == null ? ways : dataSet.searchWays(bounds.toBBox())).stream()
+                .filter(w -> !w.isDeleted() && dataSet.equals(w.getDataSet()) && w.hasKey("highway"))
                 .collect(Collectors.toList());
-        if (!ways.isEmpty()) {
-            new MergeDuplicateWays(dataSet, ways).executeCommand();
+        if (!highways.isEmpty()) {
+            new MergeDuplicateWays(dataSet, highways).executeCommand();
         }
-        (boundsToUse.isCollapsed() || boundsToUse.isOutOfTheWorld() ? dataSet.getWays()
-                : dataSet.searchWays(boundsToUse.toBBox())).stream().filter(way -> !way.isDeleted())
-                        .forEach(GetDataRunnable::cleanupArtifacts);
+        time = MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.MERGE_DUPLICATE_WAYS, time);
+        (bounds == null ? ways
+                : bounds.isCollapsed() || bounds.isOutOfTheWorld() ? dataSet.getWays()
+                        : dataSet.searchWays(bounds.toBBox())).stream()
+                                .filter(way -> !way.isDeleted() && dataSet.equals(way.getDataSet()))
+                                .forEach(GetDataRunnable::cleanupArtifacts);
+        MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.CLEANUP_ARTIFACTS, time);
+        MapWithAIMetrics.record(info, MapWithAIMetrics.Stage.CLEANUP, start);
     }
 
     /**
@@ -321,12 +418,19 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param dataSet The dataset with potential duplicate ways (it is modified)
      */
     public static void removeAlreadyAddedData(DataSet dataSet) {
+        removeAlreadyAddedData(dataSet, dataSet.getWays());
+    }
+
+    private static void removeAlreadyAddedData(DataSet dataSet, Collection<Way> ways) {
         final List<DataSet> osmData = MainApplication.getLayerManager().getLayersOfType(OsmDataLayer.class).stream()
                 .map(OsmDataLayer::getDataSet).filter(ds -> !ds.equals(dataSet)).collect(Collectors.toList());
-        for (Way way : dataSet.getWays()) {
+        NodeLocationIndex.retain(osmData);
+        final List<NodeLocationIndex> indexes = osmData.stream().map(NodeLocationIndex::get)
+                .collect(Collectors.toList());
+        for (Way way : ways) {
             if (!way.isDeleted() && way.getOsmId() <= 0) {
-                for (DataSet ds : osmData) {
-                    if (checkIfPrimitiveDuplicatesPrimitiveInDataSet(way, ds)) {
+                for (NodeLocationIndex index : indexes) {
+                    if (isAlreadyMapped(way, index)) {
                         final List<Node> nodes = way.getNodes();
                         Optional.ofNullable(DeleteCommand.delete(Collections.singleton(way), true, true))
                                 .ifPresent(Command::executeCommand);
@@ -343,56 +447,40 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
         }
     }
 
-    private static boolean checkIfPrimitiveDuplicatesPrimitiveInDataSet(OsmPrimitive primitive, DataSet ds) {
-        final List<OsmPrimitive> possibleDuplicates = searchDataSet(ds, primitive);
-        for (OsmPrimitive dupe : possibleDuplicates) {
-            if (checkIfProbableDuplicate(dupe, primitive)) {
-                return true;
+    /**
+     * Check if a way is already in the OSM data. It is if there is a way with the
+     * same tags, and all of its nodes are at (almost) the same location as a node
+     * of the way.
+     *
+     * @param way   The way to check
+     * @param index The index of the OSM data
+     * @return {@code true} if the way is already in the OSM data
+     */
+    private static boolean isAlreadyMapped(Way way, NodeLocationIndex index) {
+        final Set<Node> nearbyNodes = new HashSet<>();
+        for (Node node : way.getNodes()) {
+            if (node.isLatLonKnown()) {
+                nearbyNodes.addAll(index.getNodes(node));
+            }
+        }
+        final Set<Way> checked = new HashSet<>();
+        for (Node nearbyNode : nearbyNodes) {
+            for (Way osmWay : nearbyNode.getParentWays()) {
+                if (checked.add(osmWay) && !osmWay.isDeleted() && nearbyNodes.containsAll(osmWay.getNodes())
+                        && hasSameTags(osmWay, way)) {
+                    return true;
+                }
             }
         }
         return false;
     }
 
-    private static boolean checkIfProbableDuplicate(OsmPrimitive one, OsmPrimitive two) {
-        boolean equivalent = false;
+    private static boolean hasSameTags(OsmPrimitive one, OsmPrimitive two) {
         final TagMap oneMap = one.getKeys();
         final TagMap twoMap = two.getKeys();
         oneMap.remove(MAPWITHAI_SOURCE_TAG_KEY);
         twoMap.remove(MAPWITHAI_SOURCE_TAG_KEY);
-        if (one.getClass().equals(two.getClass()) && oneMap.equals(twoMap)) {
-            if (one instanceof Node) {
-                final ILatLon coor1 = ((Node) one);
-                final ILatLon coor2 = ((Node) two);
-                if (one.hasSameInterestingTags(two) && coor1.isLatLonKnown() && coor2.isLatLonKnown()
-                        && coor1.equalsEpsilon(coor2)) {
-                    equivalent = true;
-                }
-            } else if (one instanceof Way) {
-                equivalent = ((Way) one).getNodes().stream().filter(Objects::nonNull)
-                        .allMatch(node1 -> ((Way) two).getNodes().stream().anyMatch(node1::equalsEpsilon));
-            } else if (one instanceof Relation) {
-                equivalent = ((Relation) one).getMembers().stream()
-                        .allMatch(member1 -> ((Relation) two).getMembers().stream()
-                                .anyMatch(member2 -> member1.getRole().equals(member2.getRole())
-                                        && checkIfProbableDuplicate(member1.getMember(), member2.getMember())));
-            }
-        }
-        return equivalent;
-    }
-
-    private static <T extends AbstractPrimitive> List<OsmPrimitive> searchDataSet(DataSet ds, T primitive) {
-        if (primitive instanceof OsmPrimitive) {
-            final BBox tBBox = new BBox();
-            tBBox.addPrimitive((OsmPrimitive) primitive, DEGREE_BUFFER);
-            if (primitive instanceof Node) {
-                return Collections.unmodifiableList(ds.searchNodes(tBBox));
-            } else if (primitive instanceof Way) {
-                return Collections.unmodifiableList(ds.searchWays(tBBox));
-            } else if (primitive instanceof Relation) {
-                return Collections.unmodifiableList(ds.searchRelations(tBBox));
-            }
-        }
-        return Collections.emptyList();
+        return oneMap.equals(twoMap);
     }
 
     /**
@@ -401,14 +489,7 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param dataSet The dataset with primitives to change
      */
     public static void replaceTags(DataSet dataSet) {
-        final Map<Tag, Tag> replaceTags = MapWithAIPreferenceHelper.getReplacementTags().entrySet().stream()
-                .filter(entry -> entry.getKey().contains(EQUALS) && entry.getValue().contains(EQUALS))
-                .map(entry -> new Pair<>(Tag.ofString(entry.getKey()), Tag.ofString(entry.getValue())))
-                .collect(Collectors.toMap(pair -> pair.a, pair -> pair.b));
-        MapWithAIPreferenceHelper.getReplacementTags().entrySet().stream()
-                .filter(entry -> !entry.getKey().equals(EQUALS) && Utils.isBlank(entry.getValue()))
-                .map(entry -> new Tag(entry.getKey(), null)).forEach(tag -> replaceTags.put(tag, tag));
-        replaceTags(dataSet, replaceTags);
+        rewrite(dataSet.allNonDeletedPrimitives(), TagRewriter.forUserReplacements());
     }
 
     /**
@@ -418,10 +499,11 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param replaceTags The tags to replace
      */
     public static void replaceTags(DataSet dataSet, Map<Tag, Tag> replaceTags) {
-        replaceTags.forEach((orig, replace) -> dataSet.allNonDeletedPrimitives().stream()
-                .filter(prim -> prim.hasTag(orig.getKey(), orig.getValue())
-                        || (prim.hasKey(orig.getKey()) && Utils.isBlank(orig.getValue())))
-                .forEach(prim -> prim.put(replace)));
+        replaceTags(dataSet.allNonDeletedPrimitives(), replaceTags);
+    }
+
+    private static void replaceTags(Collection<OsmPrimitive> primitives, Map<Tag, Tag> replaceTags) {
+        rewrite(primitives, TagRewriter.forTags(replaceTags));
     }
 
     /**
@@ -431,18 +513,73 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param replaceKeys The keys to replace (does not replace values)
      */
     public static void replaceKeys(DataSet dataSet, Map<String, String> replaceKeys) {
-        replaceKeys.entrySet().stream().filter(e -> !e.getKey().equals(e.getValue())).forEach(
-                e -> dataSet.allNonDeletedPrimitives().stream().filter(p -> p.hasKey(e.getKey())).forEach(p -> {
-                    p.put(e.getValue(), p.get(e.getKey()));
-                    p.remove(e.getKey());
-                }));
+        rewrite(dataSet.allNonDeletedPrimitives(), TagRewriter.forKeys(replaceKeys));
     }
 
-    private static void cleanupDataSet(DataSet dataSet) {
-        Map<OsmPrimitive, String> origIds = dataSet.allPrimitives().stream()
+    private static void rewrite(Collection<OsmPrimitive> primitives, TagRewriter rewriter) {
+        if (rewriter.isEmpty()) {
+            return;
+        }
+        for (OsmPrimitive primitive : primitives) {
+            if (!primitive.isDeleted() && primitive.hasKeys()) {
+                final TagMap tags = primitive.getKeys();
+                if (rewriter.apply(tags)) {
+                    primitive.setKeys(tags);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rewrite the tags of primitives in a single pass. This replaces tags (see
+     * {@link TagRewriter#forUserReplacements}), removes tags that are not needed
+     * (see {@link #removeCommonTags}), and removes empty tags.
+     *
+     * @param primitives The primitives to rewrite
+     * @param rewriter   The tag replacements
+     */
+    private static void rewriteTags(Collection<OsmPrimitive> primitives, TagRewriter rewriter) {
+        final Set<Node> emptyNodes = new HashSet<>();
+        final List<String> emptyKeys = new ArrayList<>();
+        for (OsmPrimitive primitive : primitives) {
+            if (primitive.isDeleted() || !primitive.hasKeys()) {
+                continue;
+            }
+            final TagMap tags = primitive.getKeys();
+            boolean changed = rewriter.apply(tags);
+            final boolean hadKeys = !tags.isEmpty();
+            changed |= tags.remove(MergeDuplicateWays.ORIG_ID) != null;
+            if (primitive instanceof Node) {
+                changed |= tags.remove(SERVER_ID_KEY) != null;
+            }
+            final boolean removedCommonTags = hadKeys && tags.isEmpty();
+            emptyKeys.clear();
+            for (Map.Entry<String, String> tag : tags.entrySet()) {
+                if (tag.getValue() == null || tag.getValue().trim().isEmpty()) {
+                    emptyKeys.add(tag.getKey());
+                }
+            }
+            for (String key : emptyKeys) {
+                tags.remove(key);
+                changed = true;
+            }
+            if (changed) {
+                primitive.setKeys(tags);
+            }
+            if (removedCommonTags && primitive instanceof Node && primitive.getReferrers().isEmpty()) {
+                emptyNodes.add((Node) primitive);
+            }
+        }
+        if (!emptyNodes.isEmpty()) {
+            new DeleteCommand(emptyNodes).executeCommand();
+        }
+    }
+
+    private static void cleanupDataSet(Collection<OsmPrimitive> primitives) {
+        Map<OsmPrimitive, String> origIds = primitives.stream()
                 .filter(prim -> prim.hasKey(MergeDuplicateWays.ORIG_ID)).distinct()
                 .collect(Collectors.toMap(prim -> prim, prim -> prim.get(MergeDuplicateWays.ORIG_ID)));
-        final Map<OsmPrimitive, String> serverIds = dataSet.allPrimitives().stream()
+        final Map<OsmPrimitive, String> serverIds = primitives.stream()
                 .filter(prim -> prim.hasKey(SERVER_ID_KEY)).distinct()
                 .collect(Collectors.toMap(prim -> prim, prim -> prim.get(SERVER_ID_KEY)));
 
@@ -464,8 +601,12 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      * @param dataSet The dataset to remove tags from
      */
     public static void removeCommonTags(DataSet dataSet) {
+        removeCommonTags(dataSet.allPrimitives());
+    }
+
+    private static void removeCommonTags(Collection<OsmPrimitive> primitives) {
         final Set<Node> emptyNodes = new HashSet<>();
-        for (OsmPrimitive tagged : dataSet.allPrimitives()) {
+        for (OsmPrimitive tagged : primitives) {
             if (!tagged.hasKeys()) {
                 continue;
             }
@@ -486,56 +627,68 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
     }
 
     /**
-     * Create an efficient collection ({@link Storage}) of {@link List} of
-     * {@link Node}s and {@link Node} objects
+     * Get the grid cell key for a node. Nodes are grouped by their coordinates,
+     * rounded to {@link #DEGREE_BUFFER}, with the rounded latitude in the upper
+     * 32 bits and the rounded longitude in the lower 32 bits.
      *
-     * @param dataSet The dataset to get nodes from
-     * @return The storage to use
+     * @param coor The coordinate to get the key for
+     * @return The key for the grid cell
      */
-    private static Storage<Object> generateEfficientNodeSearchStorage(DataSet dataSet) {
-        final Storage<Object> nodes = new Storage<>(new ILatLonHash());
-        for (Node node : dataSet.getNodes()) {
-            if (!node.isDeleted()) {
-                final Object old = nodes.get(node);
-                if (old == null) {
-                    nodes.put(node);
-                } else if (old instanceof Node) {
-                    List<Node> list = new ArrayList<>(2);
-                    list.add((Node) old);
-                    list.add(node);
-                    nodes.put(list);
-                } else {
-                    @SuppressWarnings("unchecked")
-                    List<Node> list = (List<Node>) old;
-                    list.add(node);
-                }
-            }
-        }
-        return nodes;
+    static long getGridKey(ILatLon coor) {
+        final long lat = Math.round(coor.lat() / DEGREE_BUFFER);
+        final long lon = Math.round(coor.lon() / DEGREE_BUFFER);
+        return (lat << 32) | (lon & 0xFFFF_FFFFL);
     }
 
     /**
      * Merge nodes that have the same tags and (almost) the same location
      *
-     * @param dataSet The dataset to merge nodes in
+     * @param candidates The nodes to merge
      */
-    private static void mergeNodes(DataSet dataSet) {
-        final Storage<Object> nodes = generateEfficientNodeSearchStorage(dataSet);
-        for (Object obj : nodes) {
+    private static void mergeNodes(Collection<Node> candidates) {
+        final List<Node> nodes = new ArrayList<>(candidates.size());
+        for (Node node : candidates) {
+            if (!node.isDeleted() && node.isLatLonKnown()) {
+                nodes.add(node);
+            }
+        }
+        // Each grid cell points at the last node added to it, and each node points
+        // at the previous node in the same cell (or -1)
+        final int[] previous = new int[nodes.size()];
+        final LongIntHashMap grid = new LongIntHashMap(nodes.size());
+        for (int i = 0; i < nodes.size(); i++) {
+            final long key = getGridKey(nodes.get(i));
+            previous[i] = grid.get(key, -1);
+            grid.put(key, i);
+        }
+        final List<Node> cell = new ArrayList<>();
+        final List<Node> nearbyNodes = new ArrayList<>();
+        grid.forEachValue(last -> {
             // We only care if there are multiple nodes at the location
-            if (obj instanceof List<?>) {
-                @SuppressWarnings("unchecked")
-                final List<Node> iNodes = (List<Node>) obj;
-                for (Node nearNode : iNodes) {
-                    final List<Node> nearbyNodes = new ArrayList<>(iNodes);
-                    nearbyNodes.removeIf(node -> !nearNode.hasSameInterestingTags(node) || !usableNode(nearNode, node));
-                    final Command mergeCommand = MergeNodesAction.mergeNodes(nearbyNodes, nearNode);
+            if (previous[last] < 0) {
+                return;
+            }
+            cell.clear();
+            for (int i = last; i >= 0; i = previous[i]) {
+                cell.add(nodes.get(i));
+            }
+            // Keep the dataset order
+            Collections.reverse(cell);
+            for (Node nearNode : cell) {
+                nearbyNodes.clear();
+                for (Node node : cell) {
+                    if (nearNode.hasSameInterestingTags(node) && usableNode(nearNode, node)) {
+                        nearbyNodes.add(node);
+                    }
+                }
+                if (!nearbyNodes.isEmpty()) {
+                    final Command mergeCommand = MergeNodesAction.mergeNodes(new ArrayList<>(nearbyNodes), nearNode);
                     if (mergeCommand != null) {
                         mergeCommand.executeCommand();
                     }
                 }
             }
-        }
+        });
     }
 
     private static boolean usableNode(Node nearNode, Node node) {
@@ -565,17 +718,31 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
                 && node.isLatLonKnown() && nearNode.isLatLonKnown();
     }
 
-    private static void mergeWays(DataSet dataSet) {
-        for (final Way way1 : dataSet.getWays()) {
+    /**
+     * Fix ways that almost follow other ways that they share nodes with
+     *
+     * @param ways The ways to fix
+     */
+    private static void mergeWays(Collection<Way> ways) {
+        final Map<Way, Integer> sharedNodes = new LinkedHashMap<>();
+        for (final Way way1 : ways) {
             if (way1.isDeleted()) {
                 continue;
             }
-            final BBox bbox = new BBox();
-            bbox.addPrimitive(way1, DEGREE_BUFFER);
-            for (Way nearbyWay : dataSet.searchWays(bbox)) {
-                if (nearbyWay.getNodes().stream().filter(way1::containsNode).count() > 1) {
+            // The node referrers are already an index from nodes to ways, so use them to find
+            // the ways that share nodes with way1 instead of searching the area around it.
+            sharedNodes.clear();
+            for (Node node : new LinkedHashSet<>(way1.getNodes())) {
+                for (Way way2 : node.getParentWays()) {
+                    if (way2 != way1 && !way2.isDeleted()) {
+                        sharedNodes.merge(way2, 1, Integer::sum);
+                    }
+                }
+            }
+            for (Map.Entry<Way, Integer> nearbyWay : sharedNodes.entrySet()) {
+                if (nearbyWay.getValue() > 1) {
                     for (Map.Entry<IWaySegment<Node, Way>, List<IWaySegment<Node, Way>>> entry : checkWayDuplications(
-                            way1, nearbyWay).entrySet()) {
+                            way1, nearbyWay.getKey()).entrySet()) {
                         GetDataRunnable.addMissingElement(entry);
                     }
                 }
@@ -648,28 +815,34 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
      */
     protected static Map<IWaySegment<Node, Way>, List<IWaySegment<Node, Way>>> checkWayDuplications(Way way1,
             Way way2) {
-        final List<IWaySegment<Node, Way>> waySegments1 = way1.getNodePairs(false).stream()
-                .map(pair -> IWaySegment.forNodePair(way1, pair.a, pair.b)).collect(Collectors.toList());
-        final List<IWaySegment<Node, Way>> waySegments2 = way2.getNodePairs(false).stream()
-                .map(pair -> IWaySegment.forNodePair(way2, pair.a, pair.b)).collect(Collectors.toList());
+        final List<IWaySegment<Node, Way>> waySegments1 = getWaySegments(way1);
+        // The segments of way2 for each node, so that only the segments connected to a
+        // segment of way1 are checked
+        final Map<Node, List<IWaySegment<Node, Way>>> waySegments2 = new HashMap<>();
+        for (IWaySegment<Node, Way> segment : getWaySegments(way2)) {
+            waySegments2.computeIfAbsent(segment.getFirstNode(), node -> new ArrayList<>(2)).add(segment);
+            waySegments2.computeIfAbsent(segment.getSecondNode(), node -> new ArrayList<>(2)).add(segment);
+        }
         final Map<IWaySegment<Node, Way>, List<IWaySegment<Node, Way>>> partials = new TreeMap<>();
-        final BiPredicate<IWaySegment<Node, Way>, IWaySegment<Node, Way>> connected = (segment1,
-                segment2) -> segment1.getFirstNode().equals(segment2.getFirstNode())
-                        || segment1.getSecondNode().equals(segment2.getFirstNode())
-                        || segment1.getFirstNode().equals(segment2.getSecondNode())
-                        || segment1.getSecondNode().equals(segment2.getSecondNode());
+        // Sorted by index in way2, to keep the order the segments were checked in
+        final Set<IWaySegment<Node, Way>> connected = new TreeSet<>();
         for (final IWaySegment<Node, Way> segment1 : waySegments1) {
-            final List<IWaySegment<Node, Way>> replacements = waySegments2.stream()
-                    .filter(seg2 -> connected.test(segment1, seg2)).filter(seg -> {
-                        final Node node2 = segment1.getFirstNode().equals(seg.getFirstNode())
-                                || segment1.getSecondNode().equals(seg.getFirstNode()) ? seg.getFirstNode()
-                                        : seg.getSecondNode();
-                        final Node node1 = node2.equals(seg.getFirstNode()) ? seg.getSecondNode() : seg.getFirstNode();
-                        final Node node3 = segment1.getFirstNode().equals(node2) ? segment1.getSecondNode()
-                                : segment1.getFirstNode();
-                        return Math.abs(Geometry.getCornerAngle(node1.getEastNorth(), node2.getEastNorth(),
-                                node3.getEastNorth())) < (Math.PI / 4);
-                    }).collect(Collectors.toList());
+            connected.clear();
+            connected.addAll(waySegments2.getOrDefault(segment1.getFirstNode(), Collections.emptyList()));
+            connected.addAll(waySegments2.getOrDefault(segment1.getSecondNode(), Collections.emptyList()));
+            if (connected.size() < 2) {
+                continue;
+            }
+            final List<IWaySegment<Node, Way>> replacements = connected.stream().filter(seg -> {
+                final Node node2 = segment1.getFirstNode().equals(seg.getFirstNode())
+                        || segment1.getSecondNode().equals(seg.getFirstNode()) ? seg.getFirstNode()
+                                : seg.getSecondNode();
+                final Node node1 = node2.equals(seg.getFirstNode()) ? seg.getSecondNode() : seg.getFirstNode();
+                final Node node3 = segment1.getFirstNode().equals(node2) ? segment1.getSecondNode()
+                        : segment1.getFirstNode();
+                return Math.abs(Geometry.getCornerAngle(node1.getEastNorth(), node2.getEastNorth(),
+                        node3.getEastNorth())) < (Math.PI / 4);
+            }).collect(Collectors.toList());
             if ((replacements.size() != 2) || replacements.stream()
                     .anyMatch(seg -> Arrays.asList(segment1.getFirstNode(), segment1.getSecondNode())
                             .containsAll(Arrays.asList(seg.getFirstNode(), seg.getSecondNode())))) {
@@ -680,6 +853,14 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
         return partials;
     }
 
+    private static List<IWaySegment<Node, Way>> getWaySegments(Way way) {
+        final List<IWaySegment<Node, Way>> segments = new ArrayList<>(Math.max(0, way.getNodesCount() - 1));
+        for (int i = 0; i < way.getNodesCount() - 1; i++) {
+            segments.add(new IWaySegment<>(way, i));
+        }
+        return segments;
+    }
+
     /**
      * Actually get the data
      *
@@ -691,13 +872,11 @@ public class GetDataRunnable extends RecursiveTask<DataSet> {
         final DataSet dataSet = new DataSet();
         dataSet.setUploadPolicy(UploadPolicy.DISCOURAGED);
 
-        final List<ForkJoinTask<DataSet>> tasks = new ArrayList<>();
-        final ForkJoinPool pool = MapWithAIDataUtils.getForkJoinPool();
+        final List<CompletableFuture<DataSet>> tasks = new ArrayList<>();
         for (MapWithAIInfo map : new ArrayList<>(MapWithAILayerInfo.getInstance().getLayers())) {
-            tasks.add(pool.submit(
-                    MapWithAIDataUtils.download(monitor, bounds, map, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS)));
+            tasks.add(MapWithAIDataUtils.download(monitor, bounds, map, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS));
         }
-        for (ForkJoinTask<DataSet> task : tasks) {
+        for (CompletableFuture<DataSet> task : tasks) {
             dataSet.mergeFrom(task.join());
         }
         dataSet.setUploadPolicy(UploadPolicy.BLOCKED);
@@ -0,0 +1,146 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+
+/**
+ * A circuit breaker for a MapWithAI source. After
+ * {@link #FAILURE_THRESHOLD} consecutive failures (server errors or
+ * timeouts), the breaker opens, and no requests are sent to the source until
+ * the backoff has passed. Then a single request is let through: if it
+ * succeeds, the breaker closes, and if it fails, the breaker opens again with
+ * a longer backoff.
+ */
+public final class MapWithAICircuitBreaker {
+    /** The number of consecutive failures that open the breaker */
+    public static final IntegerProperty FAILURE_THRESHOLD = new IntegerProperty(
+            "mapwithai.download.breaker.failures", 3);
+
+    /** The first backoff (milliseconds). Servers have had issues with requests soon after a timeout. */
+    static final long BASE_DELAY = TimeUnit.SECONDS.toMillis(10);
+    /** The longest backoff (milliseconds) */
+    static final long MAX_DELAY = TimeUnit.MINUTES.toMillis(5);
+    private static final Map<String, MapWithAICircuitBreaker> BREAKERS = new ConcurrentHashMap<>();
+
+    /** The number of consecutive failures */
+    private int failures;
+    /** The number of times the breaker has opened since it was last closed */
+    private int opened;
+    /** The time the breaker may let a request through (milliseconds) */
+    private long openUntil;
+    /** {@code true} if a request has been let through, and it has not finished */
+    private boolean trial;
+    /** The current time (milliseconds) */
+    private final LongSupplier clock;
+
+    /**
+     * Create a new breaker
+     *
+     * @param clock The current time (milliseconds)
+     */
+    MapWithAICircuitBreaker(LongSupplier clock) {
+        this.clock = clock;
+    }
+
+    /**
+     * Get the breaker for a source
+     *
+     * @param info The source
+     * @return The breaker for the source
+     */
+    public static MapWithAICircuitBreaker get(MapWithAIInfo info) {
+        return BREAKERS.computeIfAbsent(info.getId() != null ? info.getId() : info.getUrlExpanded(),
+                source -> new MapWithAICircuitBreaker(System::currentTimeMillis));
+    }
+
+    /**
+     * Close all breakers
+     */
+    static void reset() {
+        BREAKERS.clear();
+    }
+
+    /**
+     * Check if a request may be sent
+     *
+     * @return {@code true} if the request may be sent
+     */
+    public synchronized boolean allowRequest() {
+        if (this.failures < getThreshold()) {
+            return true;
+        }
+        if (this.trial || this.clock.getAsLong() < this.openUntil) {
+            return false;
+        }
+        // Half open: let one request through
+        this.trial = true;
+        return true;
+    }
+
+    /**
+     * Record a successful request
+     */
+    public synchronized void recordSuccess() {
+        this.failures = 0;
+        this.opened = 0;
+        this.trial = false;
+    }
+
+    /**
+     * Record a failed request
+     */
+    public synchronized void recordFailure() {
+        this.failures++;
+        this.trial = false;
+        if (this.failures >= getThreshold()) {
+            this.openUntil = this.clock.getAsLong() + getBackoff(this.opened);
+            this.opened++;
+        }
+    }
+
+    /**
+     * Check if the breaker is open (requests are not being sent)
+     *
+     * @return {@code true} if the breaker is open
+     */
+    public synchronized boolean isOpen() {
+        return this.failures >= getThreshold() && (this.trial || this.clock.getAsLong() < this.openUntil);
+    }
+
+    /**
+     * Get the time until the breaker will let a request through
+     *
+     * @return The time (milliseconds), 0 if a request may be sent now
+     */
+    public synchronized long getRemainingTime() {
+        if (this.failures < getThreshold()) {
+            return 0;
+        }
+        return Math.max(0, this.openUntil - this.clock.getAsLong());
+    }
+
+    /**
+     * Get an exponential backoff with jitter. The jitter keeps retries for many
+     * areas from hitting the server at the same time.
+     *
+     * @param attempt The number of earlier attempts
+     * @return A delay between half and all of {@code BASE_DELAY * 2^attempt}
+     *         (capped at {@link #MAX_DELAY}), in milliseconds
+     */
+    static long getBackoff(int attempt) {
+        final long delay = attempt >= Long.numberOfLeadingZeros(BASE_DELAY) - 1 ? MAX_DELAY
+                : Math.min(MAX_DELAY, BASE_DELAY << attempt);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    private static int getThreshold() {
+        return Math.max(1, FAILURE_THRESHOLD.get());
+    }
+}
@@ -0,0 +1,307 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.jcs3.access.CacheAccess;
+import org.apache.commons.jcs3.engine.behavior.IElementAttributes;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.cache.JCSCacheManager;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.data.preferences.LongProperty;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.io.OsmReader;
+import org.openstreetmap.josm.io.OsmWriter;
+import org.openstreetmap.josm.io.OsmWriterFactory;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * A disk-backed cache for downloaded (and cleaned) MapWithAI data. Entries are
+ * keyed by the source and the downloaded bbox. The JCS disk cache evicts the
+ * least recently used entries once it is full, and entries expire after
+ * {@link #MAX_AGE} seconds.
+ * <p>
+ * If the server sent validators ({@code ETag} or {@code Last-Modified}) with
+ * the data, the entry is kept for up to {@link #MAX_STALE_AGE} seconds. Once it
+ * is older than {@link #MAX_AGE}, it is not returned by {@link #get}, but the
+ * validators are sent with the next download so that the server can tell us to
+ * use the cached data instead of sending it again.
+ */
+public final class MapWithAIDataCache {
+    /** Whether or not the data cache should be used */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.cache.data.enabled", true);
+    /** The maximum age of a cached tile, in seconds */
+    public static final LongProperty MAX_AGE = new LongProperty("mapwithai.cache.data.maxage",
+            TimeUnit.DAYS.toSeconds(1));
+    /** The maximum age of a cached tile that can be revalidated with the server, in seconds */
+    public static final LongProperty MAX_STALE_AGE = new LongProperty("mapwithai.cache.data.maxstale",
+            TimeUnit.DAYS.toSeconds(30));
+    /** The maximum size of the disk cache, in MB */
+    private static final IntegerProperty MAX_DISK_SIZE = new IntegerProperty("mapwithai.cache.data.size", 250);
+    private static final String CACHE_DIRECTORY = new File(Config.getDirs().getCacheDirectory(true), "mapwithai")
+            .getPath();
+    private static final CacheAccess<String, byte[]> DATA_CACHE = JCSCacheManager.getCache("mapwithai:data", 10,
+            MAX_DISK_SIZE.get() * 1024, CACHE_DIRECTORY);
+    /** Validators are small, so 10 MB is plenty */
+    private static final CacheAccess<String, Validators> VALIDATOR_CACHE = JCSCacheManager
+            .getCache("mapwithai:validators", 100, 10 * 1024, CACHE_DIRECTORY);
+
+    /**
+     * The validators that a server sent with data. These are used for conditional
+     * requests ({@code If-None-Match} and {@code If-Modified-Since}).
+     */
+    public static final class Validators implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String eTag;
+        private final String lastModified;
+        /** The time the data was last known to be current, in milliseconds */
+        private final long time;
+
+        /**
+         * Create new validators for data that is current
+         *
+         * @param eTag         The {@code ETag} header (may be {@code null})
+         * @param lastModified The {@code Last-Modified} header (may be {@code null})
+         */
+        public Validators(String eTag, String lastModified) {
+            this(eTag, lastModified, System.currentTimeMillis());
+        }
+
+        Validators(String eTag, String lastModified, long time) {
+            this.eTag = eTag;
+            this.lastModified = lastModified;
+            this.time = time;
+        }
+
+        /**
+         * Get the {@code ETag} header
+         *
+         * @return The {@code ETag} (may be {@code null})
+         */
+        public String getETag() {
+            return this.eTag;
+        }
+
+        /**
+         * Get the {@code Last-Modified} header
+         *
+         * @return The {@code Last-Modified} date (may be {@code null})
+         */
+        public String getLastModified() {
+            return this.lastModified;
+        }
+
+        /**
+         * Check if there is anything to validate with
+         *
+         * @return {@code true} if either the {@code ETag} or the
+         *         {@code Last-Modified} header was set
+         */
+        public boolean isValid() {
+            return this.eTag != null || this.lastModified != null;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - this.time > TimeUnit.SECONDS.toMillis(MAX_AGE.get());
+        }
+    }
+
+    private MapWithAIDataCache() {
+        // Hide the constructor
+    }
+
+    /**
+     * Get cached data
+     *
+     * @param info   The source of the data
+     * @param bounds The bounds that were downloaded
+     * @param crop   {@code true} if the data was cropped to the tasking manager
+     *               area
+     * @return The cached data, or {@code null} if there was no usable cached data
+     */
+    public static DataSet get(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return null;
+        }
+        final String key = getKey(info, bounds, crop);
+        final Validators validators = VALIDATOR_CACHE.get(key);
+        if (validators != null && validators.isStale()) {
+            return null;
+        }
+        return read(key);
+    }
+
+    /**
+     * Check if there is usable cached data, without reading it. Only the (small)
+     * validators are read, since they are stored with the data.
+     *
+     * @param info   The source of the data
+     * @param bounds The bounds that were downloaded
+     * @param crop   {@code true} if the data was cropped to the tasking manager
+     *               area
+     * @return {@code true} if there is cached data that is not too old
+     */
+    public static boolean contains(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return false;
+        }
+        final String key = getKey(info, bounds, crop);
+        final Validators validators = VALIDATOR_CACHE.get(key);
+        return validators != null && !validators.isStale();
+    }
+
+    /**
+     * Get cached data, even if it is older than {@link #MAX_AGE}. Use this when
+     * the server says that the data has not been modified.
+     *
+     * @param info   The source of the data
+     * @param bounds The bounds that were downloaded
+     * @param crop   {@code true} if the data was cropped to the tasking manager
+     *               area
+     * @return The cached data, or {@code null} if there was no usable cached data
+     */
+    public static DataSet getStale(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return null;
+        }
+        return read(getKey(info, bounds, crop));
+    }
+
+    /**
+     * Get the validators for cached data
+     *
+     * @param info   The source of the data
+     * @param bounds The bounds that were downloaded
+     * @param crop   {@code true} if the data was cropped to the tasking manager
+     *               area
+     * @return The validators, or {@code null} if there is no cached data with
+     *         validators
+     */
+    public static Validators getValidators(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return null;
+        }
+        final String key = getKey(info, bounds, crop);
+        final Validators validators = VALIDATOR_CACHE.get(key);
+        // The data may have been evicted
+        if (validators == null || !validators.isValid() || DATA_CACHE.get(key) == null) {
+            return null;
+        }
+        return validators;
+    }
+
+    private static DataSet read(String key) {
+        final byte[] data = DATA_CACHE.get(key);
+        if (data == null) {
+            return null;
+        }
+        try (GZIPInputStream inputStream = new GZIPInputStream(new ByteArrayInputStream(data))) {
+            return OsmReader.parseDataSet(inputStream, NullProgressMonitor.INSTANCE);
+        } catch (IOException | IllegalDataException e) {
+            Logging.error(e);
+            DATA_CACHE.remove(key);
+            VALIDATOR_CACHE.remove(key);
+        }
+        return null;
+    }
+
+    /**
+     * Store data in the cache. Empty datasets are not stored, since they are
+     * usually the result of a failed download.
+     *
+     * @param info    The source of the data
+     * @param bounds  The bounds that were downloaded
+     * @param crop    {@code true} if the data was cropped to the tasking manager
+     *                area
+     * @param dataSet The (cleaned) data to store
+     */
+    public static void put(MapWithAIInfo info, Bounds bounds, boolean crop, DataSet dataSet) {
+        put(info, bounds, crop, dataSet, null);
+    }
+
+    /**
+     * Store data in the cache. Empty datasets are not stored, since they are
+     * usually the result of a failed download.
+     *
+     * @param info       The source of the data
+     * @param bounds     The bounds that were downloaded
+     * @param crop       {@code true} if the data was cropped to the tasking
+     *                   manager area
+     * @param dataSet    The (cleaned) data to store
+     * @param validators The validators the server sent with the data (may be
+     *                   {@code null})
+     */
+    public static void put(MapWithAIInfo info, Bounds bounds, boolean crop, DataSet dataSet, Validators validators) {
+        if (!Boolean.TRUE.equals(ENABLED.get()) || dataSet == null || dataSet.isEmpty()) {
+            return;
+        }
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzipOutputStream = new GZIPOutputStream(outputStream);
+                OsmWriter writer = OsmWriterFactory.createOsmWriter(
+                        new PrintWriter(new OutputStreamWriter(gzipOutputStream, StandardCharsets.UTF_8)), true,
+                        "0.6")) {
+            dataSet.getReadLock().lock();
+            try {
+                writer.write(dataSet);
+            } finally {
+                dataSet.getReadLock().unlock();
+            }
+        } catch (IOException e) {
+            Logging.error(e);
+            return;
+        }
+        final String key = getKey(info, bounds, crop);
+        final boolean revalidate = validators != null && validators.isValid();
+        // JCS uses seconds for the max life. Keep data that can be revalidated longer.
+        final long maxLife = revalidate ? Math.max(MAX_AGE.get(), MAX_STALE_AGE.get()) : MAX_AGE.get();
+        final IElementAttributes elementAttributes = DATA_CACHE.getDefaultElementAttributes();
+        elementAttributes.setMaxLife(maxLife);
+        DATA_CACHE.put(key, outputStream.toByteArray(), elementAttributes);
+        // Always store validators with the data, so that contains does not have to read the data
+        final IElementAttributes validatorAttributes = VALIDATOR_CACHE.getDefaultElementAttributes();
+        validatorAttributes.setMaxLife(maxLife);
+        VALIDATOR_CACHE.put(key, validators != null ? validators : new Validators(null, null), validatorAttributes);
+    }
+
+    /**
+     * Clear the data cache
+     */
+    public static void clear() {
+        DATA_CACHE.clear();
+        VALIDATOR_CACHE.clear();
+    }
+
+    /**
+     * Get the key for a source and bounds
+     *
+     * @param info   The source of the data
+     * @param bounds The bounds that were downloaded
+     * @param crop   {@code true} if the data was cropped to the tasking manager
+     *               area
+     * @return The key to use in the cache
+     */
+    static String getKey(MapWithAIInfo info, Bounds bounds, boolean crop) {
+        final StringBuilder key = new StringBuilder(info.getId() != null ? info.getId() : info.getUrlExpanded())
+                .append('|').append(bounds.toBBox().toStringCSV(","));
+        if (crop) {
+            key.append("|crop:")
+                    .append(DetectTaskingManagerUtils.getTaskingManagerBounds().toBBox().toStringCSV(","));
+        }
+        return key.toString();
+    }
+}
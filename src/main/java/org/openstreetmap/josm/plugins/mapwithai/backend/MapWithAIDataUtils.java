@@ -12,12 +12,17 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ForkJoinPool;
-import java.util.concurrent.ForkJoinTask;
 import java.util.concurrent.locks.Lock;
 import java.util.stream.Collectors;
 
@@ -25,6 +30,7 @@ import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.UndoRedoHandler;
 import org.openstreetmap.josm.data.coor.ILatLon;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -34,6 +40,7 @@ import org.openstreetmap.josm.gui.ConditionalOptionPaneUtil;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.gui.progress.ProgressMonitor;
 import org.openstreetmap.josm.gui.progress.swing.PleaseWaitProgressMonitor;
 import org.openstreetmap.josm.gui.util.GuiHelper;
@@ -44,6 +51,7 @@ import org.openstreetmap.josm.plugins.mapwithai.commands.MapWithAIAddCommand;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAILayerInfo;
 import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Pair;
 import org.openstreetmap.josm.tools.Utils;
 
 /**
@@ -58,6 +66,11 @@ public final class MapWithAIDataUtils {
     // timeouts
     private static final int TOO_MANY_BBOXES = 4;
     private static ForkJoinPool forkJoinPool;
+    /** The downloads that have not finished, by {@link MapWithAIDataCache#getKey} */
+    private static final Map<String, InFlightDownload> IN_FLIGHT = new ConcurrentHashMap<>();
+    /** The (empty) data for downloads that failed, see {@link BoundingBoxMapWithAIDownloader#hasFailed} */
+    private static final Set<DataSet> FAILED = Collections
+            .newSetFromMap(Collections.synchronizedMap(new WeakHashMap<>()));
     static final Object LAYER_LOCK = new Object();
 
     private MapWithAIDataUtils() {
@@ -108,33 +121,54 @@ public final class MapWithAIDataUtils {
      * @return A DataSet with data inside the bounds
      */
     public static DataSet getData(Collection<Bounds> bounds, int maximumDimensions) {
+        return getData(bounds, maximumDimensions, bounds.size(), new ArrayList<>());
+    }
+
+    /**
+     * Get a dataset from the API servers using a list bounds
+     *
+     * @param bounds            The bounds from which to get data
+     * @param maximumDimensions The maximum dimensions to try to download at any one
+     *                          time
+     * @param requestedAreas    The number of areas the user requested (used to
+     *                          determine if the user should confirm the download)
+     * @param failed            The collection to add the areas that could not be
+     *                          downloaded to, with the source that failed (or
+     *                          {@code null} if nothing was downloaded)
+     * @return A DataSet with data inside the bounds
+     */
+    private static DataSet getData(Collection<Bounds> bounds, int maximumDimensions, int requestedAreas,
+            Collection<Pair<MapWithAIInfo, Bounds>> failed) {
         final DataSet dataSet = new DataSet();
         final List<Bounds> realBounds = bounds.stream().filter(b -> !b.isOutOfTheWorld()).distinct()
-                .flatMap(bound -> MapWithAIDataUtils.reduceBoundSize(bound, maximumDimensions).stream())
+                .flatMap(bound -> getDownloadBounds(bound, maximumDimensions).stream()).distinct()
                 .collect(Collectors.toList());
         if (!MapWithAIPreferenceHelper.getMapWithAIUrl().isEmpty()) {
-            if ((bounds.size() < TOO_MANY_BBOXES) || confirmBigDownload(realBounds)) {
+            if ((requestedAreas < TOO_MANY_BBOXES) || confirmBigDownload(realBounds)) {
                 final PleaseWaitProgressMonitor monitor = new PleaseWaitProgressMonitor();
                 monitor.beginTask(tr("Downloading {0} Data", MapWithAIPlugin.NAME), realBounds.size());
                 try {
                     List<MapWithAIInfo> urls = new ArrayList<>(MapWithAIPreferenceHelper.getMapWithAIUrl());
-                    final List<ForkJoinTask<DataSet>> downloadedDataSets = new ArrayList<>();
+                    final List<CompletableFuture<DataSet>> downloadedDataSets = new ArrayList<>();
+                    final List<Pair<MapWithAIInfo, Bounds>> downloadedBounds = new ArrayList<>();
                     for (final Bounds bound : realBounds) {
                         for (MapWithAIInfo url : urls) {
                             if (url.getUrl() != null && !Utils.isBlank(url.getUrl())) {
-                                ForkJoinTask<DataSet> ds = download(monitor, bound, url, maximumDimensions);
-                                downloadedDataSets.add(ds);
-                                MapWithAIDataUtils.getForkJoinPool().execute(ds);
+                                downloadedDataSets.add(download(monitor, bound, url, maximumDimensions));
+                                downloadedBounds.add(new Pair<>(url, bound));
                             }
                         }
                     }
-                    mergeDataSets(dataSet, downloadedDataSets);
+                    mergeDataSets(dataSet, downloadedDataSets, downloadedBounds, failed);
                 } finally {
                     monitor.finishTask();
                     monitor.close();
                 }
+            } else {
+                realBounds.forEach(bound -> failed.add(new Pair<>(null, bound)));
             }
         } else {
+            realBounds.forEach(bound -> failed.add(new Pair<>(null, bound)));
             final Notification noUrls = GuiHelper.runInEDTAndWaitAndReturn(
                     () -> MapWithAIPreferenceHelper.getMapWithAIUrl().isEmpty() ? new Notification(tr(
                             "There are no defined URLs. Attempting to add the appropriate servers.\nPlease try again."))
@@ -154,7 +188,17 @@ public final class MapWithAIDataUtils {
     }
 
     /**
-     * Download an area
+     * Download an area. The download is scheduled with the
+     * {@link MapWithAIDownloadScheduler}. If the data is sent to a conflation
+     * server, the unconflated data is returned, and it is replaced once it has
+     * been merged into the MapWithAI layer and the conflated data is available
+     * (see {@link PendingConflation}).
+     *
+     * <p>
+     * If the same source and bounds are already being downloaded, the existing
+     * download is used instead of starting a new one (unless this is called from
+     * a running download). Areas with a lot of data
+     * are downloaded in smaller pieces (see {@link MapWithAITileSizer}).
      *
      * @param monitor           The monitor to update
      * @param bound             The bounds that are being downloading
@@ -162,21 +206,208 @@ public final class MapWithAIDataUtils {
      * @param maximumDimensions The maximum dimensions to download
      * @return A future that will have downloaded the data
      */
-    public static ForkJoinTask<DataSet> download(ProgressMonitor monitor, Bounds bound, MapWithAIInfo mapWithAIInfo,
-            int maximumDimensions) {
-        return ForkJoinTask.adapt(() -> {
-            BoundingBoxMapWithAIDownloader downloader = new BoundingBoxMapWithAIDownloader(bound, mapWithAIInfo,
-                    DetectTaskingManagerUtils.hasTaskingManagerLayer());
-            try {
-                return downloader.parseOsm(monitor.createSubTaskMonitor(1, false));
-            } catch (OsmTransferException e) {
-                if (e.getCause() instanceof SocketTimeoutException && maximumDimensions > MAXIMUM_SIDE_DIMENSIONS / 10
-                        && maximumDimensions / 2f > 0.5) {
-                    return getData(Collections.singleton(bound), maximumDimensions / 2);
+    public static CompletableFuture<DataSet> download(ProgressMonitor monitor, Bounds bound,
+            MapWithAIInfo mapWithAIInfo, int maximumDimensions) {
+        return download(monitor, bound, mapWithAIInfo, maximumDimensions,
+                MapWithAIDownloadScheduler.getPriority(bound));
+    }
+
+    /**
+     * Download an area, see
+     * {@link #download(ProgressMonitor, Bounds, MapWithAIInfo, int)}
+     *
+     * @param monitor           The monitor to update
+     * @param bound             The bounds that are being downloading
+     * @param mapWithAIInfo     The source of the data
+     * @param maximumDimensions The maximum dimensions to download
+     * @param priority          The priority of the download (lower values are
+     *                          started first)
+     * @return A future that will have downloaded the data
+     */
+    static CompletableFuture<DataSet> download(ProgressMonitor monitor, Bounds bound, MapWithAIInfo mapWithAIInfo,
+            int maximumDimensions, double priority) {
+        final int dimensions = MapWithAITileSizer.getSideDimensions(mapWithAIInfo, bound, maximumDimensions);
+        if (dimensions < maximumDimensions) {
+            final List<Bounds> parts = getDownloadBounds(bound, dimensions);
+            if (parts.size() > 1) {
+                final List<CompletableFuture<DataSet>> futures = parts.stream()
+                        .map(part -> downloadPart(NullProgressMonitor.INSTANCE, part, mapWithAIInfo, dimensions,
+                                priority))
+                        .collect(Collectors.toList());
+                return CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                    final DataSet dataSet = new DataSet();
+                    final List<DataSet> downloaded = futures.stream().map(CompletableFuture::join)
+                            .collect(Collectors.toList());
+                    PendingConflation.combine(dataSet, downloaded);
+                    downloaded.forEach(dataSet::mergeFrom);
+                    if (downloaded.stream().anyMatch(FAILED::contains)) {
+                        FAILED.add(dataSet);
+                    }
+                    return dataSet;
+                }).whenComplete((dataSet, throwable) -> monitor.worked(1));
+            }
+        }
+        return downloadPart(monitor, bound, mapWithAIInfo, maximumDimensions, priority);
+    }
+
+    /**
+     * Download an area without splitting it
+     *
+     * @param monitor           The monitor to update
+     * @param bound             The bounds that are being downloading
+     * @param mapWithAIInfo     The source of the data
+     * @param maximumDimensions The maximum dimensions to download
+     * @param priority          The priority of the download (lower values are
+     *                          started first)
+     * @return A future that will have downloaded the data
+     */
+    private static CompletableFuture<DataSet> downloadPart(ProgressMonitor monitor, Bounds bound,
+            MapWithAIInfo mapWithAIInfo, int maximumDimensions, double priority) {
+        if (MapWithAIDownloadScheduler.isInDownload()) {
+            // A download that splits itself up is run in the current thread. Joining another download could wait on
+            // one that is queued behind the slot this thread holds, so download directly.
+            return MapWithAIDownloadScheduler.getInstance().submit(MapWithAIDownloadScheduler.getHost(mapWithAIInfo),
+                    priority, () -> downloadNow(monitor, bound, mapWithAIInfo, maximumDimensions));
+        }
+        final String key = MapWithAIDataCache.getKey(mapWithAIInfo, bound,
+                DetectTaskingManagerUtils.hasTaskingManagerLayer());
+        final InFlightDownload inFlight = new InFlightDownload();
+        final InFlightDownload existing = IN_FLIGHT.putIfAbsent(key, inFlight);
+        if (existing != null) {
+            final CompletableFuture<DataSet> joined = existing.join();
+            if (joined != null) {
+                return joined.whenComplete((dataSet, throwable) -> monitor.worked(1));
+            }
+            // The download finished while we were looking at it
+            return downloadPart(monitor, bound, mapWithAIInfo, maximumDimensions, priority);
+        }
+        MapWithAIDownloadScheduler.getInstance()
+                .submit(MapWithAIDownloadScheduler.getHost(mapWithAIInfo), priority,
+                        () -> downloadNow(monitor, bound, mapWithAIInfo, maximumDimensions))
+                .whenComplete((dataSet, throwable) -> {
+                    IN_FLIGHT.remove(key, inFlight);
+                    inFlight.complete(dataSet, throwable);
+                });
+        return inFlight.future;
+    }
+
+    /**
+     * A download that other callers can use
+     */
+    private static final class InFlightDownload {
+        /** The future for the caller that started the download */
+        final CompletableFuture<DataSet> future = new CompletableFuture<>();
+        /** The futures for the callers that are using the download */
+        private final List<CompletableFuture<DataSet>> joined = new ArrayList<>();
+        private boolean finished;
+
+        /**
+         * Use this download
+         *
+         * @return A future for the data, or {@code null} if the download has
+         *         already finished
+         */
+        synchronized CompletableFuture<DataSet> join() {
+            if (this.finished) {
+                return null;
+            }
+            final CompletableFuture<DataSet> joinedFuture = new CompletableFuture<>();
+            this.joined.add(joinedFuture);
+            return joinedFuture;
+        }
+
+        /**
+         * Finish the download
+         *
+         * @param dataSet   The downloaded data
+         * @param throwable The exception thrown by the download
+         */
+        void complete(DataSet dataSet, Throwable throwable) {
+            synchronized (this) {
+                this.finished = true;
+                for (CompletableFuture<DataSet> joinedFuture : this.joined) {
+                    if (throwable != null) {
+                        joinedFuture.completeExceptionally(throwable);
+                    } else {
+                        // Merging data modifies the source, so every caller needs its own copy. The
+                        // copies are made before the caller that started the download gets the data.
+                        final DataSet copy = dataSet == null ? null : new DataSet(dataSet);
+                        if (copy != null) {
+                            PendingConflation.copy(dataSet, copy);
+                            if (FAILED.contains(dataSet)) {
+                                FAILED.add(copy);
+                            }
+                        }
+                        joinedFuture.complete(copy);
+                    }
                 }
-                throw e;
+                this.joined.clear();
             }
-        });
+            if (throwable != null) {
+                this.future.completeExceptionally(throwable);
+            } else {
+                this.future.complete(dataSet);
+            }
+        }
+    }
+
+    /**
+     * Download an area in the current thread
+     *
+     * @param monitor           The monitor to update
+     * @param bound             The bounds that are being downloading
+     * @param mapWithAIInfo     The source of the data
+     * @param maximumDimensions The maximum dimensions to download
+     * @return The downloaded data
+     * @throws OsmTransferException If the data could not be downloaded
+     */
+    private static DataSet downloadNow(ProgressMonitor monitor, Bounds bound, MapWithAIInfo mapWithAIInfo,
+            int maximumDimensions) throws OsmTransferException {
+        final boolean crop = DetectTaskingManagerUtils.hasTaskingManagerLayer();
+        final DataSet cached = MapWithAIDataCache.get(mapWithAIInfo, bound, crop);
+        MapWithAIMetrics.recordCache(mapWithAIInfo, cached != null);
+        if (cached != null) {
+            monitor.worked(1);
+            return cached;
+        }
+        BoundingBoxMapWithAIDownloader downloader = new BoundingBoxMapWithAIDownloader(bound, mapWithAIInfo, crop);
+        // If we have an old copy, the server may tell us that it is still current
+        downloader.setValidators(MapWithAIDataCache.getValidators(mapWithAIInfo, bound, crop));
+        try {
+            final DataSet downloaded = downloader.parseOsm(monitor.createSubTaskMonitor(1, false));
+            if (downloader.hasFailed()) {
+                // The download may be retried in the background, see DownloadRetry
+                FAILED.add(downloaded);
+                return downloaded;
+            }
+            final MapWithAIDataCache.Validators validators = downloader.getResponseValidators();
+            MapWithAIDataCache.put(mapWithAIInfo, bound, crop, downloaded, validators);
+            final CompletableFuture<DataSet> conflation = downloader.getConflatedData();
+            if (conflation != null) {
+                // Show the unconflated data now, and replace it once it has been merged into the layer and the
+                // conflated data is ready
+                final CompletableFuture<DataSet> replacement = conflation.thenApply(conflated -> {
+                    if (conflated != null) {
+                        MapWithAIDataCache.put(mapWithAIInfo, bound, crop, conflated, validators);
+                    }
+                    return conflated;
+                });
+                PendingConflation.register(downloaded,
+                        new PendingConflation(mapWithAIInfo, replacement, conflation, bound));
+            }
+            return downloaded;
+        } catch (OsmTransferException e) {
+            if (e.getCause() instanceof SocketTimeoutException && maximumDimensions > MAXIMUM_SIDE_DIMENSIONS / 10
+                    && maximumDimensions / 2f > 0.5) {
+                final List<Pair<MapWithAIInfo, Bounds>> failed = new ArrayList<>();
+                final DataSet smaller = getData(Collections.singleton(bound), maximumDimensions / 2, 1, failed);
+                if (!failed.isEmpty()) {
+                    FAILED.add(smaller);
+                }
+                return smaller;
+            }
+            throw e;
+        }
     }
 
     /**
@@ -184,12 +415,22 @@ public final class MapWithAIDataUtils {
      *
      * @param original        The original dataset
      * @param dataSetsToMerge The datasets to merge (futures)
+     * @param bounds          The source and bounds of each dataset to merge
+     * @param failed          The collection to add the source and bounds of the
+     *                        datasets that could not be downloaded to
      */
-    private static void mergeDataSets(final DataSet original, final List<ForkJoinTask<DataSet>> dataSetsToMerge) {
-        for (ForkJoinTask<DataSet> ds : dataSetsToMerge) {
+    private static void mergeDataSets(final DataSet original, final List<CompletableFuture<DataSet>> dataSetsToMerge,
+            final List<Pair<MapWithAIInfo, Bounds>> bounds, final Collection<Pair<MapWithAIInfo, Bounds>> failed) {
+        final List<DataSet> downloaded = new ArrayList<>(dataSetsToMerge.size());
+        for (int i = 0; i < dataSetsToMerge.size(); i++) {
             try {
-                original.mergeFrom(ds.join());
+                final DataSet ds = dataSetsToMerge.get(i).join();
+                if (ds == null || FAILED.contains(ds)) {
+                    failed.add(bounds.get(i));
+                }
+                downloaded.add(ds);
             } catch (RuntimeException e) {
+                failed.add(bounds.get(i));
                 final String notificationMessage;
                 if (e.getCause() instanceof IllegalDataException) {
                     notificationMessage = tr("MapWithAI servers may be down.");
@@ -202,6 +443,8 @@ public final class MapWithAIDataUtils {
                 GuiHelper.runInEDT(notification::show);
             }
         }
+        PendingConflation.combine(original, downloaded);
+        downloaded.forEach(original::mergeFrom);
     }
 
     private static boolean confirmBigDownload(List<Bounds> realBounds) {
@@ -345,26 +588,97 @@ public final class MapWithAIDataUtils {
     public static boolean getMapWithAIData(MapWithAILayer layer, Collection<Bounds> bounds) {
         final DataSet mapWithAISet = layer.getDataSet();
         Area area = mapWithAISet.getDataSourceArea();
-        final List<Bounds> toDownload = area == null ? new ArrayList<>(bounds)
-                : bounds.stream().filter(Objects::nonNull).filter(tBounds -> !area.contains(tBounds.asRect()))
-                        .collect(Collectors.toList());
+        final List<Bounds> toDownload;
+        final List<MapWithAITiles.Tile> tiles;
+        if (MapWithAITiles.isEnabled()) {
+            // Only download the tiles that the layer does not already have (or is not already downloading)
+            tiles = bounds.stream().filter(Objects::nonNull).filter(b -> !b.isOutOfTheWorld())
+                    .flatMap(tBounds -> MapWithAITiles.getTiles(tBounds).stream()).distinct()
+                    .filter(tile -> layer.addDownloadedTile(tile.getQuadkey())).collect(Collectors.toList());
+            toDownload = tiles.stream().map(MapWithAITiles.Tile::getBounds).collect(Collectors.toList());
+        } else {
+            tiles = Collections.emptyList();
+            toDownload = area == null ? new ArrayList<>(bounds)
+                    : bounds.stream().filter(Objects::nonNull).filter(tBounds -> !area.contains(tBounds.asRect()))
+                            .collect(Collectors.toList());
+        }
         if (!toDownload.isEmpty()) {
+            final int requestedAreas = bounds.size();
             getForkJoinPool().execute(() -> {
-                final DataSet newData = getData(toDownload, MAXIMUM_SIDE_DIMENSIONS);
+                final List<Pair<MapWithAIInfo, Bounds>> failed = new ArrayList<>();
+                final DataSet newData;
+                try {
+                    newData = getData(toDownload, MAXIMUM_SIDE_DIMENSIONS, requestedAreas, failed);
+                } catch (RuntimeException e) {
+                    toDownload.forEach(bound -> failed.add(new Pair<>(null, bound)));
+                    throw e;
+                } finally {
+                    retryFailedTiles(layer, tiles, failed);
+                }
+                final long time = MapWithAIMetrics.start();
+                // Only the merged primitives (and their neighbors) need to be cleaned up
+                final Collection<OsmPrimitive> merged;
                 final Lock lock = layer.getLock();
                 lock.lock();
                 try {
-                    mapWithAISet.update(() -> mapWithAISet.mergeFrom(newData));
-                    GetDataRunnable.cleanup(mapWithAISet, null, null);
+                    merged = GetDataRunnable.mergeFrom(mapWithAISet, newData);
+                    GetDataRunnable.incrementalCleanup(mapWithAISet, merged, null);
                 } finally {
                     lock.unlock();
                 }
-                toDownload.forEach(layer::onPostDownloadFromServer);
+                PendingConflation.merged(layer, newData, merged);
+                MapWithAIMetrics.record(null, MapWithAIMetrics.Stage.LAYER_MERGE, time);
+                layer.onPostDownloadFromServer();
             });
         }
         return !toDownload.isEmpty();
     }
 
+    /**
+     * Retry the areas that could not be downloaded for a layer. The tiles with
+     * areas that are retried stay marked as downloaded, since the retry merges
+     * the data into the layer. Tiles with areas that are not retried are
+     * requested again the next time they are needed.
+     *
+     * @param layer  The layer the tiles were downloaded for
+     * @param tiles  The tiles that were downloaded
+     * @param failed The areas that could not be downloaded (may be parts of the
+     *               tiles), with the source that failed
+     */
+    private static void retryFailedTiles(MapWithAILayer layer, Collection<MapWithAITiles.Tile> tiles,
+            Collection<Pair<MapWithAIInfo, Bounds>> failed) {
+        if (failed.isEmpty()) {
+            return;
+        }
+        final boolean crop = DetectTaskingManagerUtils.hasTaskingManagerLayer();
+        final Set<String> retried = new HashSet<>();
+        final Set<String> notRetried = new HashSet<>();
+        for (Pair<MapWithAIInfo, Bounds> area : failed) {
+            final BBox areaBBox = area.b.toBBox();
+            final List<String> quadkeys = tiles.stream().filter(tile -> tile.getBounds().toBBox().bounds(areaBBox))
+                    .map(MapWithAITiles.Tile::getQuadkey).collect(Collectors.toList());
+            if (area.a != null && DownloadRetry.schedule(area.a, area.b, crop, layer, quadkeys)) {
+                retried.addAll(quadkeys);
+            } else {
+                notRetried.addAll(quadkeys);
+            }
+        }
+        // Downloading a tile again while it is being retried would add its data twice
+        notRetried.removeAll(retried);
+        notRetried.forEach(layer::removeDownloadedTile);
+    }
+
+    /**
+     * Check if a download failed
+     *
+     * @param dataSet The data returned by {@link #download}
+     * @return {@code true} if the data could not be downloaded (or only part of it
+     *         could be downloaded)
+     */
+    static boolean hasFailed(DataSet dataSet) {
+        return dataSet == null || FAILED.contains(dataSet);
+    }
+
     /**
      * Get the width of a bounds
      *
@@ -385,6 +699,38 @@ public final class MapWithAIDataUtils {
                 topLeft.greatCircleDistance((ILatLon) topRight));
     }
 
+    /**
+     * Get the bounds to download for a requested bound. If
+     * {@link MapWithAITiles#isEnabled()}, the bound is snapped to fixed tiles,
+     * otherwise it is split with {@link #reduceBoundSize(Bounds, int)}.
+     *
+     * @param bound             The bound to download
+     * @param maximumDimensions The maximum side dimensions of the bound
+     * @return A list of Bounds that have a dimension no more than
+     *         {@code maximumDimensions}
+     */
+    public static List<Bounds> getDownloadBounds(Bounds bound, int maximumDimensions) {
+        if (MapWithAITiles.isEnabled()) {
+            return MapWithAITiles.getDownloadTiles(bound, maximumDimensions).stream()
+                    .map(MapWithAITiles.Tile::getBounds).collect(Collectors.toList());
+        }
+        return reduceBoundSize(bound, maximumDimensions);
+    }
+
+    /**
+     * Get the bounds to download for a list of requested bounds
+     *
+     * @param bounds            The bounds to download
+     * @param maximumDimensions The maximum side dimensions of the bounds
+     * @return A list of Bounds that have a dimension no more than
+     *         {@code maximumDimensions}
+     * @see #getDownloadBounds(Bounds, int)
+     */
+    public static List<Bounds> getDownloadBounds(List<Bounds> bounds, int maximumDimensions) {
+        return bounds.stream().flatMap(bound -> getDownloadBounds(bound, maximumDimensions).stream()).distinct()
+                .collect(Collectors.toList());
+    }
+
     /**
      * Reduce a bound to the specified dimensions, returning a list of bounds.
      *
@@ -0,0 +1,326 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Schedule MapWithAI downloads. Downloads block on network I/O, so they are run
+ * in a dedicated pool instead of the (shared) {@link java.util.concurrent.ForkJoinPool}.
+ * <p>
+ * The number of concurrent downloads is limited globally and per host. Waiting
+ * downloads are started in order of their distance from the current view, and
+ * callers block when too many downloads are waiting.
+ * <p>
+ * On Java 21+, downloads are run in virtual threads (see {@link #newExecutor}),
+ * so a download that is waiting on a slow server does not tie up a platform
+ * thread.
+ */
+public final class MapWithAIDownloadScheduler {
+    /** The maximum number of concurrent downloads */
+    public static final IntegerProperty MAX_DOWNLOADS = new IntegerProperty("mapwithai.download.concurrent", 8);
+    /** The maximum number of concurrent downloads from a single host */
+    public static final IntegerProperty MAX_HOST_DOWNLOADS = new IntegerProperty("mapwithai.download.concurrent.host",
+            2);
+    /** The maximum number of waiting downloads */
+    public static final IntegerProperty MAX_QUEUED = new IntegerProperty("mapwithai.download.queue", 256);
+    /** Use virtual threads for downloads, if the JVM supports them (Java 21+) */
+    public static final BooleanProperty VIRTUAL_THREADS = new BooleanProperty("mapwithai.download.virtualthreads",
+            true);
+    /**
+     * The maximum number of concurrent downloads when using virtual threads. Idle
+     * virtual threads are cheap, so this is only limited by the per host limit in
+     * practice.
+     */
+    public static final IntegerProperty MAX_VIRTUAL_DOWNLOADS = new IntegerProperty(
+            "mapwithai.download.concurrent.virtual", 256);
+
+    /** Set for threads that are running a download */
+    private static final ThreadLocal<Boolean> IN_DOWNLOAD = new ThreadLocal<>();
+    private static MapWithAIDownloadScheduler instance;
+
+    private final int maxDownloads;
+    private final int maxHostDownloads;
+    private final int maxQueued;
+    private final ExecutorService executor;
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notFull = lock.newCondition();
+    private final PriorityQueue<Job<?>> queue = new PriorityQueue<>(
+            Comparator.<Job<?>>comparingDouble(job -> job.priority).thenComparingLong(job -> job.sequence));
+    private final Map<String, Integer> runningPerHost = new HashMap<>();
+    private int running;
+    private long sequence;
+
+    /**
+     * Create a new scheduler
+     *
+     * @param maxDownloads     The maximum number of concurrent downloads
+     * @param maxHostDownloads The maximum number of concurrent downloads from a
+     *                         single host
+     * @param maxQueued        The maximum number of waiting downloads
+     */
+    MapWithAIDownloadScheduler(int maxDownloads, int maxHostDownloads, int maxQueued) {
+        this.maxDownloads = Math.max(1, maxDownloads);
+        this.maxHostDownloads = Math.max(1, maxHostDownloads);
+        this.maxQueued = Math.max(1, maxQueued);
+        this.executor = newExecutor("mapwithai-download-", this.maxDownloads);
+    }
+
+    /**
+     * Create an executor for blocking network I/O. Virtual threads are used when
+     * the JVM supports them (Java 21+) and {@link #VIRTUAL_THREADS} is set,
+     * otherwise a pool of platform threads is used.
+     *
+     * @param name    The prefix for thread names
+     * @param threads The maximum number of platform threads
+     * @return A new executor
+     */
+    public static ExecutorService newExecutor(String name, int threads) {
+        if (useVirtualThreads()) {
+            try {
+                // Thread.ofVirtual().name(name, 0).factory()
+                final Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+                final Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+                final Object namedBuilder = builderClass.getMethod("name", String.class, long.class).invoke(builder,
+                        name, 0L);
+                final ThreadFactory factory = (ThreadFactory) builderClass.getMethod("factory").invoke(namedBuilder);
+                return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+                        .invoke(null, factory);
+            } catch (ReflectiveOperationException | ClassCastException e) {
+                Logging.trace(e);
+            }
+        }
+        final ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(threads, threads, 1, TimeUnit.MINUTES,
+                new LinkedBlockingQueue<>(), Utils.newThreadFactory(name + "%d", Thread.NORM_PRIORITY));
+        threadPoolExecutor.allowCoreThreadTimeOut(true);
+        return threadPoolExecutor;
+    }
+
+    /**
+     * Check if virtual threads should be used
+     *
+     * @return {@code true} if virtual threads are enabled and supported
+     */
+    static boolean useVirtualThreads() {
+        return Boolean.TRUE.equals(VIRTUAL_THREADS.get()) && Utils.getJavaVersion() >= 21;
+    }
+
+    /**
+     * Get the scheduler for MapWithAI downloads
+     *
+     * @return The scheduler
+     */
+    public static synchronized MapWithAIDownloadScheduler getInstance() {
+        if (instance == null) {
+            instance = new MapWithAIDownloadScheduler(
+                    useVirtualThreads() ? MAX_VIRTUAL_DOWNLOADS.get() : MAX_DOWNLOADS.get(), MAX_HOST_DOWNLOADS.get(),
+                    MAX_QUEUED.get());
+        }
+        return instance;
+    }
+
+    /**
+     * Schedule a download
+     *
+     * @param <T>    The type returned by the download
+     * @param info   The source of the data
+     * @param bounds The bounds being downloaded (used for priority)
+     * @param task   The download
+     * @return A future that will complete when the download finishes
+     */
+    public <T> CompletableFuture<T> submit(MapWithAIInfo info, Bounds bounds, Callable<T> task) {
+        return submit(getHost(info), getPriority(bounds), task);
+    }
+
+    /**
+     * Schedule a download. If the current thread is already running a download
+     * (e.g., when a download is split into smaller downloads), the task is run
+     * immediately in the current thread, since it already has a download slot.
+     *
+     * @param <T>      The type returned by the download
+     * @param host     The host that will be contacted
+     * @param priority The priority (lower values are started first)
+     * @param task     The download
+     * @return A future that will complete when the download finishes
+     */
+    <T> CompletableFuture<T> submit(String host, double priority, Callable<T> task) {
+        final Job<T> job = new Job<>(host, priority, task);
+        if (isInDownload()) {
+            job.run();
+            return job.future;
+        }
+        lock.lock();
+        try {
+            while (queue.size() >= maxQueued) {
+                notFull.await();
+            }
+            job.sequence = sequence++;
+            queue.add(job);
+            dispatch();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.future.completeExceptionally(e);
+        } finally {
+            lock.unlock();
+        }
+        return job.future;
+    }
+
+    /**
+     * Start waiting downloads, if there are free slots. The lock must be held.
+     */
+    private void dispatch() {
+        final List<Job<?>> deferred = new ArrayList<>();
+        Job<?> job;
+        while (running < maxDownloads && (job = queue.poll()) != null) {
+            if (job.future.isDone()) {
+                // Cancelled
+                continue;
+            }
+            final int hostRunning = runningPerHost.getOrDefault(job.host, 0);
+            if (hostRunning >= maxHostDownloads) {
+                deferred.add(job);
+                continue;
+            }
+            runningPerHost.put(job.host, hostRunning + 1);
+            running++;
+            final Job<?> toRun = job;
+            executor.execute(() -> run(toRun));
+        }
+        queue.addAll(deferred);
+        notFull.signalAll();
+    }
+
+    private void run(Job<?> job) {
+        IN_DOWNLOAD.set(Boolean.TRUE);
+        try {
+            job.run();
+        } finally {
+            IN_DOWNLOAD.remove();
+            lock.lock();
+            try {
+                running--;
+                runningPerHost.computeIfPresent(job.host, (host, count) -> count > 1 ? count - 1 : null);
+                dispatch();
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Check if the current thread is running a download. Downloads started from
+     * such a thread are run immediately, so they must not wait for downloads that
+     * are still waiting for a slot.
+     *
+     * @return {@code true} if the current thread already has a download slot
+     */
+    static boolean isInDownload() {
+        return Boolean.TRUE.equals(IN_DOWNLOAD.get());
+    }
+
+    /**
+     * Get the number of downloads that are waiting or running
+     *
+     * @return The number of downloads that have not finished
+     */
+    public int getPending() {
+        lock.lock();
+        try {
+            return queue.size() + running;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Get the host for a source
+     *
+     * @param info The source
+     * @return The host (or the url, if the host cannot be determined)
+     */
+    static String getHost(MapWithAIInfo info) {
+        final String url = info.getUrl();
+        if (url == null) {
+            return "";
+        }
+        try {
+            // URL is used instead of URI since the url may have unencoded placeholders
+            final String host = new URL(url).getHost();
+            return Utils.isBlank(host) ? url : host;
+        } catch (MalformedURLException e) {
+            Logging.trace(e);
+            return url;
+        }
+    }
+
+    /**
+     * Get the priority for a download
+     *
+     * @param bounds The bounds to download
+     * @return The distance from the center of the current view (or 0 if there is
+     *         no view)
+     */
+    static double getPriority(Bounds bounds) {
+        if (bounds == null || !MainApplication.isDisplayingMapView()) {
+            return 0;
+        }
+        final LatLon center = MainApplication.getMap().mapView.getRealBounds().getCenter();
+        return center.greatCircleDistance(bounds.getCenter());
+    }
+
+    /**
+     * A waiting download
+     *
+     * @param <T> The type returned by the download
+     */
+    private static final class Job<T> {
+        final String host;
+        final double priority;
+        final Callable<T> task;
+        final CompletableFuture<T> future = new CompletableFuture<>();
+        long sequence;
+
+        Job(String host, double priority, Callable<T> task) {
+            this.host = host;
+            this.priority = priority;
+            this.task = task;
+        }
+
+        void run() {
+            if (future.isDone()) {
+                return;
+            }
+            try {
+                future.complete(task.call());
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+        }
+    }
+}
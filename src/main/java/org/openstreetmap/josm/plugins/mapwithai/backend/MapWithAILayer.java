@@ -26,7 +26,9 @@ import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 import java.util.stream.Collectors;
@@ -40,6 +42,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.UploadPolicy;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.NavigatableComponent;
 import org.openstreetmap.josm.gui.Notification;
 import org.openstreetmap.josm.gui.dialogs.layer.DuplicateAction;
 import org.openstreetmap.josm.gui.layer.Layer;
@@ -74,6 +77,9 @@ public class MapWithAILayer extends OsmDataLayer implements ActiveLayerChangeLis
     private boolean continuousDownload = true;
     private final Lock lock;
     private final HashSet<MapWithAIInfo> downloadedInfo = new HashSet<>();
+    /** The quadkeys of the {@link MapWithAITiles} that have been downloaded into this layer */
+    private final Set<String> downloadedTiles = ConcurrentHashMap.newKeySet();
+    private final MapWithAIPrefetcher prefetcher = new MapWithAIPrefetcher(this);
 
     /**
      * Create a new MapWithAI layer
@@ -89,6 +95,7 @@ public class MapWithAILayer extends OsmDataLayer implements ActiveLayerChangeLis
         lock = new MapLock();
         MainApplication.getLayerManager().addActiveLayerChangeListener(this);
         new ContinuousDownloadAction(this); // Initialize data source listeners
+        NavigatableComponent.addZoomChangeListener(prefetcher);
     }
 
     @Override
@@ -221,6 +228,10 @@ public class MapWithAILayer extends OsmDataLayer implements ActiveLayerChangeLis
     public synchronized void destroy() {
         super.destroy();
         MainApplication.getLayerManager().removeActiveLayerChangeListener(this);
+        NavigatableComponent.removeZoomChangeListener(prefetcher);
+        prefetcher.destroy();
+        // Nothing needs the conflated data anymore
+        PendingConflation.cancel(this);
     }
 
     @Override
@@ -413,6 +424,36 @@ public class MapWithAILayer extends OsmDataLayer implements ActiveLayerChangeLis
         return Collections.unmodifiableCollection(downloadedInfo);
     }
 
+    /**
+     * Indicate a tile has been (or is being) downloaded in this layer
+     *
+     * @param quadkey The quadkey of the tile
+     * @return {@code true} if the tile had not already been downloaded
+     */
+    public boolean addDownloadedTile(String quadkey) {
+        return downloadedTiles.add(quadkey);
+    }
+
+    /**
+     * Indicate a tile has not been downloaded (e.g., the download failed), so
+     * that it is downloaded again the next time it is needed
+     *
+     * @param quadkey The quadkey of the tile
+     */
+    public void removeDownloadedTile(String quadkey) {
+        downloadedTiles.remove(quadkey);
+    }
+
+    /**
+     * Check if the layer has downloaded a specific tile
+     *
+     * @param quadkey The quadkey of the tile
+     * @return {@code true} if the tile has been added to the layer
+     */
+    public boolean hasDownloadedTile(String quadkey) {
+        return downloadedTiles.contains(quadkey);
+    }
+
     @Override
     public boolean autosave(File file) throws IOException {
         // Consider a deletion a "successful" save.
@@ -0,0 +1,360 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import javax.management.InstanceAlreadyExistsException;
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanRegistrationException;
+import javax.management.MBeanServer;
+import javax.management.MalformedObjectNameException;
+import javax.management.NotCompliantMBeanException;
+import javax.management.ObjectName;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Metrics for MapWithAI downloads and cleanups, by source. The time spent in
+ * each {@link Stage}, the bytes and features received, and the data cache hits
+ * are recorded. The metrics are available through JMX (see
+ * {@link MapWithAIMetricsMXBean}) and {@link MapWithAIMetricsAction}.
+ * <p>
+ * Recording only updates a few counters, so it is cheap enough to leave on.
+ */
+public final class MapWithAIMetrics implements MapWithAIMetricsMXBean {
+    /** Whether or not metrics should be recorded */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.metrics", true);
+    /** The JMX name for the metrics */
+    public static final String OBJECT_NAME = "org.openstreetmap.josm.plugins.mapwithai:type=Metrics";
+    /** The source for metrics that are not for a single source (e.g., merging into the layer) */
+    static final String ALL_SOURCES = "*";
+
+    private static final MapWithAIMetrics INSTANCE = new MapWithAIMetrics();
+    private static final Map<String, SourceMetrics> SOURCES = new ConcurrentHashMap<>();
+
+    /**
+     * The stages of a download that are timed
+     */
+    public enum Stage {
+        /** Sending the request and waiting for the response */
+        HTTP,
+        /** Parsing the response (JSON or XML) */
+        PARSE,
+        /** All cleanups ({@link GetDataRunnable#cleanup}) */
+        CLEANUP,
+        /** Replacing tags, and removing tags that are not needed or empty */
+        REWRITE_TAGS,
+        /** Merging duplicate nodes */
+        MERGE_NODES,
+        /** Removing data that is not wanted */
+        CLEANUP_DATASET,
+        /** Merging ways that share nodes */
+        MERGE_WAYS,
+        /** Removing data that was conflated by the server */
+        REMOVE_CONFLATED,
+        /** Removing data that is already in the OSM data */
+        REMOVE_ALREADY_ADDED,
+        /** {@link org.openstreetmap.josm.plugins.mapwithai.commands.MergeDuplicateWays} */
+        MERGE_DUPLICATE_WAYS,
+        /** Removing artifacts from ways */
+        CLEANUP_ARTIFACTS,
+        /** Merging downloaded data into the MapWithAI layer (and cleaning it up) */
+        LAYER_MERGE
+    }
+
+    /**
+     * The metrics for a single source
+     */
+    private static final class SourceMetrics {
+        final LongAdder requests = new LongAdder();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder features = new LongAdder();
+        final LongAdder cacheHits = new LongAdder();
+        final LongAdder cacheMisses = new LongAdder();
+        final Map<Stage, LongAdder> stageCounts = new EnumMap<>(Stage.class);
+        final Map<Stage, LongAdder> stageNanos = new EnumMap<>(Stage.class);
+        final Map<Stage, LongAccumulator> stageMaxNanos = new EnumMap<>(Stage.class);
+
+        SourceMetrics() {
+            // The maps are not modified after this, so they can be read without locks
+            for (Stage stage : Stage.values()) {
+                this.stageCounts.put(stage, new LongAdder());
+                this.stageNanos.put(stage, new LongAdder());
+                this.stageMaxNanos.put(stage, new LongAccumulator(Math::max, 0));
+            }
+        }
+    }
+
+    /**
+     * Count the bytes read from a stream
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+        private final SourceMetrics metrics;
+
+        CountingInputStream(InputStream in, SourceMetrics metrics) {
+            super(in);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read >= 0) {
+                this.metrics.bytes.increment();
+            }
+            return read;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                this.metrics.bytes.add(read);
+            }
+            return read;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            final long skipped = super.skip(n);
+            this.metrics.bytes.add(skipped);
+            return skipped;
+        }
+    }
+
+    private MapWithAIMetrics() {
+        // Use getInstance
+    }
+
+    /**
+     * Get the metrics
+     *
+     * @return The metrics (for JMX)
+     */
+    public static MapWithAIMetrics getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * Get the time to pass to {@link #record} when a stage finishes
+     *
+     * @return The current time (nanoseconds), or 0 if metrics are disabled
+     */
+    public static long start() {
+        return Boolean.TRUE.equals(ENABLED.get()) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record the time spent in a stage
+     *
+     * @param info  The source of the data (may be {@code null})
+     * @param stage The stage that finished
+     * @param start The time from {@link #start} (or the previous call)
+     * @return The current time, so that the next stage can be timed from it
+     */
+    public static long record(MapWithAIInfo info, Stage stage, long start) {
+        if (start == 0) {
+            return 0;
+        }
+        final long now = System.nanoTime();
+        final long elapsed = now - start;
+        final SourceMetrics metrics = getMetrics(info);
+        metrics.stageCounts.get(stage).increment();
+        metrics.stageNanos.get(stage).add(elapsed);
+        metrics.stageMaxNanos.get(stage).accumulate(elapsed);
+        return now;
+    }
+
+    /**
+     * Record a request to a source
+     *
+     * @param info     The source of the data
+     * @param features The number of features that were received
+     */
+    public static void recordRequest(MapWithAIInfo info, int features) {
+        if (Boolean.TRUE.equals(ENABLED.get())) {
+            final SourceMetrics metrics = getMetrics(info);
+            metrics.requests.increment();
+            metrics.features.add(features);
+        }
+    }
+
+    /**
+     * Record a lookup in the data cache
+     *
+     * @param info The source of the data
+     * @param hit  {@code true} if the data did not have to be downloaded
+     */
+    public static void recordCache(MapWithAIInfo info, boolean hit) {
+        if (Boolean.TRUE.equals(ENABLED.get())) {
+            final SourceMetrics metrics = getMetrics(info);
+            (hit ? metrics.cacheHits : metrics.cacheMisses).increment();
+        }
+    }
+
+    /**
+     * Count the bytes read from a response
+     *
+     * @param info        The source of the data
+     * @param inputStream The response
+     * @return A stream that counts the bytes read from {@code inputStream}
+     */
+    public static InputStream count(MapWithAIInfo info, InputStream inputStream) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return inputStream;
+        }
+        return new CountingInputStream(inputStream, getMetrics(info));
+    }
+
+    /**
+     * Register the metrics with the platform MBean server
+     */
+    public static void register() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(INSTANCE, name);
+            }
+        } catch (MalformedObjectNameException | InstanceAlreadyExistsException | MBeanRegistrationException
+                | NotCompliantMBeanException | SecurityException e) {
+            Logging.debug(e);
+        }
+    }
+
+    /**
+     * Remove the metrics from the platform MBean server
+     */
+    public static void unregister() {
+        try {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = new ObjectName(OBJECT_NAME);
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (MalformedObjectNameException | InstanceNotFoundException | MBeanRegistrationException
+                | SecurityException e) {
+            Logging.debug(e);
+        }
+    }
+
+    private static SourceMetrics getMetrics(MapWithAIInfo info) {
+        return SOURCES.computeIfAbsent(getSource(info), source -> new SourceMetrics());
+    }
+
+    private static String getSource(MapWithAIInfo info) {
+        if (info == null) {
+            return ALL_SOURCES;
+        }
+        if (info.getName() != null) {
+            return info.getName();
+        }
+        return info.getId() != null ? info.getId() : info.getUrlExpanded();
+    }
+
+    @Override
+    public String getReport() {
+        final StringBuilder report = new StringBuilder();
+        for (Map.Entry<String, SourceMetrics> entry : new TreeMap<>(SOURCES).entrySet()) {
+            final SourceMetrics metrics = entry.getValue();
+            report.append(entry.getKey()).append('\n');
+            final long hits = metrics.cacheHits.sum();
+            final long lookups = hits + metrics.cacheMisses.sum();
+            if (metrics.requests.sum() > 0 || lookups > 0) {
+                report.append(String.format(Locale.ROOT,
+                        "  requests: %d, bytes: %d, features: %d, cache hits: %d/%d%n", metrics.requests.sum(),
+                        metrics.bytes.sum(), metrics.features.sum(), hits, lookups));
+            }
+            for (Stage stage : Stage.values()) {
+                final long count = metrics.stageCounts.get(stage).sum();
+                if (count > 0) {
+                    final double total = toMillis(metrics.stageNanos.get(stage).sum());
+                    report.append(String.format(Locale.ROOT,
+                            "  %-20s count: %6d, total: %10.1f ms, mean: %8.1f ms, max: %8.1f ms%n",
+                            stage.name().toLowerCase(Locale.ROOT), count, total, total / count,
+                            toMillis(metrics.stageMaxNanos.get(stage).get())));
+                }
+            }
+        }
+        return report.toString();
+    }
+
+    @Override
+    public Map<String, Long> getRequests() {
+        return collect(metrics -> metrics.requests.sum());
+    }
+
+    @Override
+    public Map<String, Long> getBytesTransferred() {
+        return collect(metrics -> metrics.bytes.sum());
+    }
+
+    @Override
+    public Map<String, Long> getFeatures() {
+        return collect(metrics -> metrics.features.sum());
+    }
+
+    @Override
+    public Map<String, Double> getCacheHitRates() {
+        final Map<String, Double> rates = new TreeMap<>();
+        SOURCES.forEach((source, metrics) -> {
+            final long hits = metrics.cacheHits.sum();
+            final long lookups = hits + metrics.cacheMisses.sum();
+            if (lookups > 0) {
+                rates.put(source, hits / (double) lookups);
+            }
+        });
+        return rates;
+    }
+
+    @Override
+    public Map<String, Double> getStageMillis() {
+        final Map<String, Double> millis = new TreeMap<>();
+        SOURCES.forEach((source, metrics) -> metrics.stageNanos.forEach((stage, nanos) -> {
+            if (metrics.stageCounts.get(stage).sum() > 0) {
+                millis.put(source + '/' + stage.name(), toMillis(nanos.sum()));
+            }
+        }));
+        return millis;
+    }
+
+    @Override
+    public Map<String, Long> getStageCounts() {
+        final Map<String, Long> counts = new TreeMap<>();
+        SOURCES.forEach((source, metrics) -> metrics.stageCounts.forEach((stage, count) -> {
+            if (count.sum() > 0) {
+                counts.put(source + '/' + stage.name(), count.sum());
+            }
+        }));
+        return counts;
+    }
+
+    @Override
+    public void reset() {
+        SOURCES.clear();
+    }
+
+    private static Map<String, Long> collect(Function<SourceMetrics, Long> value) {
+        final Map<String, Long> values = new TreeMap<>();
+        SOURCES.forEach((source, metrics) -> values.put(source, value.apply(metrics)));
+        return values;
+    }
+
+    private static double toMillis(long nanos) {
+        return nanos / (double) TimeUnit.MILLISECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,53 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.openstreetmap.josm.gui.help.HelpUtil.ht;
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import javax.swing.JScrollPane;
+
+import java.awt.Dimension;
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+
+import org.openstreetmap.josm.actions.JosmAction;
+import org.openstreetmap.josm.gui.ExtendedDialog;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.widgets.JosmTextArea;
+import org.openstreetmap.josm.plugins.mapwithai.MapWithAIPlugin;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Show (and log) the {@link MapWithAIMetrics}
+ */
+public class MapWithAIMetricsAction extends JosmAction {
+    private static final long serialVersionUID = -2283962380617465370L;
+    private static final String DESCRIPTION = "Show download and cleanup metrics";
+
+    /**
+     * Create a new action
+     */
+    public MapWithAIMetricsAction() {
+        super(tr("{0}: Metrics", MapWithAIPlugin.NAME), "mapwithai", tr(DESCRIPTION), null, false,
+                "mapwithai:metrics", false);
+        setHelpId(ht("Plugin/MapWithAI"));
+    }
+
+    @Override
+    public void actionPerformed(ActionEvent e) {
+        final String report = MapWithAIMetrics.getInstance().getReport();
+        Logging.info("MapWithAI metrics:\n" + report);
+        final JosmTextArea textArea = new JosmTextArea(report.isEmpty() ? tr("Nothing has been recorded") : report);
+        textArea.setEditable(false);
+        textArea.setFont(new Font(Font.MONOSPACED, Font.PLAIN, textArea.getFont().getSize()));
+        final JScrollPane scrollPane = new JScrollPane(textArea);
+        scrollPane.setPreferredSize(new Dimension(800, 500));
+        final ExtendedDialog dialog = new ExtendedDialog(MainApplication.getMainFrame(),
+                tr("{0} Metrics", MapWithAIPlugin.NAME), tr("Reset"), tr("Close"));
+        dialog.setButtonIcons("undo", "cancel");
+        dialog.setContent(scrollPane, false);
+        if (dialog.showDialog().getValue() == 1) {
+            MapWithAIMetrics.getInstance().reset();
+        }
+    }
+}
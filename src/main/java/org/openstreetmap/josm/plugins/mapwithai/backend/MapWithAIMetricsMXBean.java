@@ -0,0 +1,65 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.Map;
+
+/**
+ * The JMX interface for {@link MapWithAIMetrics}. Maps are keyed by source
+ * (and stage, as {@code source/stage}).
+ */
+public interface MapWithAIMetricsMXBean {
+    /**
+     * Get a human readable report of all metrics
+     *
+     * @return The report
+     */
+    String getReport();
+
+    /**
+     * Get the number of downloads that succeeded for each source
+     *
+     * @return The downloads, by source
+     */
+    Map<String, Long> getRequests();
+
+    /**
+     * Get the number of (compressed) bytes received from each source
+     *
+     * @return The bytes, by source
+     */
+    Map<String, Long> getBytesTransferred();
+
+    /**
+     * Get the number of features received from each source
+     *
+     * @return The features, by source
+     */
+    Map<String, Long> getFeatures();
+
+    /**
+     * Get the fraction of downloads that were served from the data cache (or
+     * revalidated with the server)
+     *
+     * @return The hit rates (0 to 1), by source
+     */
+    Map<String, Double> getCacheHitRates();
+
+    /**
+     * Get the total time spent in each stage
+     *
+     * @return The time (milliseconds), by {@code source/stage}
+     */
+    Map<String, Double> getStageMillis();
+
+    /**
+     * Get the number of times each stage was run
+     *
+     * @return The counts, by {@code source/stage}
+     */
+    Map<String, Long> getStageCounts();
+
+    /**
+     * Forget all metrics
+     */
+    void reset();
+}
@@ -0,0 +1,284 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import javax.swing.Timer;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.NavigatableComponent;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Prefetch the MapWithAI tiles that the mapper is likely to need next into the
+ * {@link MapWithAIDataCache}, so that the layer can be filled from the cache
+ * when the mapper gets there. The predicted tiles are the tiles in (and ahead
+ * of) the view when the map is panned, the tiles in the tasking manager area,
+ * and the tiles around the downloaded OSM data. Sources that are sent to a
+ * conflation server are not prefetched.
+ * <p>
+ * Prefetches are scheduled after all other downloads, and only a few are
+ * scheduled at a time, so they only use idle download slots.
+ */
+public final class MapWithAIPrefetcher implements NavigatableComponent.ZoomChangeListener {
+    /** Whether or not tiles should be prefetched */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.download.prefetch", true);
+    /** The maximum number of downloads (including prefetches) that may be waiting when prefetching */
+    public static final IntegerProperty MAX_TILES = new IntegerProperty("mapwithai.download.prefetch.tiles", 8);
+
+    /**
+     * Added to the priority of prefetches, so that they are started after all
+     * other downloads (priorities are distances in meters)
+     */
+    static final double PRIORITY_OFFSET = 1e8;
+    /** Areas with more tiles than this are not prefetched (the map is zoomed out too far) */
+    private static final int MAX_AREA_TILES = 64;
+    /** The time to wait for the map view to stop moving (milliseconds) */
+    private static final int DELAY = 500;
+    /** The smallest movement (as a fraction of the view size) that is a pan */
+    private static final double MIN_PAN = 0.1;
+    /** The maximum number of prefetches to remember */
+    private static final int MAX_REMEMBERED = 4096;
+
+    private final MapWithAILayer layer;
+    private final Timer timer;
+    /** The cache keys of the prefetched tiles */
+    private final Set<String> prefetched = ConcurrentHashMap.newKeySet();
+    private LatLon lastCenter;
+
+    /**
+     * Create a new prefetcher
+     *
+     * @param layer The layer to prefetch data for
+     */
+    MapWithAIPrefetcher(MapWithAILayer layer) {
+        this.layer = layer;
+        this.timer = new Timer(DELAY, event -> this.viewChanged());
+        this.timer.setRepeats(false);
+    }
+
+    /**
+     * Check if tiles should be prefetched
+     *
+     * @return {@code true} if prefetching is enabled, and the prefetched tiles
+     *         would be used
+     */
+    public static boolean isEnabled() {
+        return Boolean.TRUE.equals(ENABLED.get()) && MapWithAITiles.isEnabled()
+                && Boolean.TRUE.equals(MapWithAIDataCache.ENABLED.get());
+    }
+
+    @Override
+    public void zoomChanged() {
+        // Wait for the view to stop moving
+        this.timer.restart();
+    }
+
+    /**
+     * Stop prefetching
+     */
+    void destroy() {
+        this.timer.stop();
+    }
+
+    /**
+     * Cancel the conflation of data the mapper has moved away from, and
+     * prefetch the tiles around the current view
+     */
+    void viewChanged() {
+        if (MainApplication.isDisplayingMapView()) {
+            PendingConflation.cancelOutside(this.layer, MainApplication.getMap().mapView.getRealBounds());
+        }
+        prefetch();
+    }
+
+    /**
+     * Prefetch the tiles around the current view
+     */
+    void prefetch() {
+        if (!isEnabled() || !this.layer.downloadContinuous() || !MainApplication.isDisplayingMapView()) {
+            return;
+        }
+        final Bounds view = MainApplication.getMap().mapView.getRealBounds();
+        final LatLon previous = this.lastCenter;
+        this.lastCenter = view.getCenter();
+        final boolean crop = DetectTaskingManagerUtils.hasTaskingManagerLayer();
+        final Bounds taskingManager = crop ? DetectTaskingManagerUtils.getTaskingManagerBounds() : null;
+        final List<Bounds> dataSources = MainApplication.getLayerManager().getLayersOfType(OsmDataLayer.class)
+                .stream().filter(osmLayer -> !(osmLayer instanceof MapWithAILayer))
+                .flatMap(osmLayer -> osmLayer.getDataSet().getDataSourceBounds().stream())
+                .collect(Collectors.toList());
+        final List<MapWithAITiles.Tile> tiles = getTiles(
+                getPredictedAreas(view, previous, taskingManager, dataSources), view.getCenter()).stream()
+                .filter(tile -> !this.layer.hasDownloadedTile(tile.getQuadkey())).collect(Collectors.toList());
+        if (!tiles.isEmpty()) {
+            final List<MapWithAIInfo> infos = new ArrayList<>(MapWithAIPreferenceHelper.getMapWithAIUrl());
+            MapWithAIDataUtils.getForkJoinPool().execute(() -> schedule(tiles, infos, crop));
+        }
+    }
+
+    /**
+     * Schedule prefetches for tiles
+     *
+     * @param tiles The tiles to prefetch, in order
+     * @param infos The sources to prefetch
+     * @param crop  {@code true} if the data will be cropped to the tasking
+     *              manager area
+     */
+    private void schedule(List<MapWithAITiles.Tile> tiles, List<MapWithAIInfo> infos, boolean crop) {
+        int available = Math.max(0, MAX_TILES.get() - MapWithAIDownloadScheduler.getInstance().getPending());
+        if (this.prefetched.size() > MAX_REMEMBERED) {
+            this.prefetched.clear();
+        }
+        for (MapWithAITiles.Tile tile : tiles) {
+            final Bounds bounds = tile.getBounds();
+            for (MapWithAIInfo info : infos) {
+                if (available <= 0) {
+                    return;
+                }
+                // Conflation needs the OSM data for the area, which usually has not been downloaded yet
+                if (Utils.isBlank(info.getUrl()) || BoundingBoxMapWithAIDownloader.isSentToConflation(info)
+                        || (info.getBounds() != null && !info.getBounds().intersects(bounds))) {
+                    continue;
+                }
+                final String key = MapWithAIDataCache.getKey(info, bounds, crop);
+                if (MapWithAIDataCache.contains(info, bounds, crop) || !this.prefetched.add(key)) {
+                    continue;
+                }
+                available--;
+                // Downloads of the same tile use the prefetch instead of downloading it again
+                MapWithAIDataUtils
+                        .download(NullProgressMonitor.INSTANCE, bounds, info,
+                                MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS,
+                                PRIORITY_OFFSET + MapWithAIDownloadScheduler.getPriority(bounds))
+                        .whenComplete((dataSet, throwable) -> {
+                            if (throwable != null) {
+                                // Try again later
+                                this.prefetched.remove(key);
+                                Logging.trace(throwable);
+                            } else if (MapWithAIDataUtils.hasFailed(dataSet)
+                                    && !DownloadRetry.schedule(info, bounds, crop, null, Collections.emptyList())) {
+                                // The retry only refills the cache, since the layer did not ask for the data
+                                this.prefetched.remove(key);
+                            }
+                        });
+            }
+        }
+    }
+
+    /**
+     * Get the areas that the mapper is likely to need data for next
+     *
+     * @param view           The current view
+     * @param previousCenter The center of the view the last time the view
+     *                       stopped moving (may be {@code null})
+     * @param taskingManager The tasking manager area (may be {@code null})
+     * @param dataSources    The areas with OSM data
+     * @return The areas, with the most likely areas first
+     */
+    static List<Bounds> getPredictedAreas(Bounds view, LatLon previousCenter, Bounds taskingManager,
+            Collection<Bounds> dataSources) {
+        final List<Bounds> areas = new ArrayList<>();
+        areas.add(view);
+        final Bounds ahead = getAhead(view, previousCenter);
+        if (ahead != null) {
+            areas.add(ahead);
+        }
+        if (taskingManager != null && !taskingManager.isCollapsed()) {
+            areas.add(taskingManager);
+        }
+        // The mapper will probably download the area next to the current data
+        final double tileSize = getTileSize();
+        for (Bounds dataSource : dataSources) {
+            areas.add(new Bounds(clampLat(dataSource.getMinLat() - tileSize),
+                    clampLon(dataSource.getMinLon() - tileSize), clampLat(dataSource.getMaxLat() + tileSize),
+                    clampLon(dataSource.getMaxLon() + tileSize)));
+        }
+        return areas;
+    }
+
+    /**
+     * Get the area that the view is moving towards
+     *
+     * @param view           The current view
+     * @param previousCenter The previous center of the view (may be {@code null})
+     * @return The view, moved one view in the direction it has been panned, or
+     *         {@code null} if it has not been panned
+     */
+    static Bounds getAhead(Bounds view, LatLon previousCenter) {
+        if (previousCenter == null) {
+            return null;
+        }
+        final LatLon center = view.getCenter();
+        final double height = view.getHeight();
+        final double width = view.getWidth();
+        final double dLat = center.lat() - previousCenter.lat();
+        final double dLon = center.lon() - previousCenter.lon();
+        final double moved = Math.max(height > 0 ? Math.abs(dLat) / height : 0,
+                width > 0 ? Math.abs(dLon) / width : 0);
+        if (moved < MIN_PAN) {
+            return null;
+        }
+        // Keep going in the same direction for one view
+        final double shiftLat = dLat / moved;
+        final double shiftLon = dLon / moved;
+        return new Bounds(clampLat(view.getMinLat() + shiftLat), clampLon(view.getMinLon() + shiftLon),
+                clampLat(view.getMaxLat() + shiftLat), clampLon(view.getMaxLon() + shiftLon));
+    }
+
+    /**
+     * Get the download tiles for some areas
+     *
+     * @param areas  The areas, with the most likely areas first
+     * @param center The center of the view (the tiles in an area that are closer
+     *               to the center are returned first)
+     * @return The tiles, in the order of the areas, without duplicates
+     */
+    static List<MapWithAITiles.Tile> getTiles(List<Bounds> areas, LatLon center) {
+        final int zoom = MapWithAITiles.getDownloadZoom(MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
+        final double tileSize = getTileSize();
+        final Set<MapWithAITiles.Tile> tiles = new LinkedHashSet<>();
+        for (Bounds area : areas) {
+            // Don't prefetch when zoomed out
+            if ((area.getWidth() / tileSize + 1) * (area.getHeight() / tileSize + 1) <= MAX_AREA_TILES) {
+                MapWithAITiles.getTiles(area, zoom).stream().sorted(
+                        Comparator.comparingDouble(tile -> tile.getBounds().getCenter().greatCircleDistance(center)))
+                        .forEachOrdered(tiles::add);
+            }
+        }
+        return new ArrayList<>(tiles);
+    }
+
+    /**
+     * Get the width of a download tile
+     *
+     * @return The width in degrees
+     */
+    private static double getTileSize() {
+        return 360 / Math.pow(2, MapWithAITiles.getDownloadZoom(MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS));
+    }
+
+    private static double clampLat(double lat) {
+        return Math.max(-90, Math.min(90, lat));
+    }
+
+    private static double clampLon(double lon) {
+        return Math.max(-180, Math.min(180, lon));
+    }
+}
@@ -0,0 +1,353 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.spi.preferences.Config;
+import org.openstreetmap.josm.spi.preferences.IPreferences;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Pick download sizes that keep MapWithAI responses near a target response
+ * time. For each source, the response time is modeled as a fixed overhead plus
+ * a cost per feature, and the feature density (features per square km) is recorded
+ * for the area around each download. Sparse (rural) areas are downloaded in
+ * large pieces, and dense (urban) areas in small pieces.
+ * <p>
+ * Sizes are powers of two fractions of the maximum size, so that the download
+ * bounds (and the {@link MapWithAIDataCache} keys) do not change every time a
+ * download is recorded. The learned parameters are stored in the preferences.
+ */
+public final class MapWithAITileSizer {
+    /** Whether or not download sizes should be adapted to the data */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.download.adaptive", true);
+    /** The target response time, in milliseconds */
+    public static final IntegerProperty TARGET_TIME = new IntegerProperty("mapwithai.download.adaptive.target",
+            5_000);
+
+    private static final String PREFERENCE = "mapwithai.download.adaptive.model";
+    /** The zoom level of the areas that densities are recorded for (about 40 km at the equator) */
+    private static final int CELL_ZOOM = 10;
+    /** The maximum number of areas to remember for each source */
+    private static final int MAX_CELLS = 1024;
+    /** The weight of older observations, relative to the next observation */
+    private static final double DECAY = 0.9;
+    /** The (decayed) number of observations needed before the model is used */
+    private static final double MIN_WEIGHT = 2.5;
+    /** The number of times the maximum dimensions may be halved (1 km for 10 km downloads) */
+    private static final int MAX_HALVINGS = 4;
+    /** The minimum time between saves to the preferences */
+    private static final long SAVE_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+    private static final double SQUARE_METERS_PER_SQUARE_KM = 1_000_000;
+
+    private static Map<String, Model> models;
+    /** The preferences the models were loaded from */
+    private static IPreferences modelPreferences;
+    private static long lastSave;
+
+    /**
+     * The learned parameters for a single source
+     */
+    static final class Model {
+        /*
+         * Exponentially weighted sums for the least squares fit of time = overhead +
+         * cost * features
+         */
+        private double weight;
+        private double sumFeatures;
+        private double sumTime;
+        private double sumFeaturesSquared;
+        private double sumFeaturesTime;
+        /** The average density for the source (features per square km), or -1 if unknown */
+        private double density = -1;
+        /** The densities for areas, in least recently used order */
+        private final Map<String, Double> cells = new LinkedHashMap<String, Double>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Double> eldest) {
+                return size() > MAX_CELLS;
+            }
+        };
+
+        /**
+         * Record a download
+         *
+         * @param cell     The area of the download
+         * @param area     The size of the download (square km)
+         * @param features The number of features downloaded
+         * @param time     The time the download took (milliseconds)
+         */
+        void record(String cell, double area, int features, long time) {
+            this.weight = this.weight * DECAY + 1;
+            this.sumFeatures = this.sumFeatures * DECAY + features;
+            this.sumTime = this.sumTime * DECAY + time;
+            this.sumFeaturesSquared = this.sumFeaturesSquared * DECAY + (double) features * features;
+            this.sumFeaturesTime = this.sumFeaturesTime * DECAY + (double) features * time;
+            if (area > 0) {
+                recordDensity(cell, features / area);
+            }
+        }
+
+        /**
+         * Record a download that took too long
+         *
+         * @param cell The area of the download
+         * @param area The size of the download (square km)
+         * @param time The time before the download was abandoned (milliseconds)
+         */
+        void recordTimeout(String cell, double area, long time) {
+            final double cost = getCost();
+            if (area > 0 && cost > 0) {
+                // There were at least this many features
+                final double features = Math.max(0, time - getOverhead()) / cost;
+                recordDensity(cell, Math.max(features / area, 2 * getDensity(cell)));
+            }
+        }
+
+        private void recordDensity(String cell, double cellDensity) {
+            // Downloads only cover part of an area, so average them
+            final Double old = this.cells.get(cell);
+            this.cells.put(cell, old == null ? cellDensity : (old + cellDensity) / 2);
+            this.density = this.density < 0 ? cellDensity : this.density * DECAY + cellDensity * (1 - DECAY);
+        }
+
+        /**
+         * Get the time per feature
+         *
+         * @return The time per feature (milliseconds), or 0 if unknown
+         */
+        double getCost() {
+            if (this.weight < MIN_WEIGHT || this.sumFeatures <= 0) {
+                return 0;
+            }
+            final double denominator = this.weight * this.sumFeaturesSquared - this.sumFeatures * this.sumFeatures;
+            if (denominator > 0) {
+                final double slope = (this.weight * this.sumFeaturesTime - this.sumFeatures * this.sumTime)
+                        / denominator;
+                if (slope > 0) {
+                    return slope;
+                }
+            }
+            // All downloads had (about) the same number of features, so assume there is no overhead
+            return this.sumTime / this.sumFeatures;
+        }
+
+        /**
+         * Get the time for an empty download
+         *
+         * @return The overhead (milliseconds)
+         */
+        double getOverhead() {
+            if (this.weight < MIN_WEIGHT) {
+                return 0;
+            }
+            return Math.max(0, (this.sumTime - getCost() * this.sumFeatures) / this.weight);
+        }
+
+        /**
+         * Get the density for an area
+         *
+         * @param cell The area
+         * @return The density (features per square km), or -1 if unknown
+         */
+        double getDensity(String cell) {
+            final Double cellDensity = this.cells.get(cell);
+            return cellDensity != null ? cellDensity : this.density;
+        }
+
+        Map<String, String> toMap(String source) {
+            final Map<String, String> map = new HashMap<>();
+            map.put("source", source);
+            map.put("weight", Double.toString(this.weight));
+            map.put("features", Double.toString(this.sumFeatures));
+            map.put("time", Double.toString(this.sumTime));
+            map.put("features2", Double.toString(this.sumFeaturesSquared));
+            map.put("featurestime", Double.toString(this.sumFeaturesTime));
+            map.put("density", Double.toString(this.density));
+            final StringBuilder cellString = new StringBuilder();
+            for (Map.Entry<String, Double> cell : this.cells.entrySet()) {
+                if (cellString.length() > 0) {
+                    cellString.append(';');
+                }
+                cellString.append(cell.getKey()).append(':').append(cell.getValue());
+            }
+            map.put("cells", cellString.toString());
+            return map;
+        }
+
+        static Model fromMap(Map<String, String> map) {
+            final Model model = new Model();
+            model.weight = Double.parseDouble(map.getOrDefault("weight", "0"));
+            model.sumFeatures = Double.parseDouble(map.getOrDefault("features", "0"));
+            model.sumTime = Double.parseDouble(map.getOrDefault("time", "0"));
+            model.sumFeaturesSquared = Double.parseDouble(map.getOrDefault("features2", "0"));
+            model.sumFeaturesTime = Double.parseDouble(map.getOrDefault("featurestime", "0"));
+            model.density = Double.parseDouble(map.getOrDefault("density", "-1"));
+            final String cellString = map.getOrDefault("cells", "");
+            if (!cellString.isEmpty()) {
+                for (String cell : cellString.split(";", -1)) {
+                    final int index = cell.indexOf(':');
+                    if (index > 0) {
+                        model.cells.put(cell.substring(0, index), Double.parseDouble(cell.substring(index + 1)));
+                    }
+                }
+            }
+            return model;
+        }
+    }
+
+    private MapWithAITileSizer() {
+        // Hide the constructor
+    }
+
+    /**
+     * Get the side dimensions to download an area with
+     *
+     * @param info              The source of the data
+     * @param bounds            The area that will be downloaded
+     * @param maximumDimensions The largest allowed dimensions (meters)
+     * @return The side dimensions that should keep the response time near
+     *         {@link #TARGET_TIME} (meters)
+     */
+    public static int getSideDimensions(MapWithAIInfo info, Bounds bounds, int maximumDimensions) {
+        if (!Boolean.TRUE.equals(ENABLED.get())) {
+            return maximumDimensions;
+        }
+        final double cost;
+        final double overhead;
+        final double density;
+        synchronized (MapWithAITileSizer.class) {
+            final Model model = getModels().get(getSource(info));
+            if (model == null) {
+                return maximumDimensions;
+            }
+            cost = model.getCost();
+            overhead = model.getOverhead();
+            density = model.getDensity(getCell(bounds));
+        }
+        if (cost <= 0 || density <= 0) {
+            return maximumDimensions;
+        }
+        final double features = Math.max(0, TARGET_TIME.get() - overhead) / cost;
+        final double side = Math.sqrt(features / density * SQUARE_METERS_PER_SQUARE_KM);
+        int dimensions = maximumDimensions;
+        for (int i = 0; i < MAX_HALVINGS && dimensions > side && dimensions > 1; i++) {
+            dimensions /= 2;
+        }
+        return dimensions;
+    }
+
+    /**
+     * Record a download
+     *
+     * @param info     The source of the data
+     * @param bounds   The area that was downloaded
+     * @param features The number of features that were downloaded
+     * @param time     The time the download took (milliseconds)
+     */
+    public static void record(MapWithAIInfo info, Bounds bounds, int features, long time) {
+        synchronized (MapWithAITileSizer.class) {
+            getModels().computeIfAbsent(getSource(info), source -> new Model()).record(getCell(bounds),
+                    getArea(bounds), features, time);
+        }
+        saveLater();
+    }
+
+    /**
+     * Record a download that timed out
+     *
+     * @param info   The source of the data
+     * @param bounds The area that was being downloaded
+     * @param time   The time before the download timed out (milliseconds)
+     */
+    public static void recordTimeout(MapWithAIInfo info, Bounds bounds, long time) {
+        synchronized (MapWithAITileSizer.class) {
+            final Model model = getModels().get(getSource(info));
+            if (model == null) {
+                return;
+            }
+            model.recordTimeout(getCell(bounds), getArea(bounds), time);
+        }
+        saveLater();
+    }
+
+    /**
+     * Save the learned parameters to the preferences. Parameters are saved at
+     * most once a minute while downloading, so this should also be called when
+     * the plugin is stopped.
+     */
+    public static void save() {
+        final List<Map<String, String>> list = new ArrayList<>();
+        synchronized (MapWithAITileSizer.class) {
+            if (models == null) {
+                // Nothing has been learned
+                return;
+            }
+            lastSave = System.currentTimeMillis();
+            getModels().forEach((source, model) -> list.add(model.toMap(source)));
+        }
+        Config.getPref().putListOfMaps(PREFERENCE, list);
+    }
+
+    /**
+     * Forget the learned parameters that have not been saved, and load the saved
+     * parameters the next time they are needed
+     */
+    static synchronized void reset() {
+        models = null;
+        modelPreferences = null;
+        lastSave = 0;
+    }
+
+    private static void saveLater() {
+        final boolean save;
+        synchronized (MapWithAITileSizer.class) {
+            save = System.currentTimeMillis() - lastSave > SAVE_INTERVAL;
+        }
+        if (save) {
+            save();
+        }
+    }
+
+    private static synchronized Map<String, Model> getModels() {
+        if (models == null || modelPreferences != Config.getPref()) {
+            models = new HashMap<>();
+            modelPreferences = Config.getPref();
+            for (Map<String, String> map : Config.getPref().getListOfMaps(PREFERENCE, Collections.emptyList())) {
+                try {
+                    if (map.containsKey("source")) {
+                        models.put(map.get("source"), Model.fromMap(map));
+                    }
+                } catch (NumberFormatException e) {
+                    Logging.debug(e);
+                }
+            }
+            lastSave = System.currentTimeMillis();
+        }
+        return models;
+    }
+
+    private static String getSource(MapWithAIInfo info) {
+        return info.getId() != null ? info.getId() : info.getUrlExpanded();
+    }
+
+    private static String getCell(Bounds bounds) {
+        return MapWithAITiles.getTiles(new Bounds(bounds.getCenter()), CELL_ZOOM).get(0).getQuadkey();
+    }
+
+    private static double getArea(Bounds bounds) {
+        return MapWithAIDataUtils.getWidth(bounds) * MapWithAIDataUtils.getHeight(bounds)
+                / SQUARE_METERS_PER_SQUARE_KM;
+    }
+}
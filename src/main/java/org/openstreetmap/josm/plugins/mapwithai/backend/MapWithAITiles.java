@@ -0,0 +1,235 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+import org.openstreetmap.josm.data.preferences.IntegerProperty;
+
+/**
+ * A fixed tiling scheme (web mercator tiles, identified by quadkeys) for
+ * MapWithAI downloads. Unlike {@link MapWithAIDataUtils#reduceBoundSize}, the
+ * tiles do not depend upon the requested bounds, so overlapping requests will
+ * always produce the same tiles.
+ */
+public final class MapWithAITiles {
+    /** Whether or not downloads should be snapped to tiles */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.download.tiles", false);
+    /** The zoom level of the tiles */
+    public static final IntegerProperty ZOOM = new IntegerProperty("mapwithai.download.tiles.zoom", 13);
+
+    /** The maximum zoom level (quadkeys are limited to 23 levels) */
+    private static final int MAX_ZOOM = 23;
+    /** The maximum latitude for web mercator */
+    private static final double MAX_LATITUDE = 85.05112878;
+    /** The circumference of the earth at the equator, in meters */
+    private static final double EQUATOR_CIRCUMFERENCE = 40_075_016.686;
+    /** Avoid floating point issues on tile edges (in tile units) */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * A single tile
+     */
+    public static final class Tile {
+        private final int x;
+        private final int y;
+        private final int zoom;
+
+        /**
+         * Create a new tile
+         *
+         * @param x    The x coordinate
+         * @param y    The y coordinate
+         * @param zoom The zoom level
+         */
+        public Tile(int x, int y, int zoom) {
+            this.x = x;
+            this.y = y;
+            this.zoom = zoom;
+        }
+
+        /**
+         * Get the x coordinate
+         *
+         * @return The x coordinate
+         */
+        public int getX() {
+            return this.x;
+        }
+
+        /**
+         * Get the y coordinate
+         *
+         * @return The y coordinate
+         */
+        public int getY() {
+            return this.y;
+        }
+
+        /**
+         * Get the zoom level
+         *
+         * @return The zoom level
+         */
+        public int getZoom() {
+            return this.zoom;
+        }
+
+        /**
+         * Get the quadkey for this tile
+         *
+         * @return The quadkey
+         */
+        public String getQuadkey() {
+            final StringBuilder quadkey = new StringBuilder(this.zoom);
+            for (int i = this.zoom; i > 0; i--) {
+                final int mask = 1 << (i - 1);
+                int digit = 0;
+                if ((this.x & mask) != 0) {
+                    digit += 1;
+                }
+                if ((this.y & mask) != 0) {
+                    digit += 2;
+                }
+                quadkey.append(digit);
+            }
+            return quadkey.toString();
+        }
+
+        /**
+         * Get the bounds of this tile
+         *
+         * @return The bounds
+         */
+        public Bounds getBounds() {
+            final double n = Math.pow(2, this.zoom);
+            final double minLon = this.x / n * 360 - 180;
+            final double maxLon = (this.x + 1) / n * 360 - 180;
+            final double maxLat = tileToLatitude(this.y, n);
+            final double minLat = tileToLatitude(this.y + 1d, n);
+            return new Bounds(minLat, minLon, maxLat, maxLon);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj instanceof Tile) {
+                final Tile other = (Tile) obj;
+                return this.x == other.x && this.y == other.y && this.zoom == other.zoom;
+            }
+            return false;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(this.x, this.y, this.zoom);
+        }
+
+        @Override
+        public String toString() {
+            return "Tile[" + this.getQuadkey() + ']';
+        }
+    }
+
+    private MapWithAITiles() {
+        // Hide the constructor
+    }
+
+    /**
+     * Check if downloads should be snapped to tiles
+     *
+     * @return {@code true} if the tiling scheme should be used
+     */
+    public static boolean isEnabled() {
+        return Boolean.TRUE.equals(ENABLED.get());
+    }
+
+    /**
+     * Get the tiles covering a bounds at the configured zoom level
+     *
+     * @param bounds The bounds to cover
+     * @return The tiles that cover the bounds
+     */
+    public static List<Tile> getTiles(Bounds bounds) {
+        return getTiles(bounds, getZoom());
+    }
+
+    /**
+     * Get the tiles covering a bounds
+     *
+     * @param bounds The bounds to cover
+     * @param zoom   The zoom level of the tiles
+     * @return The tiles that cover the bounds
+     */
+    public static List<Tile> getTiles(Bounds bounds, int zoom) {
+        final double n = Math.pow(2, zoom);
+        final int maxTile = (int) n - 1;
+        final int minX = clamp((int) Math.floor(longitudeToTile(bounds.getMinLon(), n) + EPSILON), maxTile);
+        final int maxX = clamp((int) Math.ceil(longitudeToTile(bounds.getMaxLon(), n) - EPSILON) - 1, maxTile);
+        // Tile y coordinates increase to the south
+        final int minY = clamp((int) Math.floor(latitudeToTile(bounds.getMaxLat(), n) + EPSILON), maxTile);
+        final int maxY = clamp((int) Math.ceil(latitudeToTile(bounds.getMinLat(), n) - EPSILON) - 1, maxTile);
+        final List<Tile> tiles = new ArrayList<>();
+        for (int x = minX; x <= Math.max(minX, maxX); x++) {
+            for (int y = minY; y <= Math.max(minY, maxY); y++) {
+                tiles.add(new Tile(x, y, zoom));
+            }
+        }
+        return tiles;
+    }
+
+    /**
+     * Get the tiles covering a bounds, where no tile side is larger than
+     * {@code maximumDimensions}. The configured zoom level is the minimum zoom.
+     * The zoom level does not depend upon the bounds, so the tiles of a tile are
+     * the tile itself.
+     *
+     * @param bounds            The bounds to cover
+     * @param maximumDimensions The maximum side dimensions of the tiles (meters)
+     * @return The tiles that cover the bounds
+     */
+    public static List<Tile> getDownloadTiles(Bounds bounds, int maximumDimensions) {
+        return getTiles(bounds, getDownloadZoom(maximumDimensions));
+    }
+
+    /**
+     * Get the zoom level of the tiles from {@link #getDownloadTiles}
+     *
+     * @param maximumDimensions The maximum side dimensions of the tiles (meters)
+     * @return The zoom level
+     */
+    public static int getDownloadZoom(int maximumDimensions) {
+        int zoom = getZoom();
+        // Tiles are widest at the equator
+        while (zoom < MAX_ZOOM && EQUATOR_CIRCUMFERENCE / Math.pow(2, zoom) > maximumDimensions) {
+            zoom++;
+        }
+        return zoom;
+    }
+
+    private static int getZoom() {
+        return Math.max(0, Math.min(MAX_ZOOM, ZOOM.get()));
+    }
+
+    private static int clamp(int tile, int maxTile) {
+        return Math.max(0, Math.min(maxTile, tile));
+    }
+
+    private static double longitudeToTile(double lon, double n) {
+        return (lon + 180) / 360 * n;
+    }
+
+    private static double latitudeToTile(double lat, double n) {
+        final double latRad = Math.toRadians(Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, lat)));
+        return (1 - Math.log(Math.tan(latRad) + 1 / Math.cos(latRad)) / Math.PI) / 2 * n;
+    }
+
+    private static double tileToLatitude(double y, double n) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1 - 2 * y / n))));
+    }
+}
@@ -0,0 +1,330 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+
+import org.openstreetmap.josm.data.coor.ILatLon;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.event.AbstractDatasetChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataChangedEvent;
+import org.openstreetmap.josm.data.osm.event.DataSetListener;
+import org.openstreetmap.josm.data.osm.event.NodeMovedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesAddedEvent;
+import org.openstreetmap.josm.data.osm.event.PrimitivesRemovedEvent;
+import org.openstreetmap.josm.data.osm.event.RelationMembersChangedEvent;
+import org.openstreetmap.josm.data.osm.event.TagsChangedEvent;
+import org.openstreetmap.josm.data.osm.event.WayNodesChangedEvent;
+import org.openstreetmap.josm.gui.MainApplication;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerAddEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerChangeListener;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerOrderChangeEvent;
+import org.openstreetmap.josm.gui.layer.LayerManager.LayerRemoveEvent;
+import org.openstreetmap.josm.gui.layer.OsmDataLayer;
+import org.openstreetmap.josm.plugins.mapwithai.tools.LongIntHashMap;
+
+/**
+ * An index of the nodes in a dataset by location, with cells the size of
+ * {@link LatLon#MAX_SERVER_PRECISION}. This is used to find MapWithAI data
+ * that is already in the OSM data with hash lookups, instead of comparing the
+ * nodes of every way in the area. The index is kept up to date with a
+ * {@link DataSetListener}, and it is dropped when the layer of the dataset is
+ * removed.
+ * <p>
+ * Like {@link GetDataRunnable} uses for merging nodes, each cell points at the
+ * last node added to it, and each node points at the previous node in the
+ * same cell, so the index does not box keys or keep a list for every cell.
+ */
+public final class NodeLocationIndex implements DataSetListener {
+    /** The indexes, by dataset */
+    private static final Map<DataSet, NodeLocationIndex> INDEXES = new HashMap<>();
+    private static final LayerRemovedListener LAYER_REMOVED_LISTENER = new LayerRemovedListener();
+    private static final AtomicBoolean LISTENING = new AtomicBoolean();
+
+    private final DataSet dataSet;
+    /** The indexed nodes, by slot ({@code null} for free slots) */
+    private Node[] nodes;
+    /** The cell of the node in each slot */
+    private long[] nodeCells;
+    /** The previous node in the same cell, for each slot (or -1); for free slots, the next free slot */
+    private int[] previous;
+    /** The number of slots that have been used */
+    private int used;
+    /** The first free slot (or -1) */
+    private int free;
+    /** The last node added to each cell */
+    private LongIntHashMap cells;
+    /** The slot of each node, by unique id */
+    private LongIntHashMap slots;
+
+    private NodeLocationIndex(DataSet dataSet) {
+        this.dataSet = dataSet;
+        clear(0);
+    }
+
+    /**
+     * Get the index for a dataset, creating it if needed
+     *
+     * @param dataSet The dataset to index
+     * @return The index for the dataset
+     */
+    static NodeLocationIndex get(DataSet dataSet) {
+        if (LISTENING.compareAndSet(false, true)) {
+            // Don't hold the lock for the indexes here, since the layer manager calls us with its lock held
+            MainApplication.getLayerManager().addLayerChangeListener(LAYER_REMOVED_LISTENER);
+        }
+        synchronized (NodeLocationIndex.class) {
+            NodeLocationIndex index = INDEXES.get(dataSet);
+            if (index == null) {
+                index = new NodeLocationIndex(dataSet);
+                dataSet.addDataSetListener(index);
+                index.build();
+                INDEXES.put(dataSet, index);
+            }
+            return index;
+        }
+    }
+
+    /**
+     * Stop indexing datasets that are no longer needed (e.g., their layer was
+     * removed)
+     *
+     * @param dataSets The datasets to keep indexing
+     */
+    static synchronized void retain(Collection<DataSet> dataSets) {
+        for (Iterator<Map.Entry<DataSet, NodeLocationIndex>> iterator = INDEXES.entrySet().iterator(); iterator
+                .hasNext();) {
+            final Map.Entry<DataSet, NodeLocationIndex> entry = iterator.next();
+            if (!dataSets.contains(entry.getKey())) {
+                entry.getKey().removeDataSetListener(entry.getValue());
+                iterator.remove();
+            }
+        }
+    }
+
+    /**
+     * Stop indexing a dataset
+     *
+     * @param dataSet The dataset
+     */
+    static synchronized void remove(DataSet dataSet) {
+        final NodeLocationIndex index = INDEXES.remove(dataSet);
+        if (index != null) {
+            dataSet.removeDataSetListener(index);
+        }
+    }
+
+    /**
+     * Stop indexing all datasets, and stop listening for removed layers
+     */
+    public static void destroy() {
+        if (LISTENING.compareAndSet(true, false)) {
+            // Don't hold the lock for the indexes here, see get
+            MainApplication.getLayerManager().removeLayerChangeListener(LAYER_REMOVED_LISTENER);
+        }
+        retain(Collections.emptyList());
+    }
+
+    /**
+     * Drop the indexes of the datasets of removed layers
+     */
+    private static final class LayerRemovedListener implements LayerChangeListener {
+        @Override
+        public void layerAdded(LayerAddEvent e) {
+            // Datasets are indexed when they are needed
+        }
+
+        @Override
+        public void layerRemoving(LayerRemoveEvent e) {
+            if (e.getRemovedLayer() instanceof OsmDataLayer) {
+                remove(((OsmDataLayer) e.getRemovedLayer()).getDataSet());
+            }
+        }
+
+        @Override
+        public void layerOrderChanged(LayerOrderChangeEvent e) {
+            // The order does not matter
+        }
+    }
+
+    /**
+     * Get the nodes at (almost) the same location, see
+     * {@link ILatLon#equalsEpsilon}
+     *
+     * @param coor The location
+     * @return The nodes in the dataset at the location
+     */
+    synchronized List<Node> getNodes(ILatLon coor) {
+        final long lat = getCell(coor.lat());
+        final long lon = getCell(coor.lon());
+        final List<Node> found = new ArrayList<>(1);
+        for (long dLat = -1; dLat <= 1; dLat++) {
+            for (long dLon = -1; dLon <= 1; dLon++) {
+                for (int i = this.cells.get(getKey(lat + dLat, lon + dLon), -1); i >= 0; i = this.previous[i]) {
+                    final Node node = this.nodes[i];
+                    if (!node.isDeleted() && node.getDataSet() == this.dataSet && node.equalsEpsilon(coor)) {
+                        found.add(node);
+                    }
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Get the number of indexed nodes
+     *
+     * @return The number of nodes
+     */
+    synchronized int size() {
+        return this.slots.size();
+    }
+
+    private void build() {
+        final Lock lock = this.dataSet.getReadLock();
+        lock.lock();
+        try {
+            final Collection<Node> dataSetNodes = this.dataSet.getNodes();
+            synchronized (this) {
+                clear(dataSetNodes.size());
+                dataSetNodes.forEach(this::add);
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private synchronized void clear(int expectedSize) {
+        final int capacity = Math.max(16, expectedSize);
+        this.nodes = new Node[capacity];
+        this.nodeCells = new long[capacity];
+        this.previous = new int[capacity];
+        this.used = 0;
+        this.free = -1;
+        this.cells = new LongIntHashMap(expectedSize);
+        this.slots = new LongIntHashMap(expectedSize);
+    }
+
+    private synchronized void add(Node node) {
+        if (node.isDeleted() || !node.isLatLonKnown() || this.slots.get(node.getUniqueId(), -1) >= 0) {
+            return;
+        }
+        final int slot;
+        if (this.free >= 0) {
+            slot = this.free;
+            this.free = this.previous[slot];
+        } else {
+            if (this.used == this.nodes.length) {
+                final int capacity = this.used * 2;
+                this.nodes = Arrays.copyOf(this.nodes, capacity);
+                this.nodeCells = Arrays.copyOf(this.nodeCells, capacity);
+                this.previous = Arrays.copyOf(this.previous, capacity);
+            }
+            slot = this.used++;
+        }
+        final long key = getKey(node);
+        this.nodes[slot] = node;
+        this.nodeCells[slot] = key;
+        this.previous[slot] = this.cells.get(key, -1);
+        this.cells.put(key, slot);
+        this.slots.put(node.getUniqueId(), slot);
+    }
+
+    private synchronized void remove(Node node) {
+        final int slot = this.slots.get(node.getUniqueId(), -1);
+        if (slot < 0) {
+            return;
+        }
+        // The node may have moved, so use the cell it was added to
+        final long key = this.nodeCells[slot];
+        int next = -1;
+        for (int i = this.cells.get(key, -1); i != slot; i = this.previous[i]) {
+            next = i;
+        }
+        if (next >= 0) {
+            this.previous[next] = this.previous[slot];
+        } else if (this.previous[slot] >= 0) {
+            this.cells.put(key, this.previous[slot]);
+        } else {
+            this.cells.remove(key);
+        }
+        this.slots.remove(node.getUniqueId());
+        this.nodes[slot] = null;
+        this.previous[slot] = this.free;
+        this.free = slot;
+    }
+
+    private static long getKey(ILatLon coor) {
+        return getKey(getCell(coor.lat()), getCell(coor.lon()));
+    }
+
+    private static long getKey(long lat, long lon) {
+        return (lat << 32) | (lon & 0xFFFF_FFFFL);
+    }
+
+    private static long getCell(double degrees) {
+        return Math.round(degrees / LatLon.MAX_SERVER_PRECISION);
+    }
+
+    @Override
+    public void primitivesAdded(PrimitivesAddedEvent event) {
+        for (OsmPrimitive primitive : event.getPrimitives()) {
+            if (primitive instanceof Node) {
+                add((Node) primitive);
+            }
+        }
+    }
+
+    @Override
+    public void primitivesRemoved(PrimitivesRemovedEvent event) {
+        for (OsmPrimitive primitive : event.getPrimitives()) {
+            if (primitive instanceof Node) {
+                remove((Node) primitive);
+            }
+        }
+    }
+
+    @Override
+    public void tagsChanged(TagsChangedEvent event) {
+        // Tags are not indexed
+    }
+
+    @Override
+    public void nodeMoved(NodeMovedEvent event) {
+        synchronized (this) {
+            remove(event.getNode());
+            add(event.getNode());
+        }
+    }
+
+    @Override
+    public void wayNodesChanged(WayNodesChangedEvent event) {
+        // Ways are not indexed
+    }
+
+    @Override
+    public void relationMembersChanged(RelationMembersChangedEvent event) {
+        // Relations are not indexed
+    }
+
+    @Override
+    public void otherDatasetChange(AbstractDatasetChangedEvent event) {
+        // Nothing that is indexed has changed
+    }
+
+    @Override
+    public void dataChanged(DataChangedEvent event) {
+        build();
+    }
+}
@@ -0,0 +1,340 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.Lock;
+
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.OsmPrimitiveType;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.plugins.mapwithai.tools.MapPaintUtils;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Replace unconflated data in the MapWithAI layer with conflated data. The
+ * unconflated data is shown while the conflation server is working, and is
+ * replaced once the conflated data is available.
+ * <p>
+ * Downloaded data that is waiting for conflated data is registered with
+ * {@link #register}. When that data is merged into the layer, the layer calls
+ * {@link #merged} with the primitives that the data was merged into, and
+ * exactly those primitives are replaced once the conflated data is available.
+ * <p>
+ * The conflation requests for data in a layer are cancelled when the layer is
+ * removed, or when the mapper moves away from the data (see
+ * {@link #cancel(MapWithAILayer)} and {@link #cancelOutside}).
+ */
+final class PendingConflation {
+    /** The pending conflations, by the unconflated data */
+    private static final Map<DataSet, PendingConflation> PENDING = Collections.synchronizedMap(new WeakHashMap<>());
+    /** The pending conflations for the data in each layer */
+    private static final Map<MapWithAILayer, Set<PendingConflation>> BY_LAYER = Collections
+            .synchronizedMap(new WeakHashMap<>());
+    private static ExecutorService replaceExecutor;
+
+    private final MapWithAIInfo info;
+    private final CompletableFuture<DataSet> conflated;
+    /** The conflation requests, which are cancelled if the conflated data is no longer needed */
+    private final List<Future<?>> senders = new ArrayList<>();
+    /** The areas of the unconflated data */
+    private final List<Bounds> bounds = new ArrayList<>();
+    /** The primitives in the layer that the unconflated data was merged into */
+    private final Set<OsmPrimitive> unconflated = new LinkedHashSet<>();
+    /** {@code true} once the replacement has been scheduled */
+    private boolean scheduled;
+    /** {@code true} once the conflated data has been merged into the layer */
+    private boolean applied;
+
+    /**
+     * Create a new pending conflation
+     *
+     * @param info      The source of the data
+     * @param conflated The future for the conflated data (it may complete with
+     *                  {@code null}, if conflation failed)
+     */
+    PendingConflation(MapWithAIInfo info, CompletableFuture<DataSet> conflated) {
+        this.info = info;
+        this.conflated = conflated;
+    }
+
+    /**
+     * Create a new pending conflation
+     *
+     * @param info      The source of the data
+     * @param conflated The future for the conflated data (it may complete with
+     *                  {@code null}, if conflation failed)
+     * @param sender    The conflation request (cancelling it cancels the
+     *                  request)
+     * @param bounds    The area of the unconflated data
+     */
+    PendingConflation(MapWithAIInfo info, CompletableFuture<DataSet> conflated, Future<?> sender, Bounds bounds) {
+        this(info, conflated);
+        this.senders.add(sender);
+        this.bounds.add(bounds);
+    }
+
+    /**
+     * Register unconflated data
+     *
+     * @param unconflated The unconflated data
+     * @param pending     The conflation that will replace the data
+     */
+    static void register(DataSet unconflated, PendingConflation pending) {
+        PENDING.put(unconflated, pending);
+    }
+
+    /**
+     * Get the pending conflation for unconflated data
+     *
+     * @param unconflated The unconflated data
+     * @return The pending conflation, or {@code null} if the data is not waiting
+     *         for conflated data
+     */
+    static PendingConflation get(DataSet unconflated) {
+        return PENDING.get(unconflated);
+    }
+
+    /**
+     * Get the conflated data
+     *
+     * @return The future for the conflated data
+     */
+    CompletableFuture<DataSet> getConflatedData() {
+        return this.conflated;
+    }
+
+    /**
+     * Register a copy of unconflated data, so that it is replaced as well
+     *
+     * @param original The original data
+     * @param copy     The copy of the data
+     */
+    static void copy(DataSet original, DataSet copy) {
+        final PendingConflation pending = PENDING.get(original);
+        if (pending != null) {
+            PENDING.put(copy, pending);
+        }
+    }
+
+    /**
+     * Register data that is combined from other data. This must be called
+     * before the other data is merged into the combined data. The combined
+     * data is replaced once all of the other data has been conflated; data that
+     * is not conflated is replaced by itself.
+     *
+     * @param combined The combined data
+     * @param parts    The data that will be merged into the combined data
+     */
+    static void combine(DataSet combined, Collection<DataSet> parts) {
+        final List<PendingConflation> pendings = new ArrayList<>(parts.size());
+        for (DataSet part : parts) {
+            pendings.add(part == null ? null : PENDING.get(part));
+        }
+        if (pendings.stream().allMatch(pending -> pending == null)) {
+            return;
+        }
+        final List<CompletableFuture<DataSet>> futures = new ArrayList<>(parts.size());
+        int i = 0;
+        for (DataSet part : parts) {
+            final PendingConflation pending = pendings.get(i++);
+            if (part == null) {
+                continue;
+            }
+            final DataSet copy = new DataSet(part);
+            futures.add(pending == null ? CompletableFuture.completedFuture(copy)
+                    : pending.conflated.handle((dataSet, throwable) -> dataSet == null ? copy : new DataSet(dataSet)));
+        }
+        final CompletableFuture<DataSet> conflated = CompletableFuture
+                .allOf(futures.toArray(new CompletableFuture<?>[0])).thenApply(ignored -> {
+                    final DataSet dataSet = new DataSet();
+                    futures.forEach(future -> dataSet.mergeFrom(future.join()));
+                    return dataSet;
+                });
+        final PendingConflation combinedPending = new PendingConflation(null, conflated);
+        for (PendingConflation pending : pendings) {
+            if (pending != null) {
+                combinedPending.senders.addAll(pending.senders);
+                combinedPending.bounds.addAll(pending.bounds);
+            }
+        }
+        PENDING.put(combined, combinedPending);
+    }
+
+    /**
+     * Note that data was merged into the MapWithAI layer. If the data is
+     * waiting for conflated data, the primitives it was merged into are
+     * replaced once the conflated data is available.
+     *
+     * @param layer  The layer the data was merged into
+     * @param data   The data that was merged
+     * @param merged The primitives in the layer that the data was merged into
+     *               (see {@link GetDataRunnable#mergeFrom})
+     */
+    static void merged(MapWithAILayer layer, DataSet data, Collection<OsmPrimitive> merged) {
+        final PendingConflation pending = PENDING.remove(data);
+        if (pending != null) {
+            pending.add(layer, merged);
+        }
+    }
+
+    /**
+     * Cancel the conflation of the data in a layer, since the layer has been
+     * removed
+     *
+     * @param layer The layer
+     */
+    static void cancel(MapWithAILayer layer) {
+        final Set<PendingConflation> pendings = BY_LAYER.remove(layer);
+        if (pendings != null) {
+            pendings.forEach(PendingConflation::cancel);
+        }
+    }
+
+    /**
+     * Cancel the conflation of the data in a layer that is outside of an area
+     * (e.g., since the mapper has moved away from it). The unconflated data is
+     * kept.
+     *
+     * @param layer The layer
+     * @param view  The area the mapper is looking at
+     */
+    static void cancelOutside(MapWithAILayer layer, Bounds view) {
+        final Set<PendingConflation> pendings = BY_LAYER.get(layer);
+        if (pendings == null) {
+            return;
+        }
+        for (PendingConflation pending : pendings) {
+            if (!pending.bounds.isEmpty() && pending.bounds.stream().noneMatch(view::intersects)) {
+                pendings.remove(pending);
+                pending.cancel();
+            }
+        }
+    }
+
+    private void cancel() {
+        this.senders.forEach(sender -> sender.cancel(true));
+    }
+
+    /**
+     * Add primitives in the layer to replace
+     *
+     * @param layer  The layer with the primitives
+     * @param merged The primitives to replace
+     */
+    private void add(MapWithAILayer layer, Collection<OsmPrimitive> merged) {
+        synchronized (this) {
+            this.unconflated.addAll(merged);
+            if (this.scheduled) {
+                if (this.applied) {
+                    // A copy of the unconflated data was merged after the conflated data
+                    getReplaceExecutor().execute(() -> replace(layer, null));
+                }
+                return;
+            }
+            this.scheduled = true;
+        }
+        if (layer != null) {
+            BY_LAYER.computeIfAbsent(layer, key -> ConcurrentHashMap.newKeySet()).add(this);
+        }
+        this.conflated.whenCompleteAsync((dataSet, throwable) -> {
+            if (layer != null) {
+                final Set<PendingConflation> pendings = BY_LAYER.get(layer);
+                if (pendings != null) {
+                    pendings.remove(this);
+                }
+            }
+            if (dataSet != null) {
+                MapPaintUtils.addSourcesToPaintStyle(dataSet);
+                replace(layer, dataSet);
+            } else {
+                // Keep the unconflated data
+                synchronized (this) {
+                    this.unconflated.clear();
+                }
+            }
+        }, getReplaceExecutor());
+    }
+
+    /**
+     * Replace the unconflated data in the layer. If the layer has been removed,
+     * the conflated data is dropped (it is still in the
+     * {@link MapWithAIDataCache}).
+     *
+     * @param layer     The layer with the unconflated data
+     * @param conflated The conflated data, or {@code null} if it has already
+     *                  been merged
+     */
+    private void replace(MapWithAILayer layer, DataSet conflated) {
+        if (layer == null || MapWithAIDataUtils.getLayer(false) != layer) {
+            return;
+        }
+        final Lock lock = layer.getLock();
+        lock.lock();
+        try {
+            replaceIn(layer.getDataSet(), conflated);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Replace the unconflated data in a dataset
+     *
+     * @param dataSet   The dataset with the unconflated data
+     * @param conflated The conflated data, or {@code null} to only remove the
+     *                  unconflated data
+     * @return The primitives that the conflated data was merged into
+     */
+    synchronized Collection<OsmPrimitive> replaceIn(DataSet dataSet, DataSet conflated) {
+        final long time = MapWithAIMetrics.start();
+        synchronized (dataSet) {
+            // Remove the parents first, and only remove children that nothing else uses
+            final Set<OsmPrimitive> toRemove = new LinkedHashSet<>();
+            for (OsmPrimitiveType type : Arrays.asList(OsmPrimitiveType.RELATION, OsmPrimitiveType.WAY,
+                    OsmPrimitiveType.NODE)) {
+                for (OsmPrimitive primitive : this.unconflated) {
+                    if (primitive.getType() == type && !primitive.isDeleted()
+                            && dataSet.equals(primitive.getDataSet())
+                            && toRemove.containsAll(primitive.getReferrers())) {
+                        toRemove.add(primitive);
+                    }
+                }
+            }
+            this.unconflated.clear();
+            if (!toRemove.isEmpty()) {
+                dataSet.update(() -> toRemove.forEach(dataSet::removePrimitive));
+            }
+            if (conflated == null || this.applied) {
+                return Collections.emptyList();
+            }
+            this.applied = true;
+            final Collection<OsmPrimitive> merged = GetDataRunnable.mergeFrom(dataSet, conflated);
+            GetDataRunnable.incrementalCleanup(dataSet, merged, this.info);
+            MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.LAYER_MERGE, time);
+            return merged;
+        }
+    }
+
+    private static synchronized ExecutorService getReplaceExecutor() {
+        if (replaceExecutor == null) {
+            replaceExecutor = Executors.newSingleThreadExecutor(
+                    Utils.newThreadFactory("mapwithai-conflation-replace-%d", Thread.NORM_PRIORITY));
+        }
+        return replaceExecutor;
+    }
+}
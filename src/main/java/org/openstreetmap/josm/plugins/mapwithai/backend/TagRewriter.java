@@ -0,0 +1,181 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.Tag;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Rewrite tags with a set of replacements. The replacements are compiled into
+ * rules by key, so rewriting the tags of a primitive only looks at the rules
+ * for the keys it has, no matter how many replacements there are.
+ */
+final class TagRewriter {
+    private static final String EQUALS = "=";
+
+    /** The replacement tags the user rewriter was compiled from */
+    private static Map<String, String> userReplacementTags;
+    private static TagRewriter userRewriter;
+
+    /** The rules, by the key they apply to */
+    private final Map<String, List<Rule>> rules = new HashMap<>();
+
+    /**
+     * A single replacement
+     */
+    private static final class Rule {
+        /** The value to match, or {@code null} to match any value */
+        final String value;
+        /** The tag to add (a blank value removes the key), or {@code null} if the key is renamed */
+        final Tag replacement;
+        /** The key to move the value to, or {@code null} if a tag is added */
+        final String renameTo;
+
+        Rule(String value, Tag replacement, String renameTo) {
+            this.value = value;
+            this.replacement = replacement;
+            this.renameTo = renameTo;
+        }
+
+        boolean matches(String value) {
+            return this.value == null || this.value.equals(value);
+        }
+    }
+
+    private TagRewriter() {
+        // Use the static methods
+    }
+
+    /**
+     * Get a rewriter for the replacement tags set by the user (see
+     * {@link MapWithAIPreferenceHelper#getReplacementTags}). The rewriter is
+     * only compiled again when the replacement tags change.
+     *
+     * @return The rewriter
+     */
+    static synchronized TagRewriter forUserReplacements() {
+        final Map<String, String> replacementTags = MapWithAIPreferenceHelper.getReplacementTags();
+        if (userRewriter == null || !replacementTags.equals(userReplacementTags)) {
+            userRewriter = forTags(parseReplacementTags(replacementTags));
+            userReplacementTags = replacementTags;
+        }
+        return userRewriter;
+    }
+
+    /**
+     * Get a rewriter for tag replacements. Each primitive with the original tag
+     * (or the original key, if the original value is blank) gets the replacement
+     * tag.
+     *
+     * @param replaceTags The tags to replace
+     * @return The rewriter
+     */
+    static TagRewriter forTags(Map<Tag, Tag> replaceTags) {
+        final TagRewriter rewriter = new TagRewriter();
+        replaceTags.forEach((orig, replace) -> rewriter.add(orig.getKey(),
+                new Rule(Utils.isBlank(orig.getValue()) ? null : orig.getValue(), replace, null)));
+        return rewriter;
+    }
+
+    /**
+     * Get a rewriter for key replacements (the values are kept)
+     *
+     * @param replaceKeys The keys to replace
+     * @return The rewriter
+     */
+    static TagRewriter forKeys(Map<String, String> replaceKeys) {
+        final TagRewriter rewriter = new TagRewriter();
+        replaceKeys.forEach((orig, replace) -> {
+            if (!orig.equals(replace)) {
+                rewriter.add(orig, new Rule(null, null, replace));
+            }
+        });
+        return rewriter;
+    }
+
+    /**
+     * Parse the replacement tags from the preferences
+     *
+     * @param replacementTags The replacement tags, as {@code key=value} strings
+     * @return The tags to replace
+     */
+    static Map<Tag, Tag> parseReplacementTags(Map<String, String> replacementTags) {
+        final Map<Tag, Tag> replaceTags = new HashMap<>();
+        replacementTags.forEach((key, value) -> {
+            if (key.contains(EQUALS) && value.contains(EQUALS)) {
+                replaceTags.put(Tag.ofString(key), Tag.ofString(value));
+            } else if (!key.equals(EQUALS) && Utils.isBlank(value)) {
+                final Tag tag = new Tag(key, null);
+                replaceTags.put(tag, tag);
+            }
+        });
+        return replaceTags;
+    }
+
+    private void add(String key, Rule rule) {
+        this.rules.computeIfAbsent(key, k -> new ArrayList<>(1)).add(rule);
+    }
+
+    /**
+     * Check if there is anything to rewrite
+     *
+     * @return {@code true} if there are no rules
+     */
+    boolean isEmpty() {
+        return this.rules.isEmpty();
+    }
+
+    /**
+     * Rewrite tags. The rules are matched against the original tags, and then
+     * applied together.
+     *
+     * @param tags The tags to rewrite (modified)
+     * @return {@code true} if the tags were changed
+     */
+    boolean apply(Map<String, String> tags) {
+        if (this.rules.isEmpty()) {
+            return false;
+        }
+        List<String> removed = Collections.emptyList();
+        List<Tag> added = Collections.emptyList();
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            final List<Rule> keyRules = this.rules.get(tag.getKey());
+            if (keyRules == null) {
+                continue;
+            }
+            for (Rule rule : keyRules) {
+                if (rule.matches(tag.getValue())) {
+                    if (added.isEmpty()) {
+                        added = new ArrayList<>();
+                        removed = new ArrayList<>();
+                    }
+                    if (rule.renameTo != null) {
+                        removed.add(tag.getKey());
+                        added.add(new Tag(rule.renameTo, tag.getValue()));
+                    } else {
+                        added.add(rule.replacement);
+                    }
+                }
+            }
+        }
+        if (added.isEmpty()) {
+            return false;
+        }
+        for (String key : removed) {
+            tags.remove(key);
+        }
+        for (Tag tag : added) {
+            if (Utils.isBlank(tag.getValue())) {
+                tags.remove(tag.getKey());
+            } else {
+                tags.put(tag.getKey(), tag.getValue());
+            }
+        }
+        return true;
+    }
+}
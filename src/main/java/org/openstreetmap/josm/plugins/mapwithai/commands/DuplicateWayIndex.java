@@ -0,0 +1,215 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.commands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.mapwithai.tools.LongIntHashMap;
+
+/**
+ * An index of ways by the (approximate) locations of their nodes. This is used
+ * to find ways that may be duplicates without comparing every node of every
+ * nearby way.
+ * <p>
+ * Nodes are put into a grid where the cells are at least as large as the
+ * maximum duplicate node distance, so a node can only duplicate nodes in the
+ * surrounding 3x3 cells.
+ */
+final class DuplicateWayIndex {
+    /** A conservative number of meters per degree (the cells must not be too small) */
+    private static final double METERS_PER_DEGREE = 110_000;
+    /** The smallest cell size, in degrees (OSM precision) */
+    private static final double MINIMUM_CELL_SIZE = 1e-7;
+    /** The minimum cosine to use when converting meters to longitude degrees */
+    private static final double MINIMUM_COSINE = 0.01;
+
+    private final double maxDistance;
+    private final double latitudeCellSize;
+    private final double longitudeCellSize;
+    private final List<Way> ways;
+    private final Map<Way, Integer> wayIndexes;
+    private final Map<String, List<Integer>> origIds = new HashMap<>();
+    /** The way that a way was merged into (or the way itself) */
+    private final int[] mergedInto;
+
+    // The grid. Each cell points to the last entry added to it, and each entry
+    // points to the previous entry in the cell (or -1).
+    private final LongIntHashMap cells;
+    private final int[] entryWay;
+    private final Node[] entryNode;
+    private final int[] previousEntry;
+
+    // Scratch space for finding candidates
+    private final int[] sharedNodes;
+    private final int[] lastCounted;
+    private final int[] touched;
+
+    /**
+     * Create a new index
+     *
+     * @param ways        The ways to index
+     * @param maxDistance The maximum distance between duplicate nodes (meters)
+     */
+    DuplicateWayIndex(List<Way> ways, double maxDistance) {
+        this.maxDistance = maxDistance;
+        this.ways = new ArrayList<>(ways);
+        this.wayIndexes = new IdentityHashMap<>(ways.size());
+        this.mergedInto = new int[ways.size()];
+        int nodeCount = 0;
+        double maxLatitude = 0;
+        for (int i = 0; i < this.ways.size(); i++) {
+            final Way way = this.ways.get(i);
+            this.wayIndexes.put(way, i);
+            this.mergedInto[i] = i;
+            if (way.hasKey(MergeDuplicateWays.ORIG_ID)) {
+                this.origIds.computeIfAbsent(way.get(MergeDuplicateWays.ORIG_ID), key -> new ArrayList<>()).add(i);
+            }
+            for (Node node : way.getNodes()) {
+                if (node.isLatLonKnown()) {
+                    nodeCount++;
+                    maxLatitude = Math.max(maxLatitude, Math.abs(node.lat()));
+                }
+            }
+        }
+        this.latitudeCellSize = Math.max(MINIMUM_CELL_SIZE, maxDistance / METERS_PER_DEGREE);
+        this.longitudeCellSize = Math.max(MINIMUM_CELL_SIZE,
+                maxDistance / (METERS_PER_DEGREE * Math.max(MINIMUM_COSINE, Math.cos(Math.toRadians(maxLatitude)))));
+
+        this.cells = new LongIntHashMap(nodeCount);
+        this.entryWay = new int[nodeCount];
+        this.entryNode = new Node[nodeCount];
+        this.previousEntry = new int[nodeCount];
+        int entry = 0;
+        for (int i = 0; i < this.ways.size(); i++) {
+            for (Node node : this.ways.get(i).getNodes()) {
+                if (node.isLatLonKnown()) {
+                    final long key = getKey(getLatitudeCell(node), getLongitudeCell(node));
+                    this.entryWay[entry] = i;
+                    this.entryNode[entry] = node;
+                    this.previousEntry[entry] = this.cells.get(key, -1);
+                    this.cells.put(key, entry);
+                    entry++;
+                }
+            }
+        }
+
+        this.sharedNodes = new int[this.ways.size()];
+        this.lastCounted = new int[this.ways.size()];
+        Arrays.fill(this.lastCounted, -1);
+        this.touched = new int[this.ways.size()];
+    }
+
+    /**
+     * Get the ways that may be duplicates of a way. These are the ways that have
+     * at least two nodes near (or shared with) different nodes of the way, and
+     * the ways with the same {@link MergeDuplicateWays#ORIG_ID}.
+     *
+     * @param way The way to get possible duplicates for
+     * @return The possible duplicates, in index order
+     */
+    List<Way> getCandidates(Way way) {
+        final Integer index = this.wayIndexes.get(way);
+        if (index == null) {
+            return Collections.emptyList();
+        }
+        final int wayIndex = resolve(index);
+        int touchedCount = 0;
+        for (int position = 0; position < way.getNodesCount(); position++) {
+            final Node node = way.getNode(position);
+            if (!node.isLatLonKnown()) {
+                continue;
+            }
+            final long latitudeCell = getLatitudeCell(node);
+            final long longitudeCell = getLongitudeCell(node);
+            for (long lat = latitudeCell - 1; lat <= latitudeCell + 1; lat++) {
+                for (long lon = longitudeCell - 1; lon <= longitudeCell + 1; lon++) {
+                    int entry = this.cells.get(getKey(lat, lon), -1);
+                    for (; entry >= 0; entry = this.previousEntry[entry]) {
+                        final int other = resolve(this.entryWay[entry]);
+                        if (other == wayIndex || this.lastCounted[other] == position
+                                || !isDuplicateNode(node, this.entryNode[entry])) {
+                            continue;
+                        }
+                        if (this.sharedNodes[other] == 0) {
+                            this.touched[touchedCount++] = other;
+                        }
+                        this.sharedNodes[other]++;
+                        this.lastCounted[other] = position;
+                    }
+                }
+            }
+        }
+        final List<Integer> candidates = new ArrayList<>();
+        for (int i = 0; i < touchedCount; i++) {
+            final int other = this.touched[i];
+            if (this.sharedNodes[other] > 1) {
+                candidates.add(other);
+            }
+            this.sharedNodes[other] = 0;
+            this.lastCounted[other] = -1;
+        }
+        if (way.hasKey(MergeDuplicateWays.ORIG_ID)) {
+            for (int other : this.origIds.getOrDefault(way.get(MergeDuplicateWays.ORIG_ID),
+                    Collections.emptyList())) {
+                final int resolved = resolve(other);
+                if (resolved != wayIndex && !candidates.contains(resolved)) {
+                    candidates.add(resolved);
+                }
+            }
+        }
+        Collections.sort(candidates);
+        final List<Way> candidateWays = new ArrayList<>(candidates.size());
+        for (int candidate : candidates) {
+            candidateWays.add(this.ways.get(candidate));
+        }
+        return candidateWays;
+    }
+
+    /**
+     * Record that a way was merged into another way. The nodes of the merged way
+     * now belong to the other way.
+     *
+     * @param way    The way that was kept
+     * @param merged The way that was merged into {@code way} (and deleted)
+     */
+    void merged(Way way, Way merged) {
+        final Integer wayIndex = this.wayIndexes.get(way);
+        final Integer mergedIndex = this.wayIndexes.get(merged);
+        if (wayIndex != null && mergedIndex != null) {
+            this.mergedInto[resolve(mergedIndex)] = resolve(wayIndex);
+        }
+    }
+
+    private int resolve(int wayIndex) {
+        int current = wayIndex;
+        while (this.mergedInto[current] != current) {
+            current = this.mergedInto[current];
+        }
+        // Shorten the path for the next lookup
+        this.mergedInto[wayIndex] = current;
+        return current;
+    }
+
+    private boolean isDuplicateNode(Node node, Node possibleDuplicate) {
+        return node.equals(possibleDuplicate) || node.greatCircleDistance(possibleDuplicate) < this.maxDistance;
+    }
+
+    private long getLatitudeCell(Node node) {
+        return (long) Math.floor(node.lat() / this.latitudeCellSize);
+    }
+
+    private long getLongitudeCell(Node node) {
+        return (long) Math.floor(node.lon() / this.longitudeCellSize);
+    }
+
+    private static long getKey(long latitudeCell, long longitudeCell) {
+        return (latitudeCell << 32) | (longitudeCell & 0xFFFF_FFFFL);
+    }
+}
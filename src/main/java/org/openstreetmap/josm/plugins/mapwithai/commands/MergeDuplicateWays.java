@@ -26,6 +26,7 @@ import org.openstreetmap.josm.command.Command;
 import org.openstreetmap.josm.command.DeleteCommand;
 import org.openstreetmap.josm.command.SequenceCommand;
 import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
 import org.openstreetmap.josm.data.osm.OsmPrimitive;
@@ -163,24 +164,32 @@ public class MergeDuplicateWays extends Command {
     public static void filterDataSet(@Nonnull DataSet dataSet, @Nonnull List<Command> commands,
             @Nullable Bounds bound) {
         final List<Way> ways = (bound == null ? dataSet.getWays() : dataSet.searchWays(bound.toBBox())).stream()
-                .filter(prim -> !prim.isIncomplete() && !prim.isDeleted())
-                .collect(Collectors.toCollection(ArrayList::new));
-        for (int i = 0; i < ways.size(); i++) {
-            final Way way1 = ways.get(i);
-            final Collection<Way> nearbyWays = dataSet.searchWays(way1.getBBox()).stream()
-                    .filter(MergeDuplicateWays::nonDeletedWay).collect(Collectors.toList());
-            nearbyWays.remove(way1);
-            for (final Way way2 : nearbyWays) {
+                .filter(prim -> !prim.isIncomplete() && !prim.isDeleted()).collect(Collectors.toList());
+        if (ways.isEmpty()) {
+            return;
+        }
+        final BBox searchArea = new BBox();
+        ways.forEach(way -> searchArea.add(way.getBBox()));
+        final List<Way> nearbyWays = (bound == null ? ways : dataSet.searchWays(searchArea)).stream()
+                .filter(MergeDuplicateWays::nonDeletedWay).collect(Collectors.toList());
+        // Only check ways that have at least two (nearly) shared nodes
+        final DuplicateWayIndex index = new DuplicateWayIndex(nearbyWays,
+                MapWithAIPreferenceHelper.getMaxNodeDistance());
+        for (final Way way1 : ways) {
+            if (way1.isDeleted()) {
+                continue;
+            }
+            for (final Way way2 : index.getCandidates(way1)) {
+                if (way1.isDeleted() || !nonDeletedWay(way2) || !way1.getBBox().intersects(way2.getBBox())) {
+                    continue;
+                }
                 final Command command = checkForDuplicateWays(way1, way2);
-                final Collection<OsmPrimitive> deletedWays = new ArrayList<>();
                 if (command != null) {
                     commands.add(command);
                     command.executeCommand();
-                    command.fillModifiedData(new ArrayList<>(), deletedWays, new ArrayList<>());
-                    if (!deletedWays.contains(way1) && !deletedWays.contains(way2)) {
-                        commands.add(command);
+                    if (way2.isDeleted()) {
+                        index.merged(way1, way2);
                     }
-                    ways.remove(way2);
                 }
             }
         }
@@ -1,8 +1,11 @@
 // License: GPL. For details, see LICENSE file.
 package org.openstreetmap.josm.plugins.mapwithai.data.mapwithai;
 
+import java.util.Collection;
+
 import org.openstreetmap.josm.command.ChangePropertyKeyCommand;
 import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAILayer;
 import org.openstreetmap.josm.spi.preferences.Config;
@@ -48,11 +51,24 @@ public class PreConflatedDataUtils implements PreferenceChangedListener, Destroy
      *                mapwithai:conflated tag
      */
     public static void removeConflatedData(DataSet dataSet, MapWithAIInfo info) {
+        removeConflatedData(dataSet.allPrimitives(), info);
+    }
+
+    /**
+     * Change the conflated tag to a standard tag, and then hide the data, for
+     * only some primitives (e.g., primitives that were just added to a dataset)
+     *
+     * @param primitives The primitives to look through
+     * @param info       The info with the key to use to convert to the
+     *                   mapwithai:conflated tag
+     * @see #removeConflatedData(DataSet, MapWithAIInfo)
+     */
+    public static void removeConflatedData(Collection<? extends OsmPrimitive> primitives, MapWithAIInfo info) {
         if (info != null && info.getAlreadyConflatedKey() != null && !info.getAlreadyConflatedKey().trim().isEmpty()) {
             String key = info.getAlreadyConflatedKey();
-            dataSet.allPrimitives().stream().filter(p -> p.hasKey(key))
+            primitives.stream().filter(p -> p.hasKey(key))
                     .forEach(p -> new ChangePropertyKeyCommand(p, key, getConflatedKey()).executeCommand());
-            hideConflatedData(dataSet);
+            hideConflatedData(primitives);
         }
     }
 
@@ -62,9 +78,18 @@ public class PreConflatedDataUtils implements PreferenceChangedListener, Destroy
      * @param dataSet The dataset to show/hide data in
      */
     public static void hideConflatedData(DataSet dataSet) {
+        hideConflatedData(dataSet.allPrimitives());
+    }
+
+    /**
+     * Hide conflated data.
+     *
+     * @param primitives The primitives to show/hide
+     */
+    private static void hideConflatedData(Collection<? extends OsmPrimitive> primitives) {
         boolean hide = Config.getPref().getBoolean(PREF_KEY, true);
         boolean fullHide = Config.getPref().getBoolean(PREF_KEY_FULL, false);
-        dataSet.allPrimitives().stream().filter(p -> p.hasKey(getConflatedKey())).forEach(p -> {
+        primitives.stream().filter(p -> p.hasKey(getConflatedKey())).forEach(p -> {
             if (hide) {
                 p.setDisabledState(fullHide);
             } else {
@@ -0,0 +1,296 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.io.mapwithai;
+
+import static org.openstreetmap.josm.tools.I18n.tr;
+
+import javax.json.Json;
+import javax.json.JsonArray;
+import javax.json.JsonException;
+import javax.json.JsonNumber;
+import javax.json.JsonObject;
+import javax.json.JsonObjectBuilder;
+import javax.json.JsonString;
+import javax.json.JsonValue;
+import javax.json.stream.JsonParser;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.gui.progress.ProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.tools.Logging;
+
+/**
+ * Read GeoJSON into a {@link DataSet} in a single pass. Only one feature is
+ * held in memory at a time, and the top-level {@code properties} (e.g.
+ * {@code exceededTransferLimit} from Esri Feature Servers) are recorded while
+ * streaming.
+ */
+public final class GeoJSONStreamReader {
+    private static final String COORDINATES = "coordinates";
+    private static final String FEATURES = "features";
+    private static final String GEOMETRY = "geometry";
+    private static final String GEOMETRIES = "geometries";
+    private static final String PROPERTIES = "properties";
+    private static final String TYPE = "type";
+
+    private final DataSet dataSet = new DataSet();
+    /** Used to reuse nodes at the same location (GeoJSON has no shared node concept) */
+    private final Map<LatLon, Node> nodeCache = new HashMap<>();
+    private JsonObject properties = JsonValue.EMPTY_JSON_OBJECT;
+    private int featureCount;
+
+    private GeoJSONStreamReader() {
+        // Use parse
+    }
+
+    /**
+     * Parse a GeoJSON stream
+     *
+     * @param source          The source to read (not closed)
+     * @param progressMonitor The progress monitor to use
+     * @return The reader with the parsed dataset and top-level information
+     * @throws IllegalDataException If the json could not be parsed
+     */
+    public static GeoJSONStreamReader parse(InputStream source, ProgressMonitor progressMonitor)
+            throws IllegalDataException {
+        final ProgressMonitor monitor = progressMonitor == null ? NullProgressMonitor.INSTANCE : progressMonitor;
+        final GeoJSONStreamReader reader = new GeoJSONStreamReader();
+        monitor.beginTask(tr("Parsing GeoJSON..."));
+        try (JsonParser parser = Json.createParser(source)) {
+            reader.parseRoot(parser, monitor);
+        } catch (JsonException | IllegalStateException e) {
+            throw new IllegalDataException(e);
+        } finally {
+            monitor.finishTask();
+        }
+        return reader;
+    }
+
+    /**
+     * Get the parsed dataset
+     *
+     * @return The dataset
+     */
+    public DataSet getDataSet() {
+        return this.dataSet;
+    }
+
+    /**
+     * Get the number of features that were read
+     *
+     * @return The number of features in the {@code features} array
+     */
+    public int getFeatureCount() {
+        return this.featureCount;
+    }
+
+    /**
+     * Check if the server indicated that there is more data available
+     *
+     * @return {@code true} if {@code properties.exceededTransferLimit} was
+     *         {@code true}
+     */
+    public boolean isExceededTransferLimit() {
+        final JsonValue value = this.properties.get("exceededTransferLimit");
+        return value != null && value.getValueType() == JsonValue.ValueType.TRUE;
+    }
+
+    private void parseRoot(JsonParser parser, ProgressMonitor monitor) throws IllegalDataException {
+        if (!parser.hasNext() || parser.next() != JsonParser.Event.START_OBJECT) {
+            throw new IllegalDataException(tr("GeoJSON root must be an object"));
+        }
+        // Everything that isn't the feature array is small, so keep it around in case
+        // the root is a single feature or geometry.
+        final JsonObjectBuilder root = Json.createObjectBuilder();
+        while (parser.hasNext()) {
+            final JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_OBJECT) {
+                break;
+            }
+            final String key = parser.getString();
+            final JsonParser.Event valueEvent = parser.next();
+            if (FEATURES.equals(key) && valueEvent == JsonParser.Event.START_ARRAY) {
+                parseFeatures(parser, monitor);
+            } else if (PROPERTIES.equals(key) && valueEvent == JsonParser.Event.START_OBJECT) {
+                this.properties = parser.getObject();
+                root.add(key, this.properties);
+            } else {
+                root.add(key, parser.getValue());
+            }
+        }
+        final JsonObject rootObject = root.build();
+        if (rootObject.containsKey(GEOMETRY)) {
+            parseFeature(rootObject);
+            this.properties = JsonValue.EMPTY_JSON_OBJECT;
+        } else if (rootObject.containsKey(COORDINATES) || rootObject.containsKey(GEOMETRIES)) {
+            parseGeometry(Json.createObjectBuilder().build(), rootObject);
+        }
+    }
+
+    private void parseFeatures(JsonParser parser, ProgressMonitor monitor) {
+        while (parser.hasNext()) {
+            final JsonParser.Event event = parser.next();
+            if (event == JsonParser.Event.END_ARRAY) {
+                return;
+            } else if (event == JsonParser.Event.START_OBJECT) {
+                parseFeature(parser.getObject());
+                this.featureCount++;
+                monitor.worked(1);
+            } else if (event == JsonParser.Event.START_ARRAY) {
+                parser.skipArray();
+            }
+        }
+    }
+
+    private void parseFeature(JsonObject feature) {
+        final JsonValue geometry = feature.get(GEOMETRY);
+        if (geometry != null && geometry.getValueType() == JsonValue.ValueType.OBJECT) {
+            parseGeometry(feature, geometry.asJsonObject());
+        } else {
+            Logging.trace("MapWithAI: GeoJSON feature without a geometry: {0}", feature);
+        }
+    }
+
+    private void parseGeometry(JsonObject feature, JsonObject geometry) {
+        final String type = geometry.getString(TYPE, "");
+        if ("GeometryCollection".equals(type)) {
+            for (JsonValue child : geometry.getJsonArray(GEOMETRIES)) {
+                if (child.getValueType() == JsonValue.ValueType.OBJECT) {
+                    parseGeometry(feature, child.asJsonObject());
+                }
+            }
+            return;
+        }
+        final JsonValue coordinates = geometry.get(COORDINATES);
+        if (coordinates == null || coordinates.getValueType() != JsonValue.ValueType.ARRAY) {
+            return;
+        }
+        final JsonArray array = coordinates.asJsonArray();
+        switch (type) {
+        case "Point":
+            fillTags(feature, createNode(array));
+            break;
+        case "MultiPoint":
+            for (JsonArray point : array.getValuesAs(JsonArray.class)) {
+                fillTags(feature, createNode(point));
+            }
+            break;
+        case "LineString":
+            fillTags(feature, createWay(array, false));
+            break;
+        case "MultiLineString":
+            for (JsonArray line : array.getValuesAs(JsonArray.class)) {
+                fillTags(feature, createWay(line, false));
+            }
+            break;
+        case "Polygon":
+            parsePolygon(feature, array);
+            break;
+        case "MultiPolygon":
+            parseMultiPolygon(feature, array);
+            break;
+        default:
+            Logging.warn("MapWithAI: Unknown GeoJSON geometry type {0}", type);
+        }
+    }
+
+    private void parsePolygon(JsonObject feature, JsonArray rings) {
+        if (rings.size() == 1) {
+            fillTags(feature, createWay(rings.getJsonArray(0), true));
+        } else if (rings.size() > 1) {
+            final Relation multipolygon = new Relation();
+            addRings(multipolygon, rings);
+            fillTags(feature, multipolygon);
+            multipolygon.put(TYPE, "multipolygon");
+            this.dataSet.addPrimitive(multipolygon);
+        }
+    }
+
+    private void parseMultiPolygon(JsonObject feature, JsonArray polygons) {
+        final Relation multipolygon = new Relation();
+        for (JsonArray rings : polygons.getValuesAs(JsonArray.class)) {
+            addRings(multipolygon, rings);
+        }
+        fillTags(feature, multipolygon);
+        multipolygon.put(TYPE, "multipolygon");
+        this.dataSet.addPrimitive(multipolygon);
+    }
+
+    private void addRings(Relation multipolygon, JsonArray rings) {
+        for (int i = 0; i < rings.size(); i++) {
+            final Way ring = createWay(rings.getJsonArray(i), true);
+            if (ring != null) {
+                multipolygon.addMember(new RelationMember(i == 0 ? "outer" : "inner", ring));
+            }
+        }
+    }
+
+    private Node createNode(JsonArray coordinate) {
+        if (coordinate.size() < 2) {
+            return null;
+        }
+        final LatLon latLon = new LatLon(coordinate.getJsonNumber(1).doubleValue(),
+                coordinate.getJsonNumber(0).doubleValue()).getRoundedToOsmPrecision();
+        Node node = this.nodeCache.get(latLon);
+        if (node == null) {
+            node = new Node(latLon);
+            this.dataSet.addPrimitive(node);
+            this.nodeCache.put(latLon, node);
+        }
+        return node;
+    }
+
+    private Way createWay(JsonArray coordinates, boolean autoClose) {
+        final List<Node> nodes = new ArrayList<>(coordinates.size());
+        for (JsonArray coordinate : coordinates.getValuesAs(JsonArray.class)) {
+            final Node node = createNode(coordinate);
+            if (node != null && (nodes.isEmpty() || !node.equals(nodes.get(nodes.size() - 1)))) {
+                nodes.add(node);
+            }
+        }
+        if (nodes.isEmpty()) {
+            return null;
+        }
+        if (autoClose && nodes.size() > 1 && !nodes.get(0).equals(nodes.get(nodes.size() - 1))) {
+            nodes.add(nodes.get(0));
+        }
+        final Way way = new Way();
+        way.setNodes(nodes);
+        this.dataSet.addPrimitive(way);
+        return way;
+    }
+
+    private static void fillTags(JsonObject feature, OsmPrimitive primitive) {
+        if (primitive == null) {
+            return;
+        }
+        final JsonValue featureProperties = feature.get(PROPERTIES);
+        if (featureProperties == null || featureProperties.getValueType() != JsonValue.ValueType.OBJECT) {
+            return;
+        }
+        final Map<String, String> tags = new TreeMap<>();
+        for (Map.Entry<String, JsonValue> entry : featureProperties.asJsonObject().entrySet()) {
+            final JsonValue value = entry.getValue();
+            if (value instanceof JsonString) {
+                tags.put(entry.getKey(), ((JsonString) value).getString());
+            } else if (value instanceof JsonNumber || value.getValueType() == JsonValue.ValueType.TRUE
+                    || value.getValueType() == JsonValue.ValueType.FALSE) {
+                tags.put(entry.getKey(), value.toString());
+            }
+        }
+        primitive.putAll(tags);
+    }
+}
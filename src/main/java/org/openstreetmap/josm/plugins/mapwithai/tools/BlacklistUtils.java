@@ -11,22 +11,75 @@ import javax.json.JsonStructure;
 import javax.json.JsonValue;
 
 import java.io.BufferedReader;
+import java.io.File;
 import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.openstreetmap.josm.io.CachedFile;
 import org.openstreetmap.josm.io.NetworkManager;
 import org.openstreetmap.josm.plugins.mapwithai.MapWithAIPlugin;
 import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Check if this version has been blacklisted (i.e., bad data is uploaded)
+ * <p>
+ * The verdict is computed once for the version and remembered, since it is
+ * checked on every selection change. It is refreshed in the background, and
+ * the list is only parsed again when the cached file changes.
  *
  * @author Taylor Smock
  *
  */
 public final class BlacklistUtils {
     static final String DEFAULT_BLACKLIST_URL = "https://josm.github.io/MapWithAI/json/blacklisted_versions.json";
+    /** How long a verdict is used before it is refreshed */
+    static final long REFRESH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+    /** How long a verdict is used if the list could not be read */
+    static final long FAILURE_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
     private static String blacklistUrl = DEFAULT_BLACKLIST_URL;
+    private static volatile Verdict verdict;
+    private static final AtomicBoolean REFRESHING = new AtomicBoolean();
+    private static ExecutorService executor;
+
+    /**
+     * A remembered result of a blacklist check
+     */
+    private static final class Verdict {
+        final String url;
+        final String version;
+        final boolean blacklisted;
+        /** The last modification time of the cached file, or 0 if it could not be read */
+        final long fileModified;
+        final long fileLength;
+        final long expires;
+
+        Verdict(String url, String version, boolean blacklisted, long fileModified, long fileLength) {
+            this.url = url;
+            this.version = version;
+            this.blacklisted = blacklisted;
+            this.fileModified = fileModified;
+            this.fileLength = fileLength;
+            this.expires = System.currentTimeMillis()
+                    + (fileModified == 0 ? FAILURE_REFRESH_INTERVAL : REFRESH_INTERVAL);
+        }
+
+        boolean isFor(String url, String version) {
+            return this.url.equals(url) && this.version.equals(version);
+        }
+
+        boolean isSameFile(File file) {
+            return this.fileModified != 0 && this.fileModified == file.lastModified()
+                    && this.fileLength == file.length();
+        }
+
+        Verdict renew() {
+            return new Verdict(this.url, this.version, this.blacklisted, this.fileModified, this.fileLength);
+        }
+    }
 
     private BlacklistUtils() {
         // Don't instantiate
@@ -39,8 +92,56 @@ public final class BlacklistUtils {
      *         {@code true}.
      */
     public static boolean isBlacklisted() {
-        String version = MapWithAIPlugin.getVersionInfo();
-        CachedFile blacklist = new CachedFile(blacklistUrl);
+        final Verdict current = verdict;
+        if (current == null || !current.isFor(blacklistUrl, MapWithAIPlugin.getVersionInfo())) {
+            // Nothing is known for this version yet
+            return refresh().blacklisted;
+        }
+        if (current.expires < System.currentTimeMillis() && REFRESHING.compareAndSet(false, true)) {
+            getExecutor().execute(() -> {
+                try {
+                    refresh();
+                } finally {
+                    REFRESHING.set(false);
+                }
+            });
+        }
+        return current.blacklisted;
+    }
+
+    /**
+     * Check the blacklist, and remember the verdict
+     *
+     * @return The new verdict
+     */
+    private static synchronized Verdict refresh() {
+        final String url = blacklistUrl;
+        final String version = MapWithAIPlugin.getVersionInfo();
+        final Verdict current = verdict;
+        CachedFile blacklist = new CachedFile(url);
+        try {
+            final File file = blacklist.getFile();
+            if (current != null && current.isFor(url, version) && current.isSameFile(file)) {
+                verdict = current.renew();
+            } else {
+                verdict = new Verdict(url, version, isBlacklisted(blacklist, version), file.lastModified(),
+                        file.length());
+            }
+        } catch (IOException | JsonException e) {
+            try {
+                blacklist.clear();
+            } catch (IOException e1) {
+                Logging.error(e1);
+            }
+            Logging.error(e);
+            verdict = new Verdict(url, version, true, 0, 0);
+        } finally {
+            blacklist.close();
+        }
+        return verdict;
+    }
+
+    private static boolean isBlacklisted(CachedFile blacklist, String version) throws IOException {
         try (BufferedReader bufferedReader = blacklist.getContentReader();
                 JsonReader reader = Json.createReader(bufferedReader)) {
             JsonStructure structure = reader.read();
@@ -52,19 +153,26 @@ public final class BlacklistUtils {
                 JsonObject object = (JsonObject) structure;
                 return object.keySet().contains(version);
             }
-        } catch (IOException | JsonException e) {
-            try {
-                blacklist.clear();
-            } catch (IOException e1) {
-                Logging.error(e1);
-            }
-            Logging.error(e);
-        } finally {
-            blacklist.close();
         }
         return true;
     }
 
+    /**
+     * Forget the remembered verdict, so that the next check reads the blacklist
+     * again
+     */
+    static synchronized void invalidate() {
+        verdict = null;
+    }
+
+    private static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors
+                    .newSingleThreadExecutor(Utils.newThreadFactory("mapwithai-blacklist-%d", Thread.NORM_PRIORITY));
+        }
+        return executor;
+    }
+
     /**
      * Set a new blacklist URL. Should only be used for testing.
      *
@@ -72,6 +180,7 @@ public final class BlacklistUtils {
      */
     static void setBlacklistUrl(String url) {
         blacklistUrl = url;
+        invalidate();
     }
 
     /**
@@ -0,0 +1,72 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.tools;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.openstreetmap.josm.data.preferences.BooleanProperty;
+
+/**
+ * Utilities for compressed HTTP transfers. Servers are asked for gzip or
+ * deflate encoded responses, and responses are decoded as they are read.
+ */
+public final class CompressionUtils {
+    /** Whether or not compressed responses should be requested */
+    public static final BooleanProperty ENABLED = new BooleanProperty("mapwithai.download.compression", true);
+    /** The {@code Accept-Encoding} header value (brotli would need a third-party decoder) */
+    public static final String ACCEPT_ENCODING = "gzip, deflate";
+
+    /** The size of the buffer for compressed data */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** The first two bytes of a gzip stream */
+    private static final int GZIP_MAGIC = 0x1f8b;
+    /** The compression method for zlib streams (deflate) */
+    private static final int ZLIB_DEFLATE = 0x08;
+
+    private CompressionUtils() {
+        // Hide the constructor
+    }
+
+    /**
+     * Check if compressed responses should be requested
+     *
+     * @return {@code true} if the {@code Accept-Encoding} header should be sent
+     */
+    public static boolean isEnabled() {
+        return Boolean.TRUE.equals(ENABLED.get());
+    }
+
+    /**
+     * Decode a (possibly) compressed stream. The encoding is detected from the
+     * first bytes of the stream, so a stream that has already been decoded (or was
+     * never encoded) is returned as-is (but buffered).
+     *
+     * @param inputStream The stream to decode
+     * @return A stream with the decoded data
+     * @throws IOException If the stream could not be read
+     */
+    public static InputStream decode(InputStream inputStream) throws IOException {
+        final InputStream buffered = inputStream instanceof BufferedInputStream ? inputStream
+                : new BufferedInputStream(inputStream, BUFFER_SIZE);
+        buffered.mark(2);
+        final int first = buffered.read();
+        final int second = buffered.read();
+        buffered.reset();
+        if (first < 0 || second < 0) {
+            return buffered;
+        }
+        final int header = (first << 8) | second;
+        if (header == GZIP_MAGIC) {
+            return new GZIPInputStream(buffered, BUFFER_SIZE);
+        }
+        // zlib (RFC 1950): CMF is deflate, and the header is a multiple of 31. JSON and
+        // XML start with whitespace, '{', '[', or '<', none of which match.
+        if ((first & 0x0f) == ZLIB_DEFLATE && header % 31 == 0) {
+            return new InflaterInputStream(buffered);
+        }
+        return buffered;
+    }
+}
@@ -0,0 +1,182 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.tools;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * A minimal open-addressing map from primitive {@code long} keys to primitive
+ * {@code int} values. This avoids boxing (and the associated garbage) when
+ * indexing large numbers of primitives by a packed key, such as a rounded
+ * coordinate.
+ */
+public final class LongIntHashMap {
+    /** The marker for an empty slot. The key itself is stored separately. */
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    /**
+     * Create a new map
+     *
+     * @param expectedSize The expected number of keys
+     */
+    public LongIntHashMap(int expectedSize) {
+        allocate(tableSize(expectedSize));
+    }
+
+    /**
+     * Get the value for a key
+     *
+     * @param key          The key to look for
+     * @param defaultValue The value to return if the key is not in the map
+     * @return The value, or {@code defaultValue}
+     */
+    public int get(long key, int defaultValue) {
+        if (key == EMPTY) {
+            return this.hasEmptyKey ? this.emptyKeyValue : defaultValue;
+        }
+        for (int slot = hash(key) & this.mask;; slot = (slot + 1) & this.mask) {
+            final long current = this.keys[slot];
+            if (current == key) {
+                return this.values[slot];
+            } else if (current == EMPTY) {
+                return defaultValue;
+            }
+        }
+    }
+
+    /**
+     * Set the value for a key
+     *
+     * @param key   The key
+     * @param value The value
+     */
+    public void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!this.hasEmptyKey) {
+                this.hasEmptyKey = true;
+                this.size++;
+            }
+            this.emptyKeyValue = value;
+            return;
+        }
+        for (int slot = hash(key) & this.mask;; slot = (slot + 1) & this.mask) {
+            final long current = this.keys[slot];
+            if (current == key) {
+                this.values[slot] = value;
+                return;
+            } else if (current == EMPTY) {
+                this.keys[slot] = key;
+                this.values[slot] = value;
+                this.size++;
+                if (this.size > this.keys.length * LOAD_FACTOR) {
+                    resize();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Remove a key
+     *
+     * @param key The key to remove
+     */
+    public void remove(long key) {
+        if (key == EMPTY) {
+            if (this.hasEmptyKey) {
+                this.hasEmptyKey = false;
+                this.size--;
+            }
+            return;
+        }
+        int gap = hash(key) & this.mask;
+        while (this.keys[gap] != key) {
+            if (this.keys[gap] == EMPTY) {
+                return;
+            }
+            gap = (gap + 1) & this.mask;
+        }
+        // Move the following keys back, so that lookups don't stop at the removed key
+        for (int slot = (gap + 1) & this.mask; this.keys[slot] != EMPTY; slot = (slot + 1) & this.mask) {
+            final int home = hash(this.keys[slot]) & this.mask;
+            if (((slot - home) & this.mask) >= ((slot - gap) & this.mask)) {
+                this.keys[gap] = this.keys[slot];
+                this.values[gap] = this.values[slot];
+                gap = slot;
+            }
+        }
+        this.keys[gap] = EMPTY;
+        this.size--;
+    }
+
+    /**
+     * Get the number of keys in the map
+     *
+     * @return The number of keys
+     */
+    public int size() {
+        return this.size;
+    }
+
+    /**
+     * Run a consumer on every value in the map. Iteration order is not defined.
+     *
+     * @param consumer The consumer to run
+     */
+    public void forEachValue(IntConsumer consumer) {
+        if (this.hasEmptyKey) {
+            consumer.accept(this.emptyKeyValue);
+        }
+        for (int slot = 0; slot < this.keys.length; slot++) {
+            if (this.keys[slot] != EMPTY) {
+                consumer.accept(this.values[slot]);
+            }
+        }
+    }
+
+    private void resize() {
+        final long[] oldKeys = this.keys;
+        final int[] oldValues = this.values;
+        allocate(oldKeys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            final long key = oldKeys[i];
+            if (key != EMPTY) {
+                int slot = hash(key) & this.mask;
+                while (this.keys[slot] != EMPTY) {
+                    slot = (slot + 1) & this.mask;
+                }
+                this.keys[slot] = key;
+                this.values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    private void allocate(int tableSize) {
+        this.keys = new long[tableSize];
+        Arrays.fill(this.keys, EMPTY);
+        this.values = new int[tableSize];
+        this.mask = tableSize - 1;
+    }
+
+    private static int tableSize(int expectedSize) {
+        int tableSize = 4;
+        while (tableSize < 1 << 30 && tableSize * LOAD_FACTOR <= expectedSize) {
+            tableSize <<= 1;
+        }
+        return tableSize;
+    }
+
+    private static int hash(long key) {
+        // Fibonacci hashing spreads packed coordinates, which are highly regular
+        final long hash = key * 0x9E37_79B9_7F4A_7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -19,8 +19,13 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.regex.Pattern;
-import java.util.stream.Collectors;
 import java.util.stream.Stream;
 import java.util.zip.CRC32;
 import java.util.zip.ZipEntry;
@@ -41,6 +46,7 @@ import org.openstreetmap.josm.plugins.mapwithai.MapWithAIPlugin;
 import org.openstreetmap.josm.plugins.mapwithai.spi.preferences.MapWithAIConfig;
 import org.openstreetmap.josm.tools.ColorHelper;
 import org.openstreetmap.josm.tools.Logging;
+import org.openstreetmap.josm.tools.Utils;
 
 /**
  * Utils for the MapWithAI paint style
@@ -56,6 +62,15 @@ public final class MapPaintUtils {
     private static final String MAPWITHAI_MAPCSS_ZIP_NAME = "Styles_MapWithAI-style.mapcss";
     private static final double CRC_DIVIDE_TO_TEN_K_MAX = 429496.7296;
 
+    /** The minimum time between rewrites of the paint style for new sources (ms) */
+    static final long SOURCE_UPDATE_DELAY = 1000;
+    /** Sources that are already in the paint style */
+    private static final Set<String> KNOWN_SOURCES = ConcurrentHashMap.newKeySet();
+    /** Sources that have been seen, but are not yet in the paint style */
+    private static final Set<String> PENDING_SOURCES = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean UPDATE_SCHEDULED = new AtomicBoolean();
+    private static ScheduledExecutorService executor;
+
     /**
      * Safe colors
      */
@@ -106,6 +121,7 @@ public final class MapPaintUtils {
         if (!checkIfMapWithAIPaintStyleExists()) {
             final MapCSSStyleSource style = new MapCSSStyleSource(MapWithAIConfig.getUrls().getMapWithAIPaintStyle(),
                     MapWithAIPlugin.NAME, "MapWithAI");
+            KNOWN_SOURCES.clear();
             return MapPaintStyles.addStyle(style);
         }
         return getMapWithAIPaintStyle();
@@ -127,6 +143,7 @@ public final class MapPaintUtils {
      * Remove MapWithAI paint styles
      */
     public static synchronized void removeMapWithAIPaintStyles() {
+        KNOWN_SOURCES.clear();
         // WebStart has issues with streams and EDT permissions. Don't use streams.
         for (StyleSource style : new ArrayList<>(MapPaintStyles.getStyles().getStyleSources())) {
             if (MapWithAIConfig.getUrls().getMapWithAIPaintStyle().equals(style.url)
@@ -149,17 +166,43 @@ public final class MapPaintUtils {
     }
 
     /**
-     * Add sources to the paint style
+     * Add sources to the paint style. The paint style is not rewritten
+     * immediately; new sources are collected, and the paint style is updated for
+     * all of them at most once every {@link #SOURCE_UPDATE_DELAY} ms.
      *
      * @param ds The dataset to add sources to
      */
-    public static synchronized void addSourcesToPaintStyle(DataSet ds) {
+    public static void addSourcesToPaintStyle(DataSet ds) {
+        boolean added = false;
+        for (IPrimitive primitive : ds.allPrimitives()) {
+            final String source = getSourceValue(primitive);
+            if (source != null && !KNOWN_SOURCES.contains(source) && PENDING_SOURCES.add(source)) {
+                added = true;
+            }
+        }
+        if (added && UPDATE_SCHEDULED.compareAndSet(false, true)) {
+            getExecutor().schedule(() -> {
+                UPDATE_SCHEDULED.set(false);
+                flushSources();
+            }, SOURCE_UPDATE_DELAY, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Add any sources that have been seen (see {@link #addSourcesToPaintStyle})
+     * to the paint style now. The paint style is not touched if there are no new
+     * sources.
+     */
+    static synchronized void flushSources() {
+        if (PENDING_SOURCES.isEmpty()) {
+            return;
+        }
         StyleSource styleSource = addMapWithAIPaintStyles();
         if (styleSource == null) {
             return;
         }
-        List<String> sources = ds.allPrimitives().stream().map(MapPaintUtils::getSourceValue).filter(Objects::nonNull)
-                .distinct().collect(Collectors.toList());
+        List<String> sources = new ArrayList<>(PENDING_SOURCES);
+        PENDING_SOURCES.removeAll(sources);
         if (!styleSource.isLoaded()) {
             styleSource.loadStyleSource();
         }
@@ -169,10 +212,19 @@ public final class MapPaintUtils {
                 StyleSetting.ColorStyleSetting csetting = (StyleSetting.ColorStyleSetting) setting;
                 if (csetting.label != null) {
                     String rLabel = csetting.label.replaceAll("color$", "").trim();
-                    sources.removeIf(rLabel::equalsIgnoreCase);
+                    sources.removeIf(source -> {
+                        if (rLabel.equalsIgnoreCase(source)) {
+                            KNOWN_SOURCES.add(source);
+                            return true;
+                        }
+                        return false;
+                    });
                 }
             }
         }
+        if (sources.isEmpty()) {
+            return;
+        }
         Map<StyleSettingGroup, List<StyleSetting>> groups = styleSource.settingGroups;
         String group = groups.keySet().stream().filter(p -> p.key != null && p.key.contains("color")).map(p -> p.key)
                 .findFirst().orElse(null);
@@ -199,11 +251,20 @@ public final class MapPaintUtils {
             }
 
             styleSource.loadStyleSource();
+            KNOWN_SOURCES.addAll(sources);
         } catch (IOException e) {
             Logging.error(e);
         }
     }
 
+    private static synchronized ScheduledExecutorService getExecutor() {
+        if (executor == null) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newThreadFactory("mapwithai-paintstyle-%d", Thread.NORM_PRIORITY));
+        }
+        return executor;
+    }
+
     private static void writeZipData(ZipFile file, String group, List<String> sources) throws IOException {
         try (ZipOutputStream out = new ZipOutputStream(Files.newOutputStream(Paths.get(file.getName() + ".tmp")))) {
             for (Iterator<? extends ZipEntry> e = file.stream().iterator(); e.hasNext();) {
@@ -4,7 +4,10 @@ package org.openstreetmap.josm.plugins.mapwithai.backend;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
@@ -12,6 +15,7 @@ import org.junit.jupiter.api.extension.RegisterExtension;
 import org.openstreetmap.josm.data.Bounds;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.OsmTransferException;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAICategory;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIType;
@@ -70,8 +74,13 @@ class BoundingBoxMapWithAIDownloaderTest {
                         .withBody("<osm version=\"0.6\"><node id=\"1\" lat=\"0\" lon=\"0\" version=\"1\"/></osm>")));
         final DataSet ds = assertDoesNotThrow(
                 () -> boundingBoxMapWithAIDownloader.parseOsm(NullProgressMonitor.INSTANCE));
-        assertEquals(1, ds.allPrimitives().size());
-        assertEquals(1L, ds.allPrimitives().iterator().next().getPrimitiveId().getUniqueId());
+        // The unconflated data is returned immediately
+        assertEquals(2, ds.allPrimitives().size());
+        final CompletableFuture<DataSet> conflation = boundingBoxMapWithAIDownloader.getConflatedData();
+        assertNotNull(conflation);
+        final DataSet conflated = assertDoesNotThrow(() -> conflation.get(10, TimeUnit.SECONDS));
+        assertEquals(1, conflated.allPrimitives().size());
+        assertEquals(1L, conflated.allPrimitives().iterator().next().getPrimitiveId().getUniqueId());
 
         final GetServeEventsResult serveEvents = this.wireMockServer
                 .getServeEvents(ServeEventQuery.forStubMapping(conflationStub));
@@ -112,4 +121,126 @@ class BoundingBoxMapWithAIDownloaderTest {
         this.wireMockServer.verify(0, RequestPatternBuilder.forCustomMatcher(resultOffset.getRequest()));
         this.wireMockServer.verify(1, RequestPatternBuilder.forCustomMatcher(noResultOffset.getRequest()));
     }
+
+    @Test
+    void testEsriPagination() {
+        MapWithAIInfo.THIRD_PARTY_CONFLATE.put(false);
+        final MapWithAIInfo info = new MapWithAIInfo("testEsriPagination", this.wireMockServer.baseUrl() + "/esri",
+                MapWithAIType.ESRI_FEATURE_SERVER.getTypeString(), null, "testEsriPagination");
+        final BoundingBoxMapWithAIDownloader boundingBoxMapWithAIDownloader = new BoundingBoxMapWithAIDownloader(
+                new Bounds(-10, -10, 10, 10), info, false);
+        this.wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/esri/query"))
+                .withQueryParam("returnCountOnly", new EqualToPattern("true"))
+                .willReturn(WireMock.aResponse().withBody("{\"properties\":{\"count\":5}}")));
+        final StubMapping[] pages = new StubMapping[3];
+        for (int page = 0; page < pages.length; page++) {
+            pages[page] = this.wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/esri/query"))
+                    .withQueryParam("returnCountOnly", AbsentPattern.ABSENT)
+                    .withQueryParam("resultOffset", new EqualToPattern(Integer.toString(2 * page)))
+                    .willReturn(WireMock.aResponse().withBody(getEsriPage(2 * page, Math.min(5, 2 * page + 2)))));
+        }
+
+        final DataSet ds = assertDoesNotThrow(
+                () -> boundingBoxMapWithAIDownloader.parseOsm(NullProgressMonitor.INSTANCE));
+        assertEquals(5, ds.getNodes().stream().filter(node -> node.hasKey("name")).count());
+        for (StubMapping page : pages) {
+            this.wireMockServer.verify(1, RequestPatternBuilder.forCustomMatcher(page.getRequest()));
+        }
+    }
+
+    @Test
+    void testEsriPageFailure() throws OsmTransferException {
+        MapWithAIInfo.THIRD_PARTY_CONFLATE.put(false);
+        DownloadRetry.MAX_RETRIES.put(0);
+        final MapWithAIInfo info = new MapWithAIInfo("testEsriPageFailure", this.wireMockServer.baseUrl() + "/esri",
+                MapWithAIType.ESRI_FEATURE_SERVER.getTypeString(), null, "testEsriPageFailure");
+        final BoundingBoxMapWithAIDownloader downloader = new BoundingBoxMapWithAIDownloader(
+                new Bounds(-10, -10, 10, 10), info, false);
+        this.wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/esri/query"))
+                .withQueryParam("returnCountOnly", new EqualToPattern("true"))
+                .willReturn(WireMock.aResponse().withBody("{\"properties\":{\"count\":5}}")));
+        for (int page = 0; page < 3; page += 2) {
+            this.wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/esri/query"))
+                    .withQueryParam("returnCountOnly", AbsentPattern.ABSENT)
+                    .withQueryParam("resultOffset", new EqualToPattern(Integer.toString(2 * page)))
+                    .willReturn(WireMock.aResponse().withBody(getEsriPage(2 * page, Math.min(5, 2 * page + 2)))));
+        }
+        final StubMapping failedPage = this.wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/esri/query"))
+                .withQueryParam("returnCountOnly", AbsentPattern.ABSENT)
+                .withQueryParam("resultOffset", new EqualToPattern("2")).willReturn(WireMock.status(503)));
+
+        try {
+            // Part of the data is not returned
+            assertTrue(downloader.parseOsm(NullProgressMonitor.INSTANCE).isEmpty());
+            assertTrue(downloader.hasFailed());
+            // The failed page is tried again
+            this.wireMockServer.verify(2, RequestPatternBuilder.forCustomMatcher(failedPage.getRequest()));
+        } finally {
+            MapWithAICircuitBreaker.reset();
+        }
+    }
+
+    @Test
+    void testNotModified() throws OsmTransferException {
+        MapWithAIInfo.THIRD_PARTY_CONFLATE.put(false);
+        MapWithAIDataCache.clear();
+        final MapWithAIInfo info = new MapWithAIInfo("testNotModified",
+                this.wireMockServer.baseUrl() + "/testNotModified", "testNotModified");
+        final Bounds downloadBounds = new Bounds(-10, -10, 10, 10);
+        this.wireMockServer.stubFor(WireMock.get("/testNotModified").willReturn(
+                WireMock.aResponse().withHeader("ETag", "\"1\"").withBody(TEST_DATA)));
+        this.wireMockServer.stubFor(WireMock.get("/testNotModified")
+                .withHeader("If-None-Match", new EqualToPattern("\"1\"")).willReturn(WireMock.status(304)));
+
+        final BoundingBoxMapWithAIDownloader first = new BoundingBoxMapWithAIDownloader(downloadBounds, info, false);
+        final DataSet ds = first.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals("\"1\"", first.getResponseValidators().getETag());
+        // Pretend that the cached copy is a modified version of the data
+        ds.getNodes().iterator().next().put("cached", "yes");
+        MapWithAIDataCache.put(info, downloadBounds, false, ds, first.getResponseValidators());
+
+        final BoundingBoxMapWithAIDownloader second = new BoundingBoxMapWithAIDownloader(downloadBounds, info, false);
+        second.setValidators(MapWithAIDataCache.getValidators(info, downloadBounds, false));
+        final DataSet revalidated = second.parseOsm(NullProgressMonitor.INSTANCE);
+        assertEquals(1, revalidated.getNodes().stream().filter(node -> node.hasKey("cached")).count());
+        assertEquals("\"1\"", second.getResponseValidators().getETag());
+        MapWithAIDataCache.clear();
+    }
+
+    @Test
+    void testCircuitBreaker() throws OsmTransferException {
+        MapWithAIInfo.THIRD_PARTY_CONFLATE.put(false);
+        DownloadRetry.MAX_RETRIES.put(0);
+        final MapWithAIInfo info = new MapWithAIInfo("testCircuitBreaker",
+                this.wireMockServer.baseUrl() + "/testCircuitBreaker", "testCircuitBreaker");
+        final Bounds downloadBounds = new Bounds(-10, -10, 10, 10);
+        final StubMapping unavailable = this.wireMockServer
+                .stubFor(WireMock.get("/testCircuitBreaker").willReturn(WireMock.status(503)));
+        try {
+            for (int i = 0; i < MapWithAICircuitBreaker.FAILURE_THRESHOLD.get() + 2; i++) {
+                // The data will be downloaded later
+                assertTrue(new BoundingBoxMapWithAIDownloader(downloadBounds, info, false)
+                        .parseOsm(NullProgressMonitor.INSTANCE).isEmpty());
+            }
+            assertTrue(MapWithAICircuitBreaker.get(info).isOpen());
+            // Nothing is sent to the server while the breaker is open
+            this.wireMockServer.verify(MapWithAICircuitBreaker.FAILURE_THRESHOLD.get(),
+                    RequestPatternBuilder.forCustomMatcher(unavailable.getRequest()));
+        } finally {
+            MapWithAICircuitBreaker.reset();
+        }
+    }
+
+    private static String getEsriPage(int start, int end) {
+        final StringBuilder features = new StringBuilder();
+        for (int i = start; i < end; i++) {
+            if (i > start) {
+                features.append(',');
+            }
+            features.append("{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[").append(i)
+                    .append(",0]},\"properties\":{\"name\":\"").append(i).append("\"}}");
+        }
+        return "{\"type\":\"FeatureCollection\",\"properties\":{\"exceededTransferLimit\":" + (end < 5)
+                + "},\"features\":[" + features + "]}";
+    }
 }
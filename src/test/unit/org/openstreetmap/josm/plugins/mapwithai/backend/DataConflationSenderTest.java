@@ -3,10 +3,20 @@ package org.openstreetmap.josm.plugins.mapwithai.backend;
 
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.util.Collections;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Stream;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -17,8 +27,11 @@ import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.BBox;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.RelationMember;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAICategory;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIConflationCategory;
@@ -31,7 +44,9 @@ import org.openstreetmap.josm.testutils.annotations.BasicWiremock;
 import com.github.tomakehurst.wiremock.WireMockServer;
 import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.Scenario;
 import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+import com.github.tomakehurst.wiremock.verification.LoggedRequest;
 
 import mockit.Invocation;
 import mockit.Mock;
@@ -131,6 +146,119 @@ class DataConflationSenderTest {
                 .filter(serveEvent -> stubMapping.equals(serveEvent.getStubMapping())).count());
     }
 
+    @Test
+    void testOnlyNearbyOsmDataSent() {
+        MapWithAIConflationCategoryMock.url = wireMockServer.baseUrl() + "/conflate";
+        final StubMapping stubMapping = wireMockServer.stubFor(WireMock.post("/conflate").willReturn(WireMock
+                .aResponse().withBody("<?xml version='1.0' encoding='UTF-8'?><osm version='0.6'></osm>")));
+        new MapWithAIConflationCategoryMock();
+
+        final DataSet external = new DataSet(new Node(new LatLon(10, 10)));
+        final Node near = new Node(1, 1);
+        near.setCoor(new LatLon(10.0005, 10));
+        final Node far = new Node(2, 1);
+        far.setCoor(new LatLon(20, 20));
+        final DataSet openstreetmap = new DataSet(near, far);
+        new DataConflationSender(MapWithAICategory.OTHER, openstreetmap, external).run();
+
+        final LoggedRequest request = wireMockServer.getAllServeEvents().stream()
+                .filter(serveEvent -> stubMapping.equals(serveEvent.getStubMapping())).findFirst()
+                .orElseThrow(AssertionError::new).getRequest();
+        final String osm = request.getPart("openstreetmap").getBody().asString();
+        assertTrue(osm.contains("id='1'"), osm);
+        assertFalse(osm.contains("id='2'"), osm);
+        assertTrue(request.getPart("external").getBody().asString().contains("<node"));
+    }
+
+    @Test
+    void testCopyScope() {
+        final Node near = new Node(1, 1);
+        near.setCoor(new LatLon(10, 10));
+        final Node far = new Node(2, 1);
+        far.setCoor(new LatLon(20, 20));
+        final Relation relation = new Relation(3, 1);
+        final DataSet openstreetmap = new DataSet(near, far);
+        relation.addMember(new RelationMember("near", near));
+        relation.addMember(new RelationMember("far", far));
+        openstreetmap.addPrimitive(relation);
+        final BBox scope = new BBox(9.9, 9.9, 10.1, 10.1);
+
+        final DataSet copy = DataConflationSender.copyScope(openstreetmap, scope);
+        final Node nearCopy = (Node) copy.getPrimitiveById(near);
+        assertNotSame(near, nearCopy);
+        assertEquals(near.getCoor(), nearCopy.getCoor());
+        // Members outside of the area are only referenced
+        final Relation relationCopy = (Relation) copy.getPrimitiveById(relation);
+        assertEquals(2, relationCopy.getMembersCount());
+        assertTrue(relationCopy.getMember(1).getMember().isIncomplete());
+        // The original data is not changed
+        assertSame(openstreetmap, near.getDataSet());
+        assertEquals(Collections.singletonList(relation), near.getReferrers());
+    }
+
+    @Test
+    void testCompressedRequest() {
+        DataConflationSender.COMPRESS_REQUEST.put(true);
+        try {
+            MapWithAIConflationCategoryMock.url = wireMockServer.baseUrl() + "/conflate";
+            final StubMapping stubMapping = wireMockServer.stubFor(WireMock.post("/conflate").willReturn(WireMock
+                    .aResponse().withBody("<?xml version='1.0' encoding='UTF-8'?><osm version='0.6'></osm>")));
+            new MapWithAIConflationCategoryMock();
+
+            final DataSet external = new DataSet(new Node(new LatLon(10, 10)));
+            new DataConflationSender(MapWithAICategory.OTHER, null, external).run();
+            final LoggedRequest request = wireMockServer.getAllServeEvents().stream()
+                    .filter(serveEvent -> stubMapping.equals(serveEvent.getStubMapping())).findFirst()
+                    .orElseThrow(AssertionError::new).getRequest();
+            assertEquals("gzip", request.getHeader("Content-Encoding"));
+        } finally {
+            DataConflationSender.COMPRESS_REQUEST.put(false);
+        }
+    }
+
+    @Test
+    void testPolling() throws ExecutionException, InterruptedException, TimeoutException {
+        MapWithAIConflationCategoryMock.url = wireMockServer.baseUrl() + "/conflate";
+        wireMockServer.stubFor(WireMock.post("/conflate")
+                .willReturn(WireMock.aResponse().withStatus(202).withHeader("Location", "/conflate/job/1")));
+        wireMockServer.stubFor(WireMock.get("/conflate/job/1").inScenario("polling")
+                .whenScenarioStateIs(Scenario.STARTED).willReturn(WireMock.aResponse().withStatus(202))
+                .willSetStateTo("conflated"));
+        final StubMapping conflated = wireMockServer.stubFor(WireMock.get("/conflate/job/1").inScenario("polling")
+                .whenScenarioStateIs("conflated").willReturn(WireMock.aResponse().withBody(
+                        "<?xml version='1.0' encoding='UTF-8'?><osm version='0.6'><node id='1' version='1' lat='89.0' lon='0.1' /></osm>")));
+        new MapWithAIConflationCategoryMock();
+
+        final DataSet external = new DataSet(new Node(LatLon.NORTH_POLE));
+        final DataConflationSender dataConflationSender = new DataConflationSender(MapWithAICategory.OTHER, null,
+                external);
+        final DataSet data = dataConflationSender.submit().get(10, TimeUnit.SECONDS);
+        assertNotNull(data);
+        assertEquals(new LatLon(89, 0.1), data.getNodes().iterator().next().getCoor());
+        assertEquals(1, wireMockServer.getAllServeEvents().stream()
+                .filter(serveEvent -> conflated.equals(serveEvent.getStubMapping())).count());
+    }
+
+    @Test
+    void testCancel() {
+        MapWithAIConflationCategoryMock.url = wireMockServer.baseUrl() + "/conflate";
+        wireMockServer.stubFor(WireMock.post("/conflate")
+                .willReturn(WireMock.aResponse().withStatus(202).withHeader("Location", "/conflate/job/1")));
+        wireMockServer.stubFor(WireMock.get("/conflate/job/1").willReturn(WireMock.aResponse().withStatus(202)));
+        new MapWithAIConflationCategoryMock();
+
+        final DataSet external = new DataSet(new Node(LatLon.NORTH_POLE));
+        final DataConflationSender dataConflationSender = new DataConflationSender(MapWithAICategory.OTHER, null,
+                external);
+        final CompletableFuture<DataSet> future = dataConflationSender.submit();
+        assertFalse(future.isDone());
+        // Cancelling the future should stop the polling
+        assertTrue(future.cancel(true));
+        assertTrue(dataConflationSender.isCancelled());
+        assertTrue(dataConflationSender.isDone());
+        assertThrows(CancellationException.class, future::join);
+    }
+
     static Stream<Arguments> testNonWorkingUrl() {
         return Stream.of(Arguments.of(WireMock.noContent()), Arguments.of(WireMock.notFound()),
                 Arguments.of(WireMock.forbidden()), Arguments.of(WireMock.serverError()),
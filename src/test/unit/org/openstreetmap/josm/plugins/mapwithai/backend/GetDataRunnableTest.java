@@ -5,12 +5,14 @@ import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assumptions.assumeTrue;
 
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +26,7 @@ import org.openstreetmap.josm.data.coor.LatLon;
 import org.openstreetmap.josm.data.osm.DataSet;
 import org.openstreetmap.josm.data.osm.IWaySegment;
 import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.data.projection.ProjectionRegistry;
 import org.openstreetmap.josm.gui.MainApplication;
@@ -166,4 +169,75 @@ class GetDataRunnableTest {
         assertAll(() -> assertFalse(emptyNode.isDeleted()), () -> assertFalse(taggedNode.isDeleted()),
                 () -> assertTrue(ds.containsNode(emptyNode)), () -> assertTrue(ds.containsNode(taggedNode)));
     }
+
+    @Test
+    void testMergeNodesInSameGridCell() {
+        final DataSet ds = new DataSet();
+        final Node node1 = new Node(new LatLon(39.0000001, -108.0000001));
+        final Node node2 = new Node(new LatLon(39.0000002, -108.0000002));
+        final Node farNode = new Node(new LatLon(39.01, -108.01));
+        ds.addPrimitive(node1);
+        ds.addPrimitive(node2);
+        ds.addPrimitive(farNode);
+        GetDataRunnable.cleanup(ds, null, null);
+        assertAll(() -> assertEquals(1, ds.getNodes().stream().filter(node -> !node.isDeleted())
+                .filter(node -> node != farNode).count()), () -> assertFalse(farNode.isDeleted()));
+    }
+
+    @Test
+    void testGridKey() {
+        assertEquals(GetDataRunnable.getGridKey(new LatLon(39.0000001, -108.0000001)),
+                GetDataRunnable.getGridKey(new LatLon(39.0000002, -108.0000002)));
+        assertNotEquals(GetDataRunnable.getGridKey(new LatLon(39, -108)),
+                GetDataRunnable.getGridKey(new LatLon(-108, 39)));
+        assertNotEquals(GetDataRunnable.getGridKey(new LatLon(39, -108)),
+                GetDataRunnable.getGridKey(new LatLon(39, 108)));
+    }
+
+    @Test
+    void testIncrementalCleanup() {
+        final DataSet ds = new DataSet();
+        // Previously merged data that is far away from the new data
+        final Node oldNode1 = new Node(new LatLon(39.5000001, -108.5000001));
+        final Node oldNode2 = new Node(new LatLon(39.5000002, -108.5000002));
+        // Previously merged data that is next to the new data
+        final Node oldNode3 = new Node(new LatLon(39.0000001, -108.0000001));
+        final Node newNode = new Node(new LatLon(39.0000002, -108.0000002));
+        for (Node node : Arrays.asList(oldNode1, oldNode2, oldNode3, newNode)) {
+            ds.addPrimitive(node);
+        }
+        GetDataRunnable.incrementalCleanup(ds, Collections.singleton(newNode), null);
+        assertAll(() -> assertFalse(oldNode1.isDeleted()), () -> assertFalse(oldNode2.isDeleted()),
+                () -> assertTrue(oldNode3.isDeleted() ^ newNode.isDeleted()));
+    }
+
+    @Test
+    void testMergeAndIncrementalCleanup() {
+        final DataSet ds = new DataSet();
+        // Previously merged data that is between the new data, but far away from it
+        final Node oldNode1 = new Node(new LatLon(39.5000001, -107.5000001));
+        final Node oldNode2 = new Node(new LatLon(39.5000002, -107.5000002));
+        // Previously merged data that is next to the new data
+        final Node oldNode3 = new Node(new LatLon(39.0000001, -108.0000001));
+        final Node oldNode4 = new Node(new LatLon(40.0000001, -107.0000001));
+        for (Node node : Arrays.asList(oldNode1, oldNode2, oldNode3, oldNode4)) {
+            ds.addPrimitive(node);
+        }
+        final DataSet newData = new DataSet();
+        final Node newNode1 = new Node(new LatLon(39.0000002, -108.0000002));
+        final Node newNode2 = new Node(new LatLon(40.0000002, -107.0000002));
+        newData.addPrimitive(newNode1);
+        newData.addPrimitive(newNode2);
+
+        final Collection<OsmPrimitive> merged = GetDataRunnable.mergeFrom(ds, newData);
+        // The copies in the dataset are returned, not the merged primitives
+        assertEquals(2, merged.size());
+        assertTrue(merged.stream().allMatch(primitive -> primitive.getDataSet() == ds));
+        assertFalse(merged.contains(newNode1) || merged.contains(newNode2));
+
+        GetDataRunnable.incrementalCleanup(ds, merged, null);
+        assertAll(() -> assertFalse(oldNode1.isDeleted()), () -> assertFalse(oldNode2.isDeleted()),
+                () -> assertEquals(4, ds.getNodes().stream().filter(node -> !node.isDeleted()).count()),
+                () -> assertTrue(oldNode3.isDeleted() || merged.stream().anyMatch(OsmPrimitive::isDeleted)));
+    }
 }
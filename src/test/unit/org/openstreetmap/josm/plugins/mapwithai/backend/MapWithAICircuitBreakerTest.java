@@ -0,0 +1,87 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAICircuitBreaker}
+ */
+@BasicPreferences
+class MapWithAICircuitBreakerTest {
+    @AfterEach
+    void tearDown() {
+        MapWithAICircuitBreaker.reset();
+    }
+
+    @Test
+    void testOpen() {
+        final MapWithAIInfo info = new MapWithAIInfo("testOpen", "https://example.com/{bbox}", "testOpen");
+        final MapWithAICircuitBreaker breaker = MapWithAICircuitBreaker.get(info);
+        assertSame(breaker, MapWithAICircuitBreaker.get(info));
+        for (int i = 1; i < MapWithAICircuitBreaker.FAILURE_THRESHOLD.get(); i++) {
+            breaker.recordFailure();
+            assertTrue(breaker.allowRequest());
+            assertFalse(breaker.isOpen());
+        }
+        breaker.recordFailure();
+        assertTrue(breaker.isOpen());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingTime() > 0);
+
+        // Other sources are not affected
+        final MapWithAIInfo other = new MapWithAIInfo("other", "https://example.com/{bbox}", "other");
+        assertTrue(MapWithAICircuitBreaker.get(other).allowRequest());
+
+        breaker.recordSuccess();
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertEquals(0, breaker.getRemainingTime());
+    }
+
+    @Test
+    void testHalfOpen() {
+        MapWithAICircuitBreaker.FAILURE_THRESHOLD.put(1);
+        final AtomicLong time = new AtomicLong();
+        final MapWithAICircuitBreaker breaker = new MapWithAICircuitBreaker(time::get);
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+
+        // Once the backoff has passed, a single request is let through
+        time.addAndGet(MapWithAICircuitBreaker.BASE_DELAY);
+        assertFalse(breaker.isOpen());
+        assertTrue(breaker.allowRequest());
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.isOpen());
+
+        // The request failed, so the breaker is open for longer
+        breaker.recordFailure();
+        assertFalse(breaker.allowRequest());
+        assertTrue(breaker.getRemainingTime() >= MapWithAICircuitBreaker.BASE_DELAY);
+        time.addAndGet(2 * MapWithAICircuitBreaker.BASE_DELAY);
+        assertTrue(breaker.allowRequest());
+        breaker.recordSuccess();
+        assertTrue(breaker.allowRequest());
+        assertTrue(breaker.allowRequest());
+    }
+
+    @Test
+    void testBackoff() {
+        for (int attempt = 0; attempt < 100; attempt++) {
+            final long expected = Math.min(MapWithAICircuitBreaker.MAX_DELAY,
+                    attempt < 20 ? MapWithAICircuitBreaker.BASE_DELAY << attempt : Long.MAX_VALUE);
+            final long backoff = MapWithAICircuitBreaker.getBackoff(attempt);
+            assertTrue(backoff >= expected / 2, Long.toString(backoff));
+            assertTrue(backoff <= expected, Long.toString(backoff));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.TestUtils;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAIDataCache}
+ */
+@BasicPreferences
+class MapWithAIDataCacheTest {
+    private static final Bounds BOUNDS = new Bounds(39.0, -108.0, 39.1, -107.9);
+
+    @BeforeEach
+    @AfterEach
+    void clear() {
+        MapWithAIDataCache.clear();
+    }
+
+    @Test
+    void testRoundTrip() {
+        final MapWithAIInfo info = new MapWithAIInfo("testRoundTrip", "https://example.com/{bbox}", "testRoundTrip");
+        final DataSet dataSet = new DataSet();
+        final Way way = TestUtils.newWay("highway=residential", new Node(new LatLon(39.01, -107.99)),
+                new Node(new LatLon(39.02, -107.98)));
+        way.getNodes().forEach(dataSet::addPrimitive);
+        dataSet.addPrimitive(way);
+
+        assertNull(MapWithAIDataCache.get(info, BOUNDS, false));
+        assertFalse(MapWithAIDataCache.contains(info, BOUNDS, false));
+        MapWithAIDataCache.put(info, BOUNDS, false, dataSet);
+        assertTrue(MapWithAIDataCache.contains(info, BOUNDS, false));
+        final DataSet cached = MapWithAIDataCache.get(info, BOUNDS, false);
+        assertNotNull(cached);
+        assertEquals(1, cached.getWays().size());
+        assertEquals(2, cached.getNodes().size());
+        assertEquals("residential", cached.getWays().iterator().next().get("highway"));
+
+        // Different sources and different bounds must not share entries
+        final MapWithAIInfo other = new MapWithAIInfo("other", "https://example.com/{bbox}", "other");
+        assertNull(MapWithAIDataCache.get(other, BOUNDS, false));
+        assertNull(MapWithAIDataCache.get(info, new Bounds(39.1, -108.0, 39.2, -107.9), false));
+    }
+
+    @Test
+    void testEmptyDataSetNotCached() {
+        final MapWithAIInfo info = new MapWithAIInfo("testEmpty", "https://example.com/{bbox}", "testEmpty");
+        MapWithAIDataCache.put(info, BOUNDS, false, new DataSet());
+        assertNull(MapWithAIDataCache.get(info, BOUNDS, false));
+    }
+
+    @Test
+    void testDisabled() {
+        final MapWithAIInfo info = new MapWithAIInfo("testDisabled", "https://example.com/{bbox}", "testDisabled");
+        final DataSet dataSet = new DataSet(new Node(new LatLon(39.01, -107.99)));
+        MapWithAIDataCache.put(info, BOUNDS, false, dataSet);
+        MapWithAIDataCache.ENABLED.put(false);
+        assertNull(MapWithAIDataCache.get(info, BOUNDS, false));
+        MapWithAIDataCache.ENABLED.put(true);
+        assertNotNull(MapWithAIDataCache.get(info, BOUNDS, false));
+    }
+
+    @Test
+    void testKey() {
+        final MapWithAIInfo info = new MapWithAIInfo("testKey", "https://example.com/{bbox}", "testKey");
+        assertEquals(MapWithAIDataCache.getKey(info, BOUNDS, false),
+                MapWithAIDataCache.getKey(info, new Bounds(BOUNDS), false));
+        assertNotEquals(MapWithAIDataCache.getKey(info, BOUNDS, false),
+                MapWithAIDataCache.getKey(info, new Bounds(39.0, -108.0, 39.1, -107.8), false));
+    }
+
+    @Test
+    void testValidators() {
+        final MapWithAIInfo info = new MapWithAIInfo("testValidators", "https://example.com/{bbox}", "testValidators");
+        final DataSet dataSet = new DataSet(new Node(new LatLon(39.01, -107.99)));
+        MapWithAIDataCache.put(info, BOUNDS, false, dataSet, new MapWithAIDataCache.Validators("\"1\"", null));
+        assertNotNull(MapWithAIDataCache.get(info, BOUNDS, false));
+        assertEquals("\"1\"", MapWithAIDataCache.getValidators(info, BOUNDS, false).getETag());
+
+        // Data that is too old must be revalidated, but is still available
+        MapWithAIDataCache.put(info, BOUNDS, false, dataSet,
+                new MapWithAIDataCache.Validators(null, "Wed, 21 Oct 2015 07:28:00 GMT", 0));
+        assertNull(MapWithAIDataCache.get(info, BOUNDS, false));
+        assertFalse(MapWithAIDataCache.contains(info, BOUNDS, false));
+        assertNotNull(MapWithAIDataCache.getStale(info, BOUNDS, false));
+        assertEquals("Wed, 21 Oct 2015 07:28:00 GMT",
+                MapWithAIDataCache.getValidators(info, BOUNDS, false).getLastModified());
+
+        // No validators, so nothing to revalidate with
+        MapWithAIDataCache.put(info, BOUNDS, false, dataSet);
+        assertNull(MapWithAIDataCache.getValidators(info, BOUNDS, false));
+        assertTrue(MapWithAIDataCache.contains(info, BOUNDS, false));
+        assertNotNull(MapWithAIDataCache.get(info, BOUNDS, false));
+    }
+}
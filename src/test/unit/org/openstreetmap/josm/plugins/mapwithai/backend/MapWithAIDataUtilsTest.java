@@ -4,6 +4,7 @@ package org.openstreetmap.josm.plugins.mapwithai.backend;
 import static org.junit.jupiter.api.Assertions.assertAll;
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
 import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -13,6 +14,11 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Disabled;
@@ -30,6 +36,7 @@ import org.openstreetmap.josm.data.osm.OsmPrimitive;
 import org.openstreetmap.josm.data.osm.Way;
 import org.openstreetmap.josm.gui.MainApplication;
 import org.openstreetmap.josm.gui.layer.GpxLayer;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
 import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
 import org.openstreetmap.josm.plugins.mapwithai.testutils.MapWithAITestRules;
 import org.openstreetmap.josm.plugins.mapwithai.testutils.annotations.MapWithAISources;
@@ -37,8 +44,13 @@ import org.openstreetmap.josm.plugins.mapwithai.testutils.annotations.NoExceptio
 import org.openstreetmap.josm.plugins.mapwithai.testutils.annotations.Wiremock;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
 import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+import org.openstreetmap.josm.testutils.annotations.BasicWiremock;
 import org.openstreetmap.josm.tools.Logging;
 
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import com.github.tomakehurst.wiremock.stubbing.StubMapping;
+
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 
 /**
@@ -58,6 +70,9 @@ public class MapWithAIDataUtilsTest {
     @SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
     static JOSMTestRules test = new MapWithAITestRules().main().projection().fakeAPI().territories();
 
+    @BasicWiremock
+    WireMockServer wireMockServer;
+
     /**
      * This gets data from MapWithAI. This test may fail if someone adds the data to
      * OSM.
@@ -192,6 +207,76 @@ public class MapWithAIDataUtilsTest {
                 .filter(str -> !str.contains("Failed to locate image")).count());
     }
 
+    @Test
+    void testConcurrentDownloadsAreCoalesced() throws ExecutionException, InterruptedException, TimeoutException {
+        MapWithAIDataCache.ENABLED.put(false);
+        final StubMapping stubMapping = wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/coalesce"))
+                .willReturn(WireMock.aResponse().withFixedDelay(500).withBody(
+                        "<osm version=\"0.6\"><node id=\"1\" lat=\"39.05\" lon=\"-108.05\" version=\"1\"/></osm>")));
+        final MapWithAIInfo info = new MapWithAIInfo("testConcurrentDownloadsAreCoalesced",
+                wireMockServer.baseUrl() + "/coalesce?bbox={bbox}");
+        final Bounds bounds = new Bounds(39.0, -108.1, 39.1, -108.0);
+
+        final CompletableFuture<DataSet> first = MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, bounds,
+                info, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
+        final CompletableFuture<DataSet> second = MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, bounds,
+                info, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
+        final DataSet firstData = first.get(10, TimeUnit.SECONDS);
+        final DataSet secondData = second.get(10, TimeUnit.SECONDS);
+
+        assertEquals(1, wireMockServer.getAllServeEvents().stream()
+                .filter(serveEvent -> stubMapping.equals(serveEvent.getStubMapping())).count());
+        assertEquals(1, firstData.getNodes().size());
+        assertEquals(1, secondData.getNodes().size());
+        // Merging modifies the source dataset, so each caller gets its own copy
+        assertNotSame(firstData, secondData);
+        MapWithAIDataCache.ENABLED.put(true);
+    }
+
+    @Test
+    void testNestedDownloadsDoNotWaitForQueuedDownloads()
+            throws ExecutionException, InterruptedException, TimeoutException {
+        MapWithAIDataCache.ENABLED.put(false);
+        wireMockServer.stubFor(WireMock.get(WireMock.urlPathEqualTo("/nested")).willReturn(WireMock.aResponse()
+                .withBody("<osm version=\"0.6\"><node id=\"1\" lat=\"39.05\" lon=\"-108.05\" version=\"1\"/></osm>")));
+        final MapWithAIInfo info = new MapWithAIInfo("testNestedDownloadsDoNotWaitForQueuedDownloads",
+                wireMockServer.baseUrl() + "/nested?bbox={bbox}");
+        final List<Bounds> parts = Arrays.asList(new Bounds(39.0, -108.15, 39.1, -108.1),
+                new Bounds(39.0, -108.1, 39.1, -108.05), new Bounds(39.0, -108.05, 39.1, -108.0));
+
+        final MapWithAIDownloadScheduler scheduler = MapWithAIDownloadScheduler.getInstance();
+        final String host = MapWithAIDownloadScheduler.getHost(info);
+        final int slots = MapWithAIDownloadScheduler.MAX_HOST_DOWNLOADS.get();
+        final CountDownLatch started = new CountDownLatch(slots);
+        final CountDownLatch release = new CountDownLatch(1);
+        // Take every slot for the host with downloads that split themselves up, and overlap each other
+        final List<CompletableFuture<Integer>> outer = new ArrayList<>();
+        for (int i = 0; i < slots; i++) {
+            final List<Bounds> split = parts.subList(i % 2, i % 2 + 2);
+            outer.add(scheduler.submit(host, 0, () -> {
+                started.countDown();
+                assertTrue(release.await(10, TimeUnit.SECONDS));
+                int nodes = 0;
+                for (Bounds part : split) {
+                    nodes += MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE, part, info,
+                            MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS).join().getNodes().size();
+                }
+                return nodes;
+            }));
+        }
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // This download has to wait for a slot, and overlaps the nested downloads
+        final CompletableFuture<DataSet> queued = MapWithAIDataUtils.download(NullProgressMonitor.INSTANCE,
+                parts.get(1), info, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
+        release.countDown();
+
+        for (CompletableFuture<Integer> future : outer) {
+            assertEquals(2, future.get(10, TimeUnit.SECONDS));
+        }
+        assertEquals(1, queued.get(10, TimeUnit.SECONDS).getNodes().size());
+        MapWithAIDataCache.ENABLED.put(true);
+    }
+
     private static int getExpectedNumberOfBBoxes(Bounds bbox) {
         double width = MapWithAIDataUtils.getWidth(bbox);
         double height = MapWithAIDataUtils.getHeight(bbox);
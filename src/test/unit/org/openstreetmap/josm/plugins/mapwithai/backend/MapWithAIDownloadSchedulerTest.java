@@ -0,0 +1,104 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+import org.openstreetmap.josm.tools.Utils;
+
+/**
+ * Test class for {@link MapWithAIDownloadScheduler}
+ */
+@BasicPreferences
+class MapWithAIDownloadSchedulerTest {
+    @Test
+    void testHostLimit() throws InterruptedException, ExecutionException, TimeoutException {
+        final MapWithAIDownloadScheduler scheduler = new MapWithAIDownloadScheduler(4, 1, 10);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final CompletableFuture<Boolean> blocking = scheduler.submit("a", 0, () -> latch.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<String> sameHost = scheduler.submit("a", 0, () -> "a");
+        final CompletableFuture<String> otherHost = scheduler.submit("b", 0, () -> "b");
+
+        // The other host is not limited by the first host
+        assertEquals("b", otherHost.get(5, TimeUnit.SECONDS));
+        assertFalse(sameHost.isDone());
+
+        latch.countDown();
+        assertEquals("a", sameHost.get(5, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, blocking.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testPriority() throws InterruptedException, ExecutionException, TimeoutException {
+        final MapWithAIDownloadScheduler scheduler = new MapWithAIDownloadScheduler(1, 1, 10);
+        final CountDownLatch latch = new CountDownLatch(1);
+        final List<String> order = new CopyOnWriteArrayList<>();
+        scheduler.submit("a", 0, () -> latch.await(5, TimeUnit.SECONDS));
+        final CompletableFuture<Boolean> far = scheduler.submit("a", 100, () -> order.add("far"));
+        final CompletableFuture<Boolean> near = scheduler.submit("a", 1, () -> order.add("near"));
+
+        latch.countDown();
+        far.get(5, TimeUnit.SECONDS);
+        near.get(5, TimeUnit.SECONDS);
+        assertEquals(Arrays.asList("near", "far"), order);
+    }
+
+    @Test
+    void testNestedDownload() throws InterruptedException, ExecutionException, TimeoutException {
+        // A download that splits itself up must not wait for its own slot
+        final MapWithAIDownloadScheduler scheduler = new MapWithAIDownloadScheduler(1, 1, 1);
+        final CompletableFuture<String> outer = scheduler.submit("a", 0,
+                () -> scheduler.submit("a", 0, () -> "inner").join());
+        assertEquals("inner", outer.get(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    void testPlatformThreadExecutor() throws InterruptedException, ExecutionException, TimeoutException {
+        MapWithAIDownloadScheduler.VIRTUAL_THREADS.put(false);
+        final ExecutorService executor = MapWithAIDownloadScheduler.newExecutor("mapwithai-test-", 1);
+        try {
+            assertTrue(executor instanceof ThreadPoolExecutor);
+            assertEquals("mapwithai-test-0",
+                    executor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testVirtualThreadExecutor() throws InterruptedException, ExecutionException, TimeoutException {
+        assumeTrue(Utils.getJavaVersion() >= 21);
+        MapWithAIDownloadScheduler.VIRTUAL_THREADS.put(true);
+        final ExecutorService executor = MapWithAIDownloadScheduler.newExecutor("mapwithai-test-", 1);
+        try {
+            assertFalse(executor instanceof ThreadPoolExecutor);
+            // Virtual threads are always daemon threads
+            assertEquals(Boolean.TRUE,
+                    executor.submit(() -> Thread.currentThread().isDaemon()).get(5, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testGetHost() {
+        final MapWithAIInfo info = new MapWithAIInfo("Test", "https://example.com/data?bbox={bbox}");
+        assertEquals("example.com", MapWithAIDownloadScheduler.getHost(info));
+    }
+}
@@ -230,6 +230,17 @@ class MapWithAILayerTest {
                 "There should be two data sources");
     }
 
+    @Test
+    void testDownloadedTiles() {
+        assertTrue(layer.addDownloadedTile("0231"));
+        assertFalse(layer.addDownloadedTile("0231"));
+        assertTrue(layer.hasDownloadedTile("0231"));
+        // A tile that failed to download is downloaded again
+        layer.removeDownloadedTile("0231");
+        assertFalse(layer.hasDownloadedTile("0231"));
+        assertTrue(layer.addDownloadedTile("0231"));
+    }
+
     @Test
     void testGetMenuEntries() {
         Layer layer = MapWithAIDataUtils.getLayer(true);
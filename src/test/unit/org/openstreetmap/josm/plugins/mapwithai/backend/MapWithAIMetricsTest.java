@@ -0,0 +1,87 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAIMetrics}
+ */
+@BasicPreferences
+class MapWithAIMetricsTest {
+    private final MapWithAIInfo info = new MapWithAIInfo("testMetrics", "https://example.com/{bbox}", "testMetrics");
+
+    @AfterEach
+    void tearDown() {
+        MapWithAIMetrics.getInstance().reset();
+    }
+
+    @Test
+    void testRecord() {
+        final MapWithAIMetrics metrics = MapWithAIMetrics.getInstance();
+        long time = MapWithAIMetrics.start();
+        time = MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.HTTP, time);
+        MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.PARSE, time);
+        MapWithAIMetrics.record(null, MapWithAIMetrics.Stage.LAYER_MERGE, MapWithAIMetrics.start());
+        MapWithAIMetrics.recordRequest(this.info, 10);
+
+        assertEquals(1L, metrics.getRequests().get("testMetrics"));
+        assertEquals(10L, metrics.getFeatures().get("testMetrics"));
+        assertEquals(1L, metrics.getStageCounts().get("testMetrics/HTTP"));
+        assertEquals(1L, metrics.getStageCounts().get("testMetrics/PARSE"));
+        assertEquals(1L, metrics.getStageCounts().get(MapWithAIMetrics.ALL_SOURCES + "/LAYER_MERGE"));
+        assertTrue(metrics.getStageMillis().get("testMetrics/HTTP") >= 0);
+
+        final String report = metrics.getReport();
+        assertTrue(report.contains("testMetrics"), report);
+        assertTrue(report.contains("layer_merge"), report);
+
+        metrics.reset();
+        assertTrue(metrics.getRequests().isEmpty());
+        assertTrue(metrics.getReport().isEmpty());
+    }
+
+    @Test
+    void testDisabled() {
+        MapWithAIMetrics.ENABLED.put(false);
+        assertEquals(0, MapWithAIMetrics.start());
+        assertEquals(0, MapWithAIMetrics.record(this.info, MapWithAIMetrics.Stage.HTTP, MapWithAIMetrics.start()));
+        MapWithAIMetrics.recordRequest(this.info, 10);
+        MapWithAIMetrics.recordCache(this.info, true);
+        final InputStream inputStream = new ByteArrayInputStream(new byte[0]);
+        assertSame(inputStream, MapWithAIMetrics.count(this.info, inputStream));
+        assertTrue(MapWithAIMetrics.getInstance().getReport().isEmpty());
+    }
+
+    @Test
+    void testCache() {
+        MapWithAIMetrics.recordCache(this.info, true);
+        MapWithAIMetrics.recordCache(this.info, false);
+        MapWithAIMetrics.recordCache(this.info, false);
+        MapWithAIMetrics.recordCache(this.info, true);
+        assertEquals(0.5, MapWithAIMetrics.getInstance().getCacheHitRates().get("testMetrics"), 1e-9);
+    }
+
+    @Test
+    void testCount() throws IOException {
+        try (InputStream inputStream = MapWithAIMetrics.count(this.info, new ByteArrayInputStream(new byte[100]))) {
+            assertEquals(0, inputStream.read());
+            assertEquals(49, inputStream.read(new byte[49]));
+            assertEquals(10, inputStream.skip(10));
+            while (inputStream.read(new byte[16]) > 0) {
+                // Read the rest of the stream
+            }
+        }
+        assertEquals(100L, MapWithAIMetrics.getInstance().getBytesTransferred().get("testMetrics"));
+    }
+}
@@ -0,0 +1,73 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAIPrefetcher}
+ */
+@BasicPreferences
+class MapWithAIPrefetcherTest {
+    private static final Bounds VIEW = new Bounds(39.0, -108.0, 39.01, -107.99);
+
+    @Test
+    void testGetAhead() {
+        assertNull(MapWithAIPrefetcher.getAhead(VIEW, null));
+        // Small movements are not pans
+        assertNull(MapWithAIPrefetcher.getAhead(VIEW, new LatLon(39.005, -107.9951)));
+
+        // The view moved half a view to the east, so the next view is one view to the east
+        final Bounds ahead = MapWithAIPrefetcher.getAhead(VIEW, new LatLon(39.005, -108.0));
+        assertNotNull(ahead);
+        assertEquals(39.0, ahead.getMinLat(), 1e-9);
+        assertEquals(39.01, ahead.getMaxLat(), 1e-9);
+        assertEquals(-107.99, ahead.getMinLon(), 1e-9);
+        assertEquals(-107.98, ahead.getMaxLon(), 1e-9);
+    }
+
+    @Test
+    void testGetPredictedAreas() {
+        final Bounds dataSource = new Bounds(39.1, -108.1, 39.2, -108.0);
+        final List<Bounds> areas = MapWithAIPrefetcher.getPredictedAreas(VIEW, null, new Bounds(0, 0, 0, 0),
+                Collections.singleton(dataSource));
+        // The view, and the area around the data source (the tasking manager bounds are not valid)
+        assertEquals(2, areas.size());
+        assertEquals(VIEW, areas.get(0));
+        assertTrue(areas.get(1).contains(dataSource.getMin()));
+        assertTrue(areas.get(1).contains(dataSource.getMax()));
+        assertTrue(areas.get(1).getArea() > dataSource.getArea());
+    }
+
+    @Test
+    void testGetTiles() {
+        final List<MapWithAITiles.Tile> tiles = MapWithAIPrefetcher.getTiles(Collections.singletonList(VIEW),
+                VIEW.getCenter());
+        assertFalse(tiles.isEmpty());
+        // The closest tile is first
+        assertTrue(tiles.get(0).getBounds().contains(VIEW.getCenter()));
+
+        // The order of the areas is kept
+        final Bounds other = new Bounds(39.1, -108.1, 39.11, -108.09);
+        final List<MapWithAITiles.Tile> ordered = MapWithAIPrefetcher.getTiles(Arrays.asList(other, VIEW),
+                VIEW.getCenter());
+        assertTrue(ordered.get(0).getBounds().intersects(other));
+        assertTrue(ordered.get(ordered.size() - 1).getBounds().intersects(VIEW));
+
+        // Nothing is prefetched when zoomed out
+        assertTrue(MapWithAIPrefetcher
+                .getTiles(Collections.singletonList(new Bounds(30, -110, 40, -100)), VIEW.getCenter()).isEmpty());
+    }
+}
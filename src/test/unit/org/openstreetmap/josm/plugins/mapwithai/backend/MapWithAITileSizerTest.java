@@ -0,0 +1,81 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAIInfo;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAITileSizer}
+ */
+@BasicPreferences
+class MapWithAITileSizerTest {
+    private static final int MAXIMUM = MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS;
+    /** About 5 km x 5 km */
+    private static final Bounds RURAL = new Bounds(39.0, -108.0, 39.045, -107.942);
+    private static final Bounds CITY = new Bounds(40.7, -74.0, 40.745, -73.941);
+
+    private MapWithAIInfo info;
+
+    @BeforeEach
+    void setUp() {
+        MapWithAITileSizer.reset();
+        this.info = new MapWithAIInfo("testTileSizer", "https://example.com/{bbox}", "testTileSizer");
+    }
+
+    /**
+     * Record downloads for a server with a 200 ms overhead and a cost of 1 ms per
+     * feature
+     */
+    private void learn() {
+        for (int i = 0; i < 3; i++) {
+            MapWithAITileSizer.record(this.info, RURAL, 50, 250);
+            MapWithAITileSizer.record(this.info, CITY, 5_000, 5_200);
+        }
+    }
+
+    @Test
+    void testNothingLearned() {
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM));
+        // Not enough downloads to know how long a download takes
+        MapWithAITileSizer.record(this.info, CITY, 5_000, 5_200);
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM));
+    }
+
+    @Test
+    void testDensity() {
+        learn();
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(this.info, RURAL, MAXIMUM));
+        // About 24 square km (4800 features) of the city can be downloaded in 5 seconds
+        assertEquals(MAXIMUM / 4, MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM));
+
+        // Other sources have not been learned yet
+        final MapWithAIInfo other = new MapWithAIInfo("other", "https://example.com/{bbox}", "other");
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(other, CITY, MAXIMUM));
+
+        MapWithAITileSizer.ENABLED.put(false);
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM));
+    }
+
+    @Test
+    void testTimeout() {
+        learn();
+        MapWithAITileSizer.recordTimeout(this.info, RURAL, 50_000);
+        assertTrue(MapWithAITileSizer.getSideDimensions(this.info, RURAL, MAXIMUM) < MAXIMUM);
+    }
+
+    @Test
+    void testPersistence() {
+        learn();
+        final int city = MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM);
+        MapWithAITileSizer.save();
+        MapWithAITileSizer.reset();
+        assertEquals(city, MapWithAITileSizer.getSideDimensions(this.info, CITY, MAXIMUM));
+        assertEquals(MAXIMUM, MapWithAITileSizer.getSideDimensions(this.info, RURAL, MAXIMUM));
+    }
+}
@@ -0,0 +1,58 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link MapWithAITiles}
+ */
+@BasicPreferences
+class MapWithAITilesTest {
+    @Test
+    void testQuadkey() {
+        // See https://learn.microsoft.com/en-us/bingmaps/articles/bing-maps-tile-system
+        assertEquals("213", new MapWithAITiles.Tile(3, 5, 3).getQuadkey());
+        assertEquals("", new MapWithAITiles.Tile(0, 0, 0).getQuadkey());
+    }
+
+    @Test
+    void testTileIsStable() {
+        final MapWithAITiles.Tile tile = new MapWithAITiles.Tile(3215, 6218, 14);
+        final List<MapWithAITiles.Tile> tiles = MapWithAITiles.getTiles(tile.getBounds(), 14);
+        assertEquals(1, tiles.size());
+        assertEquals(tile, tiles.get(0));
+    }
+
+    @Test
+    void testOverlappingRequestsShareTiles() {
+        final Bounds first = new Bounds(39.06, -108.47, 39.08, -108.44);
+        final Bounds second = new Bounds(39.07, -108.46, 39.09, -108.43);
+        final List<MapWithAITiles.Tile> firstTiles = MapWithAITiles.getTiles(first, 13);
+        final List<MapWithAITiles.Tile> secondTiles = MapWithAITiles.getTiles(second, 13);
+        assertTrue(firstTiles.stream().anyMatch(secondTiles::contains));
+        for (MapWithAITiles.Tile tile : firstTiles) {
+            assertTrue(tile.getBounds().intersects(first));
+        }
+    }
+
+    @Test
+    void testDownloadTilesRespectMaximumDimensions() {
+        final Bounds bounds = new Bounds(0, 0, 0.01, 0.01);
+        MapWithAITiles.ZOOM.put(10);
+        for (MapWithAITiles.Tile tile : MapWithAITiles.getDownloadTiles(bounds,
+                MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS)) {
+            assertTrue(MapWithAIDataUtils.getWidth(tile.getBounds()) <= MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS);
+            assertTrue(tile.getZoom() >= 10);
+        }
+        MapWithAITiles.ZOOM.put(16);
+        assertTrue(MapWithAITiles.getDownloadTiles(bounds, MapWithAIDataUtils.MAXIMUM_SIDE_DIMENSIONS).stream()
+                .allMatch(tile -> tile.getZoom() == 16));
+    }
+}
@@ -0,0 +1,102 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link NodeLocationIndex}
+ */
+@BasicPreferences
+class NodeLocationIndexTest {
+    @AfterEach
+    void tearDown() {
+        NodeLocationIndex.retain(Collections.emptyList());
+    }
+
+    @Test
+    void testIndex() {
+        final DataSet dataSet = new DataSet();
+        final Node node1 = new Node(new LatLon(1, 1));
+        dataSet.addPrimitive(node1);
+        final NodeLocationIndex index = NodeLocationIndex.get(dataSet);
+        assertSame(index, NodeLocationIndex.get(dataSet));
+
+        assertEquals(Collections.singletonList(node1), index.getNodes(new LatLon(1, 1)));
+        // Nodes in neighboring cells are found
+        assertEquals(Collections.singletonList(node1), index.getNodes(new LatLon(1 + 0.9e-7, 1 - 0.9e-7)));
+        assertTrue(index.getNodes(new LatLon(1.001, 1)).isEmpty());
+
+        // The index is updated when the dataset changes
+        final Node node2 = new Node(new LatLon(2, 2));
+        dataSet.addPrimitive(node2);
+        assertEquals(Collections.singletonList(node2), index.getNodes(new LatLon(2, 2)));
+        assertEquals(2, index.size());
+        node2.setCoor(new LatLon(3, 3));
+        assertTrue(index.getNodes(new LatLon(2, 2)).isEmpty());
+        assertEquals(Collections.singletonList(node2), index.getNodes(new LatLon(3, 3)));
+        // Moved nodes are removed from their old cell
+        assertEquals(2, index.size());
+        node1.setDeleted(true);
+        assertTrue(index.getNodes(new LatLon(1, 1)).isEmpty());
+        dataSet.removePrimitive(node2);
+        assertTrue(index.getNodes(new LatLon(3, 3)).isEmpty());
+        assertEquals(1, index.size());
+
+        NodeLocationIndex.retain(Collections.emptyList());
+        assertNotSame(index, NodeLocationIndex.get(dataSet));
+    }
+
+    @Test
+    void testDestroy() {
+        final DataSet dataSet = new DataSet();
+        dataSet.addPrimitive(new Node(new LatLon(1, 1)));
+        final NodeLocationIndex index = NodeLocationIndex.get(dataSet);
+        NodeLocationIndex.destroy();
+        // The index no longer listens to the dataset
+        dataSet.addPrimitive(new Node(new LatLon(2, 2)));
+        assertEquals(1, index.size());
+        assertNotSame(index, NodeLocationIndex.get(dataSet));
+        // Indexes can be used again after being destroyed, and destroying them twice is fine
+        NodeLocationIndex.destroy();
+        NodeLocationIndex.destroy();
+    }
+
+    @Test
+    void testSameCell() {
+        final DataSet dataSet = new DataSet();
+        final Node[] nodes = new Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node(new LatLon(1, 1 + i * 1e-8));
+            dataSet.addPrimitive(nodes[i]);
+        }
+        final NodeLocationIndex index = NodeLocationIndex.get(dataSet);
+        assertEquals(nodes.length, index.getNodes(new LatLon(1, 1)).size());
+        // Remove nodes from the middle and the ends of a cell
+        dataSet.removePrimitive(nodes[2]);
+        dataSet.removePrimitive(nodes[0]);
+        dataSet.removePrimitive(nodes[4]);
+        assertEquals(Arrays.asList(nodes[3], nodes[1]), index.getNodes(new LatLon(1, 1)));
+        // Free slots are used again
+        final Node node = new Node(new LatLon(1, 1));
+        dataSet.addPrimitive(node);
+        assertEquals(Arrays.asList(node, nodes[3], nodes[1]), index.getNodes(new LatLon(1, 1)));
+        assertEquals(3, index.size());
+
+        // The index is dropped when the layer of the dataset is removed
+        NodeLocationIndex.remove(dataSet);
+        assertNotSame(index, NodeLocationIndex.get(dataSet));
+    }
+}
@@ -0,0 +1,131 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.openstreetmap.josm.TestUtils;
+import org.openstreetmap.josm.data.Bounds;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.OsmPrimitive;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.plugins.mapwithai.data.mapwithai.MapWithAICategory;
+import org.openstreetmap.josm.plugins.mapwithai.testutils.MapWithAITestRules;
+import org.openstreetmap.josm.plugins.mapwithai.testutils.annotations.MapWithAISources;
+import org.openstreetmap.josm.testutils.JOSMTestRules;
+
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+
+/**
+ * Test class for {@link PendingConflation}
+ */
+@MapWithAISources
+class PendingConflationTest {
+    @RegisterExtension
+    @SuppressFBWarnings("URF_UNREAD_PUBLIC_OR_PROTECTED_FIELD")
+    static JOSMTestRules rule = new MapWithAITestRules().projection();
+
+    @Test
+    void testReplace() {
+        final DataSet unconflated = new DataSet();
+        final Way road = TestUtils.newWay("highway=residential", new Node(new LatLon(39.1, -108.1)),
+                new Node(new LatLon(39.2, -108.2)));
+        road.getNodes().forEach(unconflated::addPrimitive);
+        unconflated.addPrimitive(road);
+        final PendingConflation pending = new PendingConflation(null, new CompletableFuture<>());
+        PendingConflation.register(unconflated, pending);
+
+        // Data from another download that is in the same area must be kept
+        final DataSet layer = new DataSet();
+        final Node other = new Node(new LatLon(39.15, -108.15));
+        other.put("amenity", "bench");
+        layer.addPrimitive(other);
+        final Collection<OsmPrimitive> merged = GetDataRunnable.mergeFrom(layer, unconflated);
+        assertEquals(3, merged.size());
+        assertEquals(4, layer.allPrimitives().size());
+        // The replacement waits for the conflated data
+        PendingConflation.merged(null, unconflated, merged);
+
+        final DataSet conflated = new DataSet();
+        final Way conflatedRoad = TestUtils.newWay("highway=residential name=Main", new Node(new LatLon(39.1, -108.1)),
+                new Node(new LatLon(39.2, -108.2)));
+        conflatedRoad.getNodes().forEach(conflated::addPrimitive);
+        conflated.addPrimitive(conflatedRoad);
+
+        assertEquals(3, pending.replaceIn(layer, conflated).size());
+        assertEquals(1, layer.getWays().size());
+        assertEquals("Main", layer.getWays().iterator().next().get("name"));
+        assertEquals(3, layer.getNodes().size());
+        assertTrue(layer.containsNode(other));
+
+        // The unconflated data is gone, so there is nothing left to replace
+        assertTrue(pending.replaceIn(layer, new DataSet()).isEmpty());
+        assertEquals(4, layer.allPrimitives().size());
+    }
+
+    @Test
+    void testCombine() {
+        final DataSet conflatedPart = new DataSet();
+        conflatedPart.addPrimitive(new Node(new LatLon(39.1, -108.1)));
+        final DataSet otherPart = new DataSet();
+        otherPart.addPrimitive(new Node(new LatLon(39.2, -108.2)));
+        final CompletableFuture<DataSet> future = new CompletableFuture<>();
+        PendingConflation.register(conflatedPart, new PendingConflation(null, future));
+        assertNull(PendingConflation.get(otherPart));
+
+        final DataSet combined = new DataSet();
+        PendingConflation.combine(combined, Arrays.asList(conflatedPart, otherPart));
+        combined.mergeFrom(conflatedPart);
+        combined.mergeFrom(otherPart);
+        final PendingConflation pending = PendingConflation.get(combined);
+        assertNotNull(pending);
+        assertFalse(pending.getConflatedData().isDone());
+
+        final DataSet conflated = new DataSet();
+        final Node conflatedNode = new Node(new LatLon(39.1, -108.1));
+        conflatedNode.put("name", "conflated");
+        conflated.addPrimitive(conflatedNode);
+        future.complete(conflated);
+        // The data that is not conflated replaces itself
+        final DataSet replacement = pending.getConflatedData().join();
+        assertEquals(2, replacement.getNodes().size());
+        assertEquals(1, replacement.getNodes().stream().filter(node -> node.hasKey("name")).count());
+    }
+
+    @Test
+    void testCancel() {
+        final MapWithAILayer layer = new MapWithAILayer(new DataSet(), "testCancel", null);
+        final DataSet external = new DataSet(new Node(new LatLon(39.15, -108.05)));
+        final DataConflationSender near = new DataConflationSender(MapWithAICategory.OTHER, null, external);
+        final DataConflationSender far = new DataConflationSender(MapWithAICategory.OTHER, null, external);
+        final DataSet nearData = new DataSet();
+        PendingConflation.register(nearData, new PendingConflation(null, new CompletableFuture<>(), near,
+                new Bounds(39.1, -108.1, 39.2, -108.0)));
+        final DataSet farData = new DataSet();
+        PendingConflation.register(farData, new PendingConflation(null, new CompletableFuture<>(), far,
+                new Bounds(10.0, 10.0, 10.1, 10.1)));
+        PendingConflation.merged(layer, nearData, Collections.emptyList());
+        PendingConflation.merged(layer, farData, Collections.emptyList());
+
+        // The mapper moved away from the far data
+        PendingConflation.cancelOutside(layer, new Bounds(39.0, -108.2, 39.3, -107.9));
+        assertTrue(far.isCancelled());
+        assertFalse(near.isCancelled());
+
+        // Nothing needs the conflated data once the layer is removed
+        layer.destroy();
+        assertTrue(near.isCancelled());
+    }
+}
@@ -0,0 +1,76 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.backend;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.osm.Tag;
+import org.openstreetmap.josm.data.osm.TagMap;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link TagRewriter}
+ */
+@BasicPreferences
+class TagRewriterTest {
+    @Test
+    void testReplaceTags() {
+        final Map<Tag, Tag> replaceTags = new HashMap<>();
+        replaceTags.put(new Tag("highway", "footway"), new Tag("highway", "path"));
+        replaceTags.put(new Tag("fixme", ""), new Tag("fixme", ""));
+        replaceTags.put(new Tag("building", "yes"), new Tag("source:building", "survey"));
+        final TagRewriter rewriter = TagRewriter.forTags(replaceTags);
+
+        final TagMap tags = new TagMap("highway", "footway", "fixme", "check", "building", "yes");
+        assertTrue(rewriter.apply(tags));
+        assertEquals(new TagMap("highway", "path", "building", "yes", "source:building", "survey"), tags);
+
+        final TagMap unchanged = new TagMap("highway", "residential", "building", "house");
+        assertFalse(rewriter.apply(unchanged));
+        assertEquals(new TagMap("highway", "residential", "building", "house"), unchanged);
+    }
+
+    @Test
+    void testReplaceKeys() {
+        final Map<String, String> replaceKeys = new HashMap<>();
+        replaceKeys.put("NAME", "name");
+        replaceKeys.put("highway", "highway");
+        final TagRewriter rewriter = TagRewriter.forKeys(replaceKeys);
+
+        final TagMap tags = new TagMap("NAME", "Main Street", "highway", "residential");
+        assertTrue(rewriter.apply(tags));
+        assertEquals(new TagMap("name", "Main Street", "highway", "residential"), tags);
+        assertTrue(TagRewriter.forKeys(Collections.singletonMap("a", "a")).isEmpty());
+    }
+
+    @Test
+    void testUserReplacements() {
+        final Map<String, String> replacementTags = new HashMap<>();
+        replacementTags.put("highway=footway", "highway=path");
+        replacementTags.put("fixme", "");
+        replacementTags.put("=", "");
+        MapWithAIPreferenceHelper.setReplacementTags(replacementTags);
+
+        final Map<Tag, Tag> parsed = TagRewriter.parseReplacementTags(replacementTags);
+        assertEquals(2, parsed.size());
+        assertEquals(new Tag("highway", "path"), parsed.get(new Tag("highway", "footway")));
+
+        final TagRewriter rewriter = TagRewriter.forUserReplacements();
+        // The rewriter is only compiled again when the replacements change
+        assertSame(rewriter, TagRewriter.forUserReplacements());
+        final TagMap tags = new TagMap("highway", "footway", "fixme", "yes");
+        assertTrue(rewriter.apply(tags));
+        assertEquals(new TagMap("highway", "path"), tags);
+
+        MapWithAIPreferenceHelper.setReplacementTags(Collections.singletonMap("highway=path", "highway=footway"));
+        assertNotSame(rewriter, TagRewriter.forUserReplacements());
+    }
+}
@@ -0,0 +1,64 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.commands;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.TestUtils;
+import org.openstreetmap.josm.data.coor.LatLon;
+import org.openstreetmap.josm.data.osm.Node;
+import org.openstreetmap.josm.data.osm.Way;
+
+/**
+ * Test class for {@link DuplicateWayIndex}
+ */
+class DuplicateWayIndexTest {
+    @Test
+    void testCandidates() {
+        final Way way1 = TestUtils.newWay("highway=residential", new Node(new LatLon(39, -108)),
+                new Node(new LatLon(39.001, -108)), new Node(new LatLon(39.002, -108)));
+        // Two nodes within the duplicate node distance of way1
+        final Way way2 = TestUtils.newWay("highway=residential", new Node(new LatLon(39.0000001, -108)),
+                new Node(new LatLon(39.0010001, -108)), new Node(new LatLon(39.001, -107.999)));
+        // Only one node shared with way1
+        final Way way3 = TestUtils.newWay("highway=residential", way1.lastNode(), new Node(new LatLon(39.003, -108)));
+        // Far away
+        final Way way4 = TestUtils.newWay("highway=residential", new Node(new LatLon(40, -108)),
+                new Node(new LatLon(40.001, -108)));
+        final DuplicateWayIndex index = new DuplicateWayIndex(Arrays.asList(way1, way2, way3, way4), 0.6);
+        assertEquals(Collections.singletonList(way2), index.getCandidates(way1));
+        assertEquals(Collections.singletonList(way1), index.getCandidates(way2));
+        assertTrue(index.getCandidates(way3).isEmpty());
+        assertTrue(index.getCandidates(way4).isEmpty());
+    }
+
+    @Test
+    void testOrigIdCandidates() {
+        final Way way1 = TestUtils.newWay("orig_id=1", new Node(new LatLon(39, -108)),
+                new Node(new LatLon(39.001, -108)));
+        final Way way2 = TestUtils.newWay("orig_id=1", new Node(new LatLon(39.002, -108)),
+                new Node(new LatLon(39.003, -108)));
+        final Way way3 = TestUtils.newWay("orig_id=2", new Node(new LatLon(39.004, -108)),
+                new Node(new LatLon(39.005, -108)));
+        final DuplicateWayIndex index = new DuplicateWayIndex(Arrays.asList(way1, way2, way3), 0.6);
+        assertEquals(Collections.singletonList(way2), index.getCandidates(way1));
+        assertTrue(index.getCandidates(way3).isEmpty());
+    }
+
+    @Test
+    void testMerged() {
+        final Way way1 = TestUtils.newWay("", new Node(new LatLon(39, -108)), new Node(new LatLon(39.001, -108)));
+        final Way way2 = TestUtils.newWay("", new Node(new LatLon(39.001, -108)), new Node(new LatLon(39.002, -108)),
+                new Node(new LatLon(39.003, -108)));
+        final Way way3 = TestUtils.newWay("", new Node(new LatLon(39.002, -108)), new Node(new LatLon(39.003, -108)));
+        final DuplicateWayIndex index = new DuplicateWayIndex(Arrays.asList(way1, way2, way3), 0.6);
+        assertEquals(Collections.singletonList(way2), index.getCandidates(way3));
+        // The nodes of way2 now belong to way1
+        index.merged(way1, way2);
+        assertEquals(Collections.singletonList(way1), index.getCandidates(way3));
+    }
+}
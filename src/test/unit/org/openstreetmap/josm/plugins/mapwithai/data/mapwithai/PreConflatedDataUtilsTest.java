@@ -2,6 +2,9 @@
 package org.openstreetmap.josm.plugins.mapwithai.data.mapwithai;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Collections;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -53,6 +56,20 @@ class PreConflatedDataUtilsTest {
                 ds.allPrimitives().stream().filter(p -> p.hasTag(PreConflatedDataUtils.getConflatedKey())).count());
     }
 
+    @Test
+    void testRemoveConflatedDataPrimitives() {
+        MapWithAIInfo info = new MapWithAIInfo();
+        info.setAlreadyConflatedKey("test_conflation");
+        Node added = TestUtils.newNode("test_conflation=test");
+        ds.addPrimitive(added);
+        ds.addPrimitive(TestUtils.newNode("test_conflation=test"));
+        PreConflatedDataUtils.removeConflatedData(Collections.singletonList(added), info);
+        // Only the given primitives are changed
+        assertEquals(1, ds.allPrimitives().stream().filter(p -> p.hasTag("test_conflation")).count());
+        assertTrue(added.hasTag(PreConflatedDataUtils.getConflatedKey()));
+        assertTrue(added.isDisabled());
+    }
+
     @Test
     void testRemoveConflatedDataNoKey() {
         MapWithAIInfo info = new MapWithAIInfo();
@@ -0,0 +1,83 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.io.mapwithai;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.junit.jupiter.api.Test;
+import org.openstreetmap.josm.data.osm.DataSet;
+import org.openstreetmap.josm.data.osm.Relation;
+import org.openstreetmap.josm.data.osm.Way;
+import org.openstreetmap.josm.gui.progress.NullProgressMonitor;
+import org.openstreetmap.josm.io.IllegalDataException;
+import org.openstreetmap.josm.testutils.annotations.BasicPreferences;
+
+/**
+ * Test class for {@link GeoJSONStreamReader}
+ */
+@BasicPreferences
+class GeoJSONStreamReaderTest {
+    private static GeoJSONStreamReader parse(String json) throws IllegalDataException {
+        return GeoJSONStreamReader.parse(new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)),
+                NullProgressMonitor.INSTANCE);
+    }
+
+    @Test
+    void testFeatureCollection() throws IllegalDataException {
+        final GeoJSONStreamReader reader = parse("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"building\":\"yes\",\"levels\":2,\"empty\":null},"
+                + "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[0,1],[1,1],[0,0]]]}},"
+                + "{\"type\":\"Feature\",\"properties\":{\"highway\":\"residential\"},"
+                + "\"geometry\":{\"type\":\"LineString\",\"coordinates\":[[0,0],[2,2]]}}]}");
+        final DataSet ds = reader.getDataSet();
+        assertEquals(2, reader.getFeatureCount());
+        assertFalse(reader.isExceededTransferLimit());
+        assertEquals(2, ds.getWays().size());
+        // The node at 0,0 is shared
+        assertEquals(4, ds.getNodes().size());
+        final Way building = ds.getWays().stream().filter(w -> w.hasTag("building")).findFirst().orElseThrow(
+                AssertionError::new);
+        assertTrue(building.isClosed());
+        assertEquals("2", building.get("levels"));
+        assertFalse(building.hasKey("empty"));
+    }
+
+    @Test
+    void testExceededTransferLimit() throws IllegalDataException {
+        // Esri puts the properties after the features
+        final GeoJSONStreamReader reader = parse("{\"type\":\"FeatureCollection\",\"features\":["
+                + "{\"type\":\"Feature\",\"properties\":{\"addr:housenumber\":\"1\"},"
+                + "\"geometry\":{\"type\":\"Point\",\"coordinates\":[1,2]}}],"
+                + "\"properties\":{\"exceededTransferLimit\":true}}");
+        assertTrue(reader.isExceededTransferLimit());
+        assertEquals(1, reader.getFeatureCount());
+        assertEquals(1, reader.getDataSet().getNodes().size());
+        assertEquals(2, reader.getDataSet().getNodes().iterator().next().lat(), 1e-7);
+    }
+
+    @Test
+    void testMultiPolygon() throws IllegalDataException {
+        final GeoJSONStreamReader reader = parse("{\"type\":\"Feature\",\"properties\":{\"building\":\"yes\"},"
+                + "\"geometry\":{\"type\":\"Polygon\",\"coordinates\":[[[0,0],[0,3],[3,3],[3,0],[0,0]],"
+                + "[[1,1],[1,2],[2,2],[1,1]]]}}");
+        final DataSet ds = reader.getDataSet();
+        assertEquals(1, ds.getRelations().size());
+        final Relation relation = ds.getRelations().iterator().next();
+        assertTrue(relation.hasTag("type", "multipolygon"));
+        assertTrue(relation.hasTag("building", "yes"));
+        assertEquals(2, relation.getMembersCount());
+        assertEquals("outer", relation.getMember(0).getRole());
+        assertEquals("inner", relation.getMember(1).getRole());
+    }
+
+    @Test
+    void testBadJson() {
+        assertThrows(IllegalDataException.class, () -> parse("[]"));
+        assertThrows(IllegalDataException.class, () -> parse("{\"type\":\"FeatureCollection\",\"features\":["));
+    }
+}
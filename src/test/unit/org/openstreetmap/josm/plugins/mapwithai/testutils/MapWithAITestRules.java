@@ -5,6 +5,7 @@ import java.lang.Thread.UncaughtExceptionHandler;
 import java.util.logging.Level;
 
 import org.junit.runners.model.InitializationError;
+import org.openstreetmap.josm.plugins.mapwithai.backend.MapWithAIDataCache;
 import org.openstreetmap.josm.testutils.JOSMTestRules;
 import org.openstreetmap.josm.tools.Logging;
 
@@ -35,6 +36,8 @@ public class MapWithAITestRules extends JOSMTestRules {
     protected void before() throws InitializationError, ReflectiveOperationException {
         TestRunnerDecorator.cleanUpAllMocks();
         super.before();
+        // Don't let cached data from other tests leak into this test
+        MapWithAIDataCache.clear();
         Logging.getLogger().setFilter(record -> record.getLevel().intValue() >= Level.WARNING.intValue()
                 || record.getSourceClassName().startsWith("org.openstreetmap.josm.plugins.mapwithai"));
 
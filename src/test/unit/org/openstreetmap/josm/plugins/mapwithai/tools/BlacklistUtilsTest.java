@@ -7,6 +7,7 @@ import static com.github.tomakehurst.wiremock.client.WireMock.noContent;
 import static com.github.tomakehurst.wiremock.client.WireMock.notFound;
 import static com.github.tomakehurst.wiremock.client.WireMock.urlMatching;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.options;
+import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
@@ -47,6 +48,7 @@ class BlacklistUtilsTest {
     @BeforeEach
     void clear() {
         wireMock.resetMappings();
+        BlacklistUtils.invalidate();
     }
 
     @AfterAll
@@ -113,4 +115,23 @@ class BlacklistUtilsTest {
                 get(urlMatching("/MapWithAI/json/blacklisted_versions.json")).willReturn(notFound()).build());
         assertTrue(BlacklistUtils.isBlacklisted());
     }
+
+    @Test
+    void testVerdictIsRemembered() {
+        wireMock.addStubMapping(get(urlMatching("/MapWithAI/json/blacklisted_versions.json"))
+                .willReturn(aResponse().withStatus(200).withBody("{ \"version\": \"reason here\"}")).build());
+        assertFalse(BlacklistUtils.isBlacklisted());
+        final int requests = wireMock.getAllServeEvents().size();
+        for (int i = 0; i < 10; i++) {
+            assertFalse(BlacklistUtils.isBlacklisted());
+        }
+        assertEquals(requests, wireMock.getAllServeEvents().size());
+
+        wireMock.resetMappings();
+        wireMock.addStubMapping(get(urlMatching("/MapWithAI/json/blacklisted_versions.json"))
+                .willReturn(aResponse().withStatus(200).withBody("[\"" + MapWithAIPlugin.getVersionInfo() + "\"]"))
+                .build());
+        // Still remembered
+        assertFalse(BlacklistUtils.isBlacklisted());
+    }
 }
@@ -0,0 +1,62 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * Test class for {@link CompressionUtils}
+ */
+class CompressionUtilsTest {
+    private static final String JSON = "{\"type\":\"FeatureCollection\",\"features\":[]}";
+    private static final String XML = "<osm version=\"0.6\"><node id=\"1\" lat=\"0\" lon=\"0\" version=\"1\"/></osm>";
+
+    @ParameterizedTest
+    @ValueSource(strings = { JSON, XML, "", "x" })
+    void testUncompressed(String data) throws IOException {
+        assertEquals(data, decode(data.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { JSON, XML })
+    void testGzip(String data) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (OutputStream gzip = new GZIPOutputStream(outputStream)) {
+            gzip.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(data, decode(outputStream.toByteArray()));
+    }
+
+    @ParameterizedTest
+    @ValueSource(strings = { JSON, XML })
+    void testDeflate(String data) throws IOException {
+        final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        try (OutputStream deflate = new DeflaterOutputStream(outputStream)) {
+            deflate.write(data.getBytes(StandardCharsets.UTF_8));
+        }
+        assertEquals(data, decode(outputStream.toByteArray()));
+    }
+
+    private static String decode(byte[] bytes) throws IOException {
+        try (InputStream inputStream = CompressionUtils.decode(new ByteArrayInputStream(bytes))) {
+            final ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+            final byte[] buffer = new byte[1024];
+            int read;
+            while ((read = inputStream.read(buffer)) >= 0) {
+                outputStream.write(buffer, 0, read);
+            }
+            return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
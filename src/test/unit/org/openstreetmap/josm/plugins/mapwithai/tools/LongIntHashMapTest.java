@@ -0,0 +1,63 @@
+// License: GPL. For details, see LICENSE file.
+package org.openstreetmap.josm.plugins.mapwithai.tools;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Test class for {@link LongIntHashMap}
+ */
+class LongIntHashMapTest {
+    @Test
+    void testPutGet() {
+        final LongIntHashMap map = new LongIntHashMap(0);
+        assertEquals(-1, map.get(1, -1));
+        map.put(1, 10);
+        map.put(Long.MIN_VALUE, 20);
+        map.put(0, 30);
+        assertEquals(10, map.get(1, -1));
+        assertEquals(20, map.get(Long.MIN_VALUE, -1));
+        assertEquals(30, map.get(0, -1));
+        map.put(1, 11);
+        assertEquals(11, map.get(1, -1));
+        assertEquals(3, map.size());
+    }
+
+    @Test
+    void testRemove() {
+        final LongIntHashMap map = new LongIntHashMap(2);
+        for (int i = 0; i < 1_000; i++) {
+            map.put(((long) i << 32) | i, i);
+        }
+        map.put(Long.MIN_VALUE, -2);
+        for (int i = 0; i < 1_000; i += 2) {
+            map.remove(((long) i << 32) | i);
+        }
+        map.remove(Long.MIN_VALUE);
+        map.remove(Long.MIN_VALUE);
+        map.remove(-5);
+        assertEquals(500, map.size());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(i % 2 == 0 ? -1 : i, map.get(((long) i << 32) | i, -1));
+        }
+        assertEquals(-1, map.get(Long.MIN_VALUE, -1));
+    }
+
+    @Test
+    void testResize() {
+        final LongIntHashMap map = new LongIntHashMap(2);
+        for (int i = 0; i < 10_000; i++) {
+            map.put(((long) i << 32) | i, i);
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < 10_000; i++) {
+            assertEquals(i, map.get(((long) i << 32) | i, -1));
+        }
+        final AtomicLong sum = new AtomicLong();
+        map.forEachValue(sum::addAndGet);
+        assertEquals(10_000L * 9_999 / 2, sum.get());
+    }
+}
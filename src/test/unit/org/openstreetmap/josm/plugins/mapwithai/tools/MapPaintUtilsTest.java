@@ -2,10 +2,13 @@
 package org.openstreetmap.josm.plugins.mapwithai.tools;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
 
 import java.awt.Color;
+import java.io.File;
 import java.io.IOException;
 import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import org.awaitility.Awaitility;
 import org.awaitility.Durations;
@@ -61,6 +64,7 @@ class MapPaintUtilsTest {
                     ds.addPrimitive(TestUtils.newNode("source=digitalglobe"));
                     ds.addPrimitive(TestUtils.newNode("source=TestSource"));
                     MapPaintUtils.addSourcesToPaintStyle(ds);
+                    MapPaintUtils.flushSources();
                     assertEquals(1, countLabels(mapcssSource, "digitalglobe"));
                     assertEquals(1, countLabels(mapcssSource, "TestSource"));
                 }
@@ -71,12 +75,55 @@ class MapPaintUtilsTest {
                 MapPaintUtils.addMapWithAIPaintStyles();
                 mapcssSource = (MapCSSStyleSource) MapPaintUtils.getMapWithAIPaintStyle();
                 MapPaintUtils.addSourcesToPaintStyle(ds);
+                MapPaintUtils.flushSources();
                 assertEquals(color1digitalglobe, getColorStyleSetting(mapcssSource, "digitalglobe").getValue());
                 assertEquals(color1TestSource, getColorStyleSetting(mapcssSource, "TestSource").getValue());
             }
         }
     }
 
+    @Test
+    void testBatchedSources() throws IOException {
+        MapPaintUtils.removeMapWithAIPaintStyles();
+        Awaitility.await().atMost(Durations.TEN_SECONDS).until(() -> !MapPaintUtils.checkIfMapWithAIPaintStyleExists());
+        MapCSSStyleSource mapcssSource = (MapCSSStyleSource) MapPaintUtils.addMapWithAIPaintStyles();
+        try (CachedFile cachedFile = new CachedFile(mapcssSource.url)) {
+            final File file = cachedFile.getFile();
+            file.setLastModified(0);
+            final DataSet ds = new DataSet();
+            for (int i = 0; i < 5; i++) {
+                ds.addPrimitive(TestUtils.newNode("source=BatchSourceA"));
+                MapPaintUtils.addSourcesToPaintStyle(ds);
+                ds.addPrimitive(TestUtils.newNode("source=BatchSourceB" + (i % 2)));
+                MapPaintUtils.addSourcesToPaintStyle(ds);
+            }
+            // Nothing is written until the sources are flushed
+            assertEquals(0, file.lastModified());
+            MapPaintUtils.flushSources();
+            // All of the sources are written at once
+            assertNotEquals(0, cachedFile.getFile().lastModified());
+            mapcssSource = (MapCSSStyleSource) MapPaintUtils.getMapWithAIPaintStyle();
+            assertEquals(1, countLabels(mapcssSource, "BatchSourceA"));
+            assertEquals(1, countLabels(mapcssSource, "BatchSourceB0"));
+            assertEquals(1, countLabels(mapcssSource, "BatchSourceB1"));
+
+            // The scheduled update has nothing left to do, and known sources don't touch the style
+            cachedFile.getFile().setLastModified(0);
+            MapPaintUtils.flushSources();
+            MapPaintUtils.addSourcesToPaintStyle(ds);
+            Awaitility.await().pollDelay(MapPaintUtils.SOURCE_UPDATE_DELAY * 2, TimeUnit.MILLISECONDS)
+                    .atMost(Durations.TEN_SECONDS).until(() -> true);
+            assertEquals(0, cachedFile.getFile().lastModified());
+
+            // Once the scheduled update has run, new sources schedule another one
+            ds.addPrimitive(TestUtils.newNode("source=BatchSourceC"));
+            MapPaintUtils.addSourcesToPaintStyle(ds);
+            Awaitility.await().atMost(Durations.TEN_SECONDS).until(() -> countLabels(
+                    (MapCSSStyleSource) MapPaintUtils.getMapWithAIPaintStyle(), "BatchSourceC") == 1);
+            assertNotEquals(0, cachedFile.getFile().lastModified());
+        }
+    }
+
     private static long countLabels(MapCSSStyleSource source, String label) {
         if (source == null || source.settings == null) {
             return -1;